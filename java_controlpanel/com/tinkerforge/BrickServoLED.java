@@ -0,0 +1,215 @@
+package com.tinkerforge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link BrickServoLED} adds the functions of the modified LED firmware in
+ * software/src to the {@link BrickServo} binding. It lives in the package of
+ * the bindings, as requests are built with their package private packet
+ * helpers.
+ *
+ * @author Ingo Kauffmann
+ */
+public class BrickServoLED extends BrickServo {
+
+	public final static byte FUNCTION_SET_POSITIONS = (byte) 35;
+	public final static byte FUNCTION_SET_DIMMING_MODE = (byte) 36;
+	public final static byte FUNCTION_GET_DIMMING_MODE = (byte) 37;
+	public final static byte FUNCTION_FADE = (byte) 38;
+
+	/**
+	 * Easing of a fade, see {@link #setDimmingMode(short, short, short)}
+	 */
+	public final static short EASING_LINEAR = 0;
+	public final static short EASING_EASE_IN_OUT = 1;
+	public final static short EASING_EXPONENTIAL = 2;
+
+	/**
+	 * Curve mapping the lightness of a fade to the duty cycle: linear, gamma
+	 * 2.2 or CIE 1931 lightness
+	 */
+	public final static short CURVE_LINEAR = 0;
+	public final static short CURVE_GAMMA = 1;
+	public final static short CURVE_CIE = 2;
+
+	/**
+	 * Number of servo outputs
+	 */
+	public final static int SERVO_NUM = 7;
+
+	/**
+	 * First firmware version supporting {@link #setPositions(short, int[], short[])}
+	 */
+	private final static short[] SET_POSITIONS_VERSION = { 2, 99, 4 };
+
+	/**
+	 * First firmware version supporting {@link #fade(short, short, long)}
+	 */
+	private final static short[] DIMMING_MODE_VERSION = { 2, 99, 5 };
+
+	private volatile boolean setPositionsSupported;
+	private volatile boolean dimmingModeSupported;
+
+	/**
+	 * Dimming mode of a servo, see {@link #getDimmingMode(short)}
+	 */
+	public class DimmingMode {
+		public short easing;
+		public short curve;
+
+		@Override
+		public String toString() {
+			return "[" + "easing = " + easing + ", " + "curve = " + curve + "]";
+		}
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param uid
+	 * @param ipcon
+	 */
+	public BrickServoLED(String uid, IPConnection ipcon) {
+		super(uid, ipcon);
+		responseExpected[IPConnection.unsignedByte(FUNCTION_SET_POSITIONS)] = RESPONSE_EXPECTED_FLAG_FALSE;
+		responseExpected[IPConnection.unsignedByte(FUNCTION_SET_DIMMING_MODE)] = RESPONSE_EXPECTED_FLAG_FALSE;
+		responseExpected[IPConnection.unsignedByte(FUNCTION_GET_DIMMING_MODE)] = RESPONSE_EXPECTED_FLAG_ALWAYS_TRUE;
+		responseExpected[IPConnection.unsignedByte(FUNCTION_FADE)] = RESPONSE_EXPECTED_FLAG_FALSE;
+	}
+
+	/**
+	 * Sets velocity and position of all servos in the mask with one request.
+	 * The firmware applies them in the same tick, so the servos start moving
+	 * together. Servo 3 and 4 store the position as dim set point, as with
+	 * {@link #setPosition(short, short)}.
+	 *
+	 * @param servoMask
+	 *            bit n selects servo n
+	 * @param velocity
+	 *            velocity per servo, only the selected ones are used
+	 * @param position
+	 *            position per servo, only the selected ones are used
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public void setPositions(short servoMask, int[] velocity, short[] position) throws TimeoutException, NotConnectedException {
+		if (velocity.length != SERVO_NUM || position.length != SERVO_NUM)
+			throw new IllegalArgumentException("Expected " + SERVO_NUM + " velocities and positions");
+		ByteBuffer bb = ipcon.createRequestPacket((byte) (8 + 1 + SERVO_NUM * 2 + SERVO_NUM * 2), FUNCTION_SET_POSITIONS, this);
+		bb.put((byte) servoMask);
+		for (int i = 0; i < SERVO_NUM; i++) {
+			bb.putShort((short) velocity[i]);
+		}
+		for (int i = 0; i < SERVO_NUM; i++) {
+			bb.putShort(position[i]);
+		}
+		sendRequest(bb.array());
+	}
+
+	/**
+	 * Sets the easing and the curve used by {@link #fade(short, short, long)}.
+	 * A running fade continues with the new mode.
+	 *
+	 * @param servoNum
+	 *            servo or bit mask with bit 7 set
+	 * @param easing
+	 *            EASING_LINEAR, EASING_EASE_IN_OUT or EASING_EXPONENTIAL
+	 * @param curve
+	 *            CURVE_LINEAR, CURVE_GAMMA or CURVE_CIE
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public void setDimmingMode(short servoNum, short easing, short curve) throws TimeoutException, NotConnectedException {
+		ByteBuffer bb = ipcon.createRequestPacket((byte) 11, FUNCTION_SET_DIMMING_MODE, this);
+		bb.put((byte) servoNum);
+		bb.put((byte) easing);
+		bb.put((byte) curve);
+		sendRequest(bb.array());
+	}
+
+	/**
+	 * Returns the dimming mode set by
+	 * {@link #setDimmingMode(short, short, short)}.
+	 *
+	 * @param servoNum
+	 * @return
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public DimmingMode getDimmingMode(short servoNum) throws TimeoutException, NotConnectedException {
+		ByteBuffer bb = ipcon.createRequestPacket((byte) 9, FUNCTION_GET_DIMMING_MODE, this);
+		bb.put((byte) servoNum);
+		byte[] response = sendRequest(bb.array());
+		bb = ByteBuffer.wrap(response, 8, response.length - 8);
+		bb.order(ByteOrder.LITTLE_ENDIAN);
+		DimmingMode obj = new DimmingMode();
+		obj.easing = IPConnection.unsignedByte(bb.get());
+		obj.curve = IPConnection.unsignedByte(bb.get());
+		return obj;
+	}
+
+	/**
+	 * Fades the servo to a position within duration milliseconds. The
+	 * firmware interpolates the lightness along the easing and maps it to the
+	 * duty cycle by the curve of the dimming mode, so the fade is perceived as
+	 * even. Velocity and acceleration are not used and the PositionReached
+	 * callback is triggered once at the end. Servo 3 and 4 fade the dim set
+	 * point. {@link #setPosition(short, short)} ends a running fade.
+	 *
+	 * @param servoNum
+	 *            servo or bit mask with bit 7 set
+	 * @param position
+	 * @param duration
+	 *            in milliseconds
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public void fade(short servoNum, short position, long duration) throws TimeoutException, NotConnectedException {
+		ByteBuffer bb = ipcon.createRequestPacket((byte) 15, FUNCTION_FADE, this);
+		bb.put((byte) servoNum);
+		bb.putShort(position);
+		bb.putInt((int) duration);
+		sendRequest(bb.array());
+	}
+
+	/**
+	 * Takes over the firmware version reported by the enumeration.
+	 *
+	 * @param firmwareVersion
+	 *            null if unknown
+	 */
+	public void setFirmwareVersion(short[] firmwareVersion) {
+		setPositionsSupported = firmwareVersion != null && compare(firmwareVersion, SET_POSITIONS_VERSION) >= 0;
+		dimmingModeSupported = firmwareVersion != null && compare(firmwareVersion, DIMMING_MODE_VERSION) >= 0;
+	}
+
+	/**
+	 * Returns true if the firmware supports
+	 * {@link #setPositions(short, int[], short[])}.
+	 *
+	 * @return
+	 */
+	public boolean isSetPositionsSupported() {
+		return setPositionsSupported;
+	}
+
+	/**
+	 * Returns true if the firmware supports
+	 * {@link #setDimmingMode(short, short, short)} and
+	 * {@link #fade(short, short, long)}.
+	 *
+	 * @return
+	 */
+	public boolean isDimmingModeSupported() {
+		return dimmingModeSupported;
+	}
+
+	private static int compare(short[] a, short[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			if (a[i] != b[i])
+				return a[i] - b[i];
+		}
+		return a.length - b.length;
+	}
+}
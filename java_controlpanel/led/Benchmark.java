@@ -0,0 +1,211 @@
+package led;
+
+import java.util.Arrays;
+
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickletDualRelay;
+import com.tinkerforge.IPConnection;
+
+/**
+ * Benchmarks the hot paths of the control panel against a local
+ * {@link BrickdSimulator}, so changes to these paths can be compared before
+ * and after. Run it with the Tinkerforge bindings on the class path:
+ *
+ * <pre>
+ * java -cp Tinkerforge.jar:. led.Benchmark [seconds per benchmark] [latency in ms]
+ * </pre>
+ *
+ * @author Ingo Kauffmann
+ */
+public class Benchmark {
+
+	/**
+	 * A single measured operation
+	 */
+	interface Operation {
+		void run(int i) throws Exception;
+	}
+
+	/**
+	 * Consumes results, so the JIT can not eliminate the measured code
+	 */
+	static volatile long sink;
+
+	private static long measureMillis = 2000;
+
+	/**
+	 * Launches all benchmarks
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0)
+			measureMillis = Long.parseLong(args[0]) * 1000;
+
+		BrickdSimulator simulator = BrickdSimulator.withConfig(0);
+		if (args.length > 1)
+			simulator.setLatency(Long.parseLong(args[1]));
+		simulator.start();
+		final SimulatedServo wire = (SimulatedServo) simulator.getDevice(Config.UID_ServoBrick_1);
+
+		IPConnection ipcon = new IPConnection();
+		ipcon.connect("localhost", simulator.getPort());
+
+		BrickServo servo = new BrickServo(Config.UID_ServoBrick_1, ipcon);
+		CommandQueue queue = new CommandQueue("Benchmark");
+		RelayScheduler relays = new RelayScheduler();
+
+		final ExternallyDimmedLED r = new ExternallyDimmedLED("Rot", Config.UID_DualRelayBricklet_R, servo, 0, ipcon, queue, relays);
+		final ExternallyDimmedLED g = new ExternallyDimmedLED("Gruen", Config.UID_DualRelayBricklet_G, servo, 1, ipcon, queue, relays);
+		final ExternallyDimmedLED b = new ExternallyDimmedLED("Blau", Config.UID_DualRelayBricklet_B, servo, 2, ipcon, queue, relays);
+		final RgbGroup rgb = new RgbGroup(queue, r, g, b);
+		DualRelayState relayLow = new DualRelayState(new BrickletDualRelay(Config.UID_DualRelayBricklet_LowSide, ipcon));
+		InternallyDimmedLED w = new InternallyDimmedLED("Weiss", relayLow, true, servo, 3, ipcon, queue, relays);
+		InternallyDimmedLED t = new InternallyDimmedLED("Tisch", relayLow, false, servo, 4, ipcon, queue, relays);
+		final PositionReachedDispatcher dispatcher = new PositionReachedDispatcher(r, g, b, w, t);
+
+		/** Settle all channels in the dimmed state, so no relay is switched while measuring */
+		r.setBrightness(50);
+		g.setBrightness(50);
+		b.setBrightness(50);
+		Thread.sleep(Config.relay_safeguard_time + 100);
+
+		System.out.println(String.format("%-24s %12s %10s %10s %10s", "Benchmark", "ops/s", "p50 us", "p99 us", "max us"));
+
+		throughput("getColor", new Operation() {
+			@Override
+			public void run(int i) {
+				sink += r.getColor();
+			}
+		});
+
+		throughput("toBrightness", new Operation() {
+			@Override
+			public void run(int i) {
+				sink += ExternallyDimmedLED.toBrightness(i & 0xFF);
+			}
+		});
+
+		final DimmingCurve curve = r.getCurve();
+		throughput("DimmingCurve.fromColor", new Operation() {
+			@Override
+			public void run(int i) {
+				sink += curve.fromColor(i & 0xFF);
+			}
+		});
+
+		throughput("DimmingCurve.fromColor16", new Operation() {
+			@Override
+			public void run(int i) {
+				sink += curve.fromColor16(i & 0xFFFF);
+			}
+		});
+
+		throughput("DimmingCurve.toColor", new Operation() {
+			@Override
+			public void run(int i) {
+				sink += curve.toColor(i % (Config.servo_PWM_resolution + 1));
+			}
+		});
+
+		throughput("dispatch", new Operation() {
+			@Override
+			public void run(int i) {
+				dispatcher.positionReached((short) (i % 5), (short) (Config.servo_PWM_resolution / 2));
+			}
+		});
+
+		throughput("setBrightness", new Operation() {
+			@Override
+			public void run(int i) {
+				r.setBrightness(10 + (i % 80));
+			}
+		});
+
+		throughput("RgbGroup.setColor", new Operation() {
+			@Override
+			public void run(int i) {
+				rgb.setColor(30 + (i % 200), 230 - (i % 200), 128);
+			}
+		});
+
+		/** From the slider event until the position arrived at the Servo Brick */
+		latency("slider-to-wire", new Operation() {
+			@Override
+			public void run(int i) throws Exception {
+				int target = (i & 1) == 0 ? 20 : 80;
+				int goal = curve.fromBrightness(target);
+				r.submitBrightness(target);
+				while (wire.getGoal(0) != goal) {
+					Thread.yield();
+				}
+			}
+		});
+
+		queue.shutdown();
+		relays.shutdown();
+		ipcon.disconnect();
+		simulator.stop();
+	}
+
+	/**
+	 * Measures the throughput of a cheap operation in batches, after warming
+	 * up for the same time.
+	 *
+	 * @param name
+	 * @param op
+	 * @throws Exception
+	 */
+	static void throughput(String name, Operation op) throws Exception {
+		run(op, measureMillis);
+		long start = System.nanoTime();
+		long ops = run(op, measureMillis);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%-24s %12.0f", name, ops * 1e9 / elapsed));
+	}
+
+	private static long run(Operation op, long millis) throws Exception {
+		long end = System.nanoTime() + millis * 1000000L;
+		long ops = 0;
+		do {
+			for (int i = 0; i < 1000; i++) {
+				op.run(i);
+			}
+			ops += 1000;
+		} while (System.nanoTime() < end);
+		return ops;
+	}
+
+	/**
+	 * Measures every single operation and reports percentiles, after warming
+	 * up for the same time.
+	 *
+	 * @param name
+	 * @param op
+	 * @throws Exception
+	 */
+	static void latency(String name, Operation op) throws Exception {
+		long[] samples = new long[1024];
+		for (int pass = 0; pass < 2; pass++) {
+			int n = 0;
+			long start = System.nanoTime();
+			long end = start + measureMillis * 1000000L;
+			do {
+				long t0 = System.nanoTime();
+				op.run(n);
+				long t1 = System.nanoTime();
+				if (n == samples.length)
+					samples = Arrays.copyOf(samples, n * 2);
+				samples[n++] = t1 - t0;
+			} while (System.nanoTime() < end);
+
+			if (pass == 1) {
+				long[] sorted = Arrays.copyOf(samples, n);
+				Arrays.sort(sorted);
+				System.out.println(String.format("%-24s %12.0f %10.1f %10.1f %10.1f", name, n * 1e9 / (System.nanoTime() - start),
+						sorted[n / 2] / 1000.0, sorted[(int) (n * 0.99)] / 1000.0, sorted[n - 1] / 1000.0));
+			}
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package led;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BrickdSimulator} is an in-process stand-in for the brick daemon. It
+ * speaks the Tinkerforge TCP/IP protocol for the Servo Brick and the DualRelay
+ * and IO4 Bricklets used by the LEDControl, so the control panel can be run
+ * and benchmarked without a stack.
+ *
+ * Start it with {@link #main(String[])} and point Config.host to localhost,
+ * or create one on an ephemeral port for tests and benchmarks.
+ *
+ * @author Ingo Kauffmann
+ */
+public class BrickdSimulator {
+
+	static final int HEADER_LENGTH = 8;
+	static final int MAX_PAYLOAD_LENGTH = 64;
+
+	static final int FUNCTION_DISCONNECT_PROBE = 128;
+	static final int FUNCTION_CALLBACK_ENUMERATE = 253;
+	static final int FUNCTION_ENUMERATE = 254;
+	static final int FUNCTION_GET_IDENTITY = 255;
+
+	static final int ERROR_CODE_OK = 0;
+	static final int ERROR_CODE_INVALID_PARAMETER = 1;
+	static final int ERROR_CODE_FUNCTION_NOT_SUPPORTED = 2;
+
+	static final int ENUMERATION_TYPE_AVAILABLE = 0;
+
+	private static final String BASE58 = "123456789abcdefghijkmnopqrstuvwxyzABCDEFGHJKLMNPQRSTUVWXYZ";
+
+	/**
+	 * Interval of the simulated firmware tick in milliseconds
+	 */
+	private static final int TICK_PERIOD = 2;
+
+	/**
+	 * Launches a simulator with the devices of the Config on Config.port.
+	 *
+	 * @param args
+	 *            optional response latency in milliseconds
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		BrickdSimulator simulator = withConfig(Config.port);
+		if (args.length > 0)
+			simulator.setLatency(Long.parseLong(args[0]));
+		simulator.start();
+		System.out.println("BrickdSimulator listening on port " + simulator.getPort());
+		simulator.join();
+	}
+
+	/**
+	 * Creates a simulator with the Bricks and Bricklets of the Config.
+	 *
+	 * @param port
+	 *            TCP port, 0 for any free port
+	 * @return
+	 * @throws IOException
+	 */
+	public static BrickdSimulator withConfig(int port) throws IOException {
+		BrickdSimulator simulator = new BrickdSimulator(port);
+		SimulatedIO4 io4 = simulator.addIO4(Config.UID_IO4Bricklet_1, Config.UID_ServoBrick_1, 'b');
+		SimulatedServo servo = simulator.addServo(Config.UID_ServoBrick_1, Config.UID_MasterBrick_1, '1');
+		servo.setWallSwitch(io4);
+		simulator.addDualRelay(Config.UID_DualRelayBricklet_R, Config.UID_MasterBrick_1, 'd');
+		simulator.addDualRelay(Config.UID_DualRelayBricklet_G, Config.UID_MasterBrick_1, 'b');
+		simulator.addDualRelay(Config.UID_DualRelayBricklet_B, Config.UID_MasterBrick_1, 'a');
+		simulator.addDualRelay(Config.UID_DualRelayBricklet_LowSide, Config.UID_MasterBrick_1, 'c');
+		simulator.addDualRelay(Config.UID_DualRelayBricklet_HighSide, Config.UID_ServoBrick_1, 'a');
+		return simulator;
+	}
+
+	private final ServerSocket server;
+	private final Map<Long, SimulatedDevice> devices = new LinkedHashMap<Long, SimulatedDevice>();
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	private final ScheduledExecutorService ticker;
+	private Thread acceptor;
+
+	private volatile long latencyMillis;
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Constructor
+	 *
+	 * @param port
+	 *            TCP port, 0 for an ephemeral port
+	 * @throws IOException
+	 */
+	public BrickdSimulator(int port) throws IOException {
+		server = new ServerSocket(port);
+		ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "BrickdSimulator tick");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Adds a simulated Servo Brick.
+	 *
+	 * @param uid
+	 * @param connectedUid
+	 * @param position
+	 * @return
+	 */
+	public SimulatedServo addServo(String uid, String connectedUid, char position) {
+		return add(new SimulatedServo(this, uid, connectedUid, position));
+	}
+
+	/**
+	 * Adds a simulated DualRelay Bricklet.
+	 *
+	 * @param uid
+	 * @param connectedUid
+	 * @param position
+	 * @return
+	 */
+	public SimulatedDualRelay addDualRelay(String uid, String connectedUid, char position) {
+		return add(new SimulatedDualRelay(this, uid, connectedUid, position));
+	}
+
+	/**
+	 * Adds a simulated IO4 Bricklet.
+	 *
+	 * @param uid
+	 * @param connectedUid
+	 * @param position
+	 * @return
+	 */
+	public SimulatedIO4 addIO4(String uid, String connectedUid, char position) {
+		return add(new SimulatedIO4(this, uid, connectedUid, position));
+	}
+
+	private <T extends SimulatedDevice> T add(T device) {
+		synchronized (devices) {
+			devices.put(device.getNumericUid(), device);
+		}
+		return device;
+	}
+
+	/**
+	 * Returns the simulated device with the given UID or null.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	public SimulatedDevice getDevice(String uid) {
+		synchronized (devices) {
+			return devices.get(decodeUid(uid));
+		}
+	}
+
+	/**
+	 * Delays every response by the given time to simulate a slow link.
+	 *
+	 * @param latencyMillis
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Returns the number of requests received so far.
+	 *
+	 * @return
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the TCP port the simulator listens on.
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Starts accepting connections and ticking the simulated firmware.
+	 */
+	public void start() {
+		ticker.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				for (SimulatedDevice device : getDevices()) {
+					device.tick(TICK_PERIOD / 1000.0);
+				}
+			}
+		}, TICK_PERIOD, TICK_PERIOD, TimeUnit.MILLISECONDS);
+
+		acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						Client client = new Client(server.accept());
+						clients.add(client);
+						Thread t = new Thread(client, "BrickdSimulator client");
+						t.setDaemon(true);
+						t.start();
+					} catch (IOException e) {
+						if (!server.isClosed())
+							e.printStackTrace();
+					}
+				}
+			}
+		}, "BrickdSimulator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Waits until the simulator was stopped.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		acceptor.join();
+	}
+
+	/**
+	 * Closes all connections and stops the simulator.
+	 */
+	public void stop() {
+		ticker.shutdownNow();
+		try {
+			server.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Client client : clients) {
+			client.close();
+		}
+	}
+
+	private List<SimulatedDevice> getDevices() {
+		synchronized (devices) {
+			return new ArrayList<SimulatedDevice>(devices.values());
+		}
+	}
+
+	/**
+	 * Sends a callback of a device to all connected clients.
+	 *
+	 * @param device
+	 * @param functionId
+	 * @param payload
+	 *            flipped payload buffer
+	 */
+	void callback(SimulatedDevice device, int functionId, ByteBuffer payload) {
+		byte[] packet = packet(device.getNumericUid(), functionId, 0, ERROR_CODE_OK, payload);
+		for (Client client : clients) {
+			client.send(packet);
+		}
+	}
+
+	/**
+	 * Allocates a little endian payload buffer.
+	 *
+	 * @return
+	 */
+	static ByteBuffer payload() {
+		return ByteBuffer.allocate(MAX_PAYLOAD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static byte[] packet(long uid, int functionId, int sequenceAndOptions, int errorCode, ByteBuffer payload) {
+		int length = HEADER_LENGTH + (payload == null ? 0 : payload.remaining());
+		ByteBuffer bb = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		bb.putInt((int) uid);
+		bb.put((byte) length);
+		bb.put((byte) functionId);
+		bb.put((byte) sequenceAndOptions);
+		bb.put((byte) (errorCode << 6));
+		if (payload != null)
+			bb.put(payload);
+		return bb.array();
+	}
+
+	/**
+	 * Writes the enumeration/identity payload of a device.
+	 *
+	 * @param device
+	 * @param bb
+	 */
+	static void putIdentity(SimulatedDevice device, ByteBuffer bb) {
+		putString(bb, device.getUid(), 8);
+		putString(bb, device.getConnectedUid(), 8);
+		bb.put((byte) device.getPosition());
+		bb.put((byte) 1).put((byte) 0).put((byte) 0);
+		bb.put(device.getFirmwareVersion());
+		bb.putShort((short) device.getDeviceIdentifier());
+	}
+
+	private static void putString(ByteBuffer bb, String s, int length) {
+		for (int i = 0; i < length; i++) {
+			bb.put(i < s.length() ? (byte) s.charAt(i) : 0);
+		}
+	}
+
+	/**
+	 * Decodes a Base58 UID to the 32 bit UID used in the packet header.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	static long decodeUid(String uid) {
+		long value = 0;
+		for (int i = 0; i < uid.length(); i++) {
+			value = value * 58 + BASE58.indexOf(uid.charAt(i));
+		}
+		if (value > 0xFFFFFFFFL) {
+			/** Same 64 to 32 bit conversion as the bindings */
+			long value1 = value & 0xFFFFFFFFL;
+			long value2 = (value >> 32) & 0xFFFFFFFFL;
+			value = (value1 & 0x00000FFFL);
+			value |= (value1 & 0x0F000000L) >> 12;
+			value |= (value2 & 0x0000003FL) << 16;
+			value |= (value2 & 0x000F0000L) << 6;
+			value |= (value2 & 0x3F000000L) << 2;
+		}
+		return value;
+	}
+
+	/**
+	 * A connection of a binding
+	 */
+	private class Client implements Runnable {
+		private final Socket socket;
+		private final OutputStream out;
+
+		private Client(Socket socket) throws IOException {
+			this.socket = socket;
+			this.socket.setTcpNoDelay(true);
+			this.out = socket.getOutputStream();
+		}
+
+		@Override
+		public void run() {
+			byte[] header = new byte[HEADER_LENGTH];
+			try {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				while (true) {
+					in.readFully(header);
+					int length = header[4] & 0xFF;
+					if (length < HEADER_LENGTH)
+						throw new IOException("Invalid packet length " + length);
+					byte[] data = new byte[length - HEADER_LENGTH];
+					in.readFully(data);
+					handle(header, ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+				}
+			} catch (EOFException e) {
+				/** Connection closed by the binding */
+			} catch (IOException e) {
+				if (!socket.isClosed())
+					e.printStackTrace();
+			} finally {
+				close();
+			}
+		}
+
+		private void handle(byte[] header, ByteBuffer request) {
+			ByteBuffer hb = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+			long uid = hb.getInt() & 0xFFFFFFFFL;
+			int functionId = header[5] & 0xFF;
+			int sequenceAndOptions = header[6] & 0xFF;
+			boolean responseExpected = (sequenceAndOptions & 0x08) != 0;
+			requests.incrementAndGet();
+
+			if (latencyMillis > 0) {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			if (uid == 0) {
+				if (functionId == FUNCTION_ENUMERATE) {
+					for (SimulatedDevice device : getDevices()) {
+						ByteBuffer payload = payload();
+						putIdentity(device, payload);
+						payload.put((byte) ENUMERATION_TYPE_AVAILABLE);
+						payload.flip();
+						send(packet(device.getNumericUid(), FUNCTION_CALLBACK_ENUMERATE, 0, ERROR_CODE_OK, payload));
+					}
+				}
+				/** Disconnect probes and other broadcasts are ignored */
+				return;
+			}
+
+			SimulatedDevice device;
+			synchronized (devices) {
+				device = devices.get(uid);
+			}
+			if (device == null)
+				return;
+
+			ByteBuffer response = payload();
+			int errorCode = ERROR_CODE_OK;
+			if (functionId == FUNCTION_GET_IDENTITY) {
+				putIdentity(device, response);
+			} else {
+				try {
+					if (!device.handle(functionId, request, response))
+						errorCode = ERROR_CODE_FUNCTION_NOT_SUPPORTED;
+				} catch (IllegalArgumentException e) {
+					errorCode = ERROR_CODE_INVALID_PARAMETER;
+				}
+			}
+			response.flip();
+			if (errorCode != ERROR_CODE_OK)
+				response.limit(0);
+			if (responseExpected)
+				send(packet(uid, functionId, sequenceAndOptions, errorCode, response));
+		}
+
+		private void send(byte[] packet) {
+			synchronized (out) {
+				try {
+					out.write(packet);
+					out.flush();
+				} catch (IOException e) {
+					close();
+				}
+			}
+		}
+
+		private void close() {
+			clients.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
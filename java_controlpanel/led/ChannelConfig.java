@@ -0,0 +1,212 @@
+package led;
+
+/**
+ * {@link ChannelConfig} describes a single LED channel: the stack it is
+ * connected to, the Servo Brick output which dims it and the DualRelay
+ * Bricklet which switches it.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ChannelConfig {
+
+	/**
+	 * Returns the configuration of a channel switched by its own remotely
+	 * controlled DualRelay Bricklet.
+	 *
+	 * @param name
+	 * @param host
+	 * @param port
+	 * @param servoUID
+	 * @param servoNum
+	 * @param relayUID
+	 * @return
+	 */
+	public static ChannelConfig external(String name, String host, int port, String servoUID, int servoNum, String relayUID) {
+		return new ChannelConfig(name, new ChannelKey(host, port, servoUID, servoNum), relayUID, false, false, Config.servo_PWM_period, Config.servo_PWM_speed,
+				Config.relay_safeguard_time, DimmingCurve.forName(Config.dimming_curve));
+	}
+
+	/**
+	 * Returns the configuration of a channel switched internally by the Servo
+	 * Brick firmware, which shares the DualRelay Bricklet relayUID with the
+	 * other internally switched channel.
+	 *
+	 * @param name
+	 * @param host
+	 * @param port
+	 * @param servoUID
+	 * @param servoNum
+	 *            3 or 4
+	 * @param relayUID
+	 * @param relay1_GND
+	 *            true, if relay 1 of relayUID switches this channel to GND
+	 * @return
+	 */
+	public static ChannelConfig internal(String name, String host, int port, String servoUID, int servoNum, String relayUID, boolean relay1_GND) {
+		return new ChannelConfig(name, new ChannelKey(host, port, servoUID, servoNum), relayUID, true, relay1_GND, Config.servo_PWM_period, Config.servo_PWM_speed,
+				Config.relay_safeguard_time, DimmingCurve.forName(Config.dimming_curve));
+	}
+
+	private final String name;
+	private final ChannelKey key;
+	private final String relayUID;
+	private final boolean internal;
+	private final boolean relay1_GND;
+	private final int period;
+	private final int speed;
+	private final int safeguard;
+	private final DimmingCurve curve;
+
+	private ChannelConfig(String name, ChannelKey key, String relayUID, boolean internal, boolean relay1_GND, int period, int speed, int safeguard,
+			DimmingCurve curve) {
+		this.name = name;
+		this.key = key;
+		this.relayUID = relayUID;
+		this.internal = internal;
+		this.relay1_GND = relay1_GND;
+		this.period = period;
+		this.speed = speed;
+		this.safeguard = safeguard;
+		this.curve = curve;
+	}
+
+	/**
+	 * Returns a copy with the given parameters.
+	 *
+	 * @param period
+	 *            PWM period in microseconds
+	 * @param speed
+	 *            velocity of brightness changes in steps per second
+	 * @param safeguard
+	 *            relay safeguard time in milliseconds
+	 * @return
+	 */
+	public ChannelConfig tuned(int period, int speed, int safeguard) {
+		return new ChannelConfig(name, key, relayUID, internal, relay1_GND, period, speed, safeguard, curve);
+	}
+
+	/**
+	 * Returns a copy with the given dimming curve.
+	 *
+	 * @param curve
+	 * @return
+	 */
+	public ChannelConfig withCurve(DimmingCurve curve) {
+		return new ChannelConfig(name, key, relayUID, internal, relay1_GND, period, speed, safeguard, curve);
+	}
+
+	/**
+	 * Returns true, if both configurations describe the same channel wired to
+	 * the same Servo Brick output and DualRelay Bricklet. The parameters may
+	 * differ.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public boolean isSameWiring(ChannelConfig other) {
+		return name.equals(other.name) && key.equals(other.key) && relayUID.equals(other.relayUID) && internal == other.internal && relay1_GND == other.relay1_GND;
+	}
+
+	/**
+	 * Returns the name of the channel.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the Servo Brick output of the channel.
+	 *
+	 * @return
+	 */
+	public ChannelKey getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the UID of the DualRelay Bricklet switching the channel.
+	 *
+	 * @return
+	 */
+	public String getRelayUID() {
+		return relayUID;
+	}
+
+	/**
+	 * Returns true, if the channel is switched internally by the Servo Brick
+	 * firmware.
+	 *
+	 * @return
+	 */
+	public boolean isInternal() {
+		return internal;
+	}
+
+	/**
+	 * Returns true, if relay 1 switches an internally switched channel to GND.
+	 *
+	 * @return
+	 */
+	public boolean isRelay1_GND() {
+		return relay1_GND;
+	}
+
+	/**
+	 * Returns the PWM period in microseconds.
+	 *
+	 * @return
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Returns the velocity of brightness changes in steps per second.
+	 *
+	 * @return
+	 */
+	public int getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Returns the relay safeguard time in milliseconds.
+	 *
+	 * @return
+	 */
+	public int getSafeguard() {
+		return safeguard;
+	}
+
+	/**
+	 * Returns the curve mapping brightness and color values to positions.
+	 *
+	 * @return
+	 */
+	public DimmingCurve getCurve() {
+		return curve;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof ChannelConfig))
+			return false;
+		ChannelConfig other = (ChannelConfig) o;
+		return isSameWiring(other) && period == other.period && speed == other.speed && safeguard == other.safeguard
+				&& curve.getName().equals(other.curve.getName());
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode() * 31 + key.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + key + (internal ? " internal " : " external ") + relayUID;
+	}
+}
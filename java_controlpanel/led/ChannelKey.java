@@ -0,0 +1,99 @@
+package led;
+
+import com.tinkerforge.BrickServoLED;
+
+/**
+ * {@link ChannelKey} identifies a Servo Brick output by its connection, the
+ * UID of the Servo Brick and the servo number.
+ *
+ * @author Ingo Kauffmann
+ */
+public final class ChannelKey {
+
+	private final String host;
+	private final int port;
+	private final String servoUID;
+	private final short servoNum;
+
+	/**
+	 * Constructor
+	 *
+	 * @param host
+	 * @param port
+	 * @param servoUID
+	 * @param servoNum
+	 */
+	public ChannelKey(String host, int port, String servoUID, int servoNum) {
+		if (servoNum < 0 || servoNum >= BrickServoLED.SERVO_NUM)
+			throw new IllegalArgumentException("Invalid servo " + servoNum);
+		this.host = host;
+		this.port = port;
+		this.servoUID = servoUID;
+		this.servoNum = (short) servoNum;
+	}
+
+	/**
+	 * Returns the host of the stack.
+	 *
+	 * @return
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the port of the stack.
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns host:port of the stack.
+	 *
+	 * @return
+	 */
+	public String getStack() {
+		return host + ":" + port;
+	}
+
+	/**
+	 * Returns the UID of the Servo Brick.
+	 *
+	 * @return
+	 */
+	public String getServoUID() {
+		return servoUID;
+	}
+
+	/**
+	 * Returns the servo number.
+	 *
+	 * @return
+	 */
+	public short getServoNum() {
+		return servoNum;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof ChannelKey))
+			return false;
+		ChannelKey other = (ChannelKey) o;
+		return port == other.port && servoNum == other.servoNum && host.equals(other.host) && servoUID.equals(other.servoUID);
+	}
+
+	@Override
+	public int hashCode() {
+		return ((host.hashCode() * 31 + port) * 31 + servoUID.hashCode()) * 31 + servoNum;
+	}
+
+	@Override
+	public String toString() {
+		return getStack() + "/" + servoUID + "/" + servoNum;
+	}
+}
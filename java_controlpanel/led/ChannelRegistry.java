@@ -0,0 +1,439 @@
+package led;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.tinkerforge.AlreadyConnectedException;
+
+/**
+ * {@link ChannelRegistry} holds the LED channels of all stacks, keyed by
+ * {@link ChannelKey}. One {@link LEDStack} is connected per host and port. A
+ * changed {@link ConfigFile} is applied channel by channel, outputs whose
+ * configuration did not change are not touched.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ChannelRegistry {
+
+	/**
+	 * Creates the registry of the configuration file and reloads it whenever
+	 * it changes. Without configuration file the channels of {@link Config}
+	 * are used.
+	 *
+	 * @return
+	 * @throws IOException
+	 * @throws AlreadyConnectedException
+	 */
+	public static ChannelRegistry fromConfig() throws IOException, AlreadyConnectedException {
+		Path path = ConfigFile.getPath();
+		if (!Files.exists(path))
+			return new ChannelRegistry(ConfigFile.defaults());
+		ChannelRegistry registry = new ChannelRegistry(ConfigFile.load(path));
+		registry.watcher = new ConfigWatcher(path, registry);
+		return registry;
+	}
+
+	/**
+	 * Stacks by host:port
+	 */
+	private final Map<String, LEDStack> stacks = new LinkedHashMap<String, LEDStack>();
+
+	private final Map<ChannelKey, ExternallyDimmedLED> channels = new LinkedHashMap<ChannelKey, ExternallyDimmedLED>();
+
+	/**
+	 * Applied configuration of each channel by name
+	 */
+	private final Map<String, ChannelConfig> configs = new LinkedHashMap<String, ChannelConfig>();
+
+	private ConfigFile config;
+
+	/**
+	 * Reloads the configuration file, null if there is none
+	 */
+	private ConfigWatcher watcher;
+
+	/**
+	 * Periodic dump of the device metrics, null if disabled
+	 */
+	private MetricsReporter reporter;
+
+	/**
+	 * Connects the stacks, initializes the channels and configures the wall
+	 * switch.
+	 *
+	 * @param config
+	 * @throws IOException
+	 * @throws AlreadyConnectedException
+	 */
+	public ChannelRegistry(ConfigFile config) throws IOException, AlreadyConnectedException {
+		long start = System.nanoTime();
+		this.config = config;
+		if (Config.metrics_report_interval > 0)
+			reporter = new MetricsReporter(Config.metrics_report_interval);
+		addAll(config.getChannels());
+		LEDStack stack = getStack(config.getHost(), config.getPort());
+		if (stack != null && config.getWallSwitch() != null)
+			stack.configureWallSwitch(config.getWallSwitch(), config.getLongPress());
+		if (stack != null)
+			stack.startTelemetry(config.getCurrentSensor(), config.getPowerLimit());
+		System.out.println("ChannelRegistry: " + channels.size() + " channels on " + stacks.size() + " stacks initialized in " + (System.nanoTime() - start)
+				/ 1000000 + " ms");
+	}
+
+	/**
+	 * Adds a channel, its stack is connected on first use.
+	 *
+	 * @param config
+	 * @return
+	 * @throws IOException
+	 * @throws AlreadyConnectedException
+	 */
+	public synchronized ExternallyDimmedLED add(ChannelConfig config) throws IOException, AlreadyConnectedException {
+		ChannelKey key = config.getKey();
+		if (channels.containsKey(key))
+			throw new IllegalArgumentException("Channel " + key + " already exists");
+		if (getChannel(config.getName()) != null)
+			throw new IllegalArgumentException("Channel " + config.getName() + " already exists");
+
+		LEDStack stack = stacks.get(key.getStack());
+		if (stack == null) {
+			stack = new LEDStack(key.getHost(), key.getPort());
+			stacks.put(key.getStack(), stack);
+		}
+		ExternallyDimmedLED channel = stack.add(config);
+		channels.put(key, channel);
+		configs.put(config.getName(), config);
+		return channel;
+	}
+
+	/**
+	 * Adds several channels. The stacks are connected and their channels are
+	 * initialized in parallel, one task per stack.
+	 *
+	 * @param configs
+	 * @throws IOException
+	 * @throws AlreadyConnectedException
+	 */
+	public synchronized void addAll(List<ChannelConfig> configs) throws IOException, AlreadyConnectedException {
+		Map<String, List<ChannelConfig>> byStack = new LinkedHashMap<String, List<ChannelConfig>>();
+		Set<ChannelKey> keys = new HashSet<ChannelKey>();
+		Set<String> names = new HashSet<String>();
+		for (ChannelConfig config : configs) {
+			ChannelKey key = config.getKey();
+			if (channels.containsKey(key) || !keys.add(key))
+				throw new IllegalArgumentException("Channel " + key + " already exists");
+			if (getChannel(config.getName()) != null || !names.add(config.getName().toLowerCase()))
+				throw new IllegalArgumentException("Channel " + config.getName() + " already exists");
+			List<ChannelConfig> stackConfigs = byStack.get(key.getStack());
+			if (stackConfigs == null) {
+				stackConfigs = new ArrayList<ChannelConfig>();
+				byStack.put(key.getStack(), stackConfigs);
+			}
+			stackConfigs.add(config);
+		}
+
+		ExecutorService pool = Executors.newCachedThreadPool();
+		try {
+			Map<String, Future<LEDStack>> connecting = new LinkedHashMap<String, Future<LEDStack>>();
+			for (List<ChannelConfig> stackConfigs : byStack.values()) {
+				final ChannelKey key = stackConfigs.get(0).getKey();
+				if (!stacks.containsKey(key.getStack())) {
+					connecting.put(key.getStack(), pool.submit(new Callable<LEDStack>() {
+						@Override
+						public LEDStack call() throws Exception {
+							return new LEDStack(key.getHost(), key.getPort());
+						}
+					}));
+				}
+			}
+			for (Map.Entry<String, Future<LEDStack>> stack : connecting.entrySet()) {
+				stacks.put(stack.getKey(), get(stack.getValue()));
+			}
+
+			List<Future<List<ExternallyDimmedLED>>> initializing = new ArrayList<Future<List<ExternallyDimmedLED>>>();
+			for (final List<ChannelConfig> stackConfigs : byStack.values()) {
+				final LEDStack stack = stacks.get(stackConfigs.get(0).getKey().getStack());
+				initializing.add(pool.submit(new Callable<List<ExternallyDimmedLED>>() {
+					@Override
+					public List<ExternallyDimmedLED> call() throws Exception {
+						return stack.addAll(stackConfigs);
+					}
+				}));
+			}
+			int i = 0;
+			for (List<ChannelConfig> stackConfigs : byStack.values()) {
+				List<ExternallyDimmedLED> stackChannels = get(initializing.get(i++));
+				for (int j = 0; j < stackConfigs.size(); j++) {
+					channels.put(stackConfigs.get(j).getKey(), stackChannels.get(j));
+					this.configs.put(stackConfigs.get(j).getName(), stackConfigs.get(j));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Waits for a stack task and rethrows its exception.
+	 *
+	 * @param future
+	 * @return
+	 * @throws IOException
+	 * @throws AlreadyConnectedException
+	 */
+	private static <T> T get(Future<T> future) throws IOException, AlreadyConnectedException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof AlreadyConnectedException)
+				throw (AlreadyConnectedException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Removes a channel without touching its output.
+	 *
+	 * @param config
+	 */
+	private void remove(ChannelConfig config) {
+		ChannelKey key = config.getKey();
+		channels.remove(key);
+		configs.remove(config.getName());
+		stacks.get(key.getStack()).remove(key);
+	}
+
+	/**
+	 * Applies a changed configuration. Channels which were removed or rewired
+	 * are dropped, new ones are initialized and changed parameters are
+	 * transmitted. Unchanged channels are not touched. Stacks left without
+	 * channels are shut down, the wall switch and the telemetry are rebuilt
+	 * if their settings changed.
+	 *
+	 * @param next
+	 */
+	public synchronized void apply(ConfigFile next) {
+		Map<String, ChannelConfig> nextConfigs = new LinkedHashMap<String, ChannelConfig>();
+		for (ChannelConfig channel : next.getChannels()) {
+			nextConfigs.put(channel.getName(), channel);
+		}
+
+		int removed = 0, added = 0, changed = 0;
+		for (ChannelConfig current : new ArrayList<ChannelConfig>(configs.values())) {
+			ChannelConfig channel = nextConfigs.get(current.getName());
+			if (channel == null || !channel.isSameWiring(current)) {
+				remove(current);
+				removed++;
+			}
+		}
+		for (ChannelConfig channel : nextConfigs.values()) {
+			ChannelConfig current = configs.get(channel.getName());
+			if (current == null) {
+				try {
+					add(channel);
+					added++;
+				} catch (IOException | AlreadyConnectedException | IllegalArgumentException e) {
+					System.out.println("ChannelRegistry: can not add " + channel);
+					e.printStackTrace();
+				}
+			} else if (!current.equals(channel)) {
+				ExternallyDimmedLED led = channels.get(channel.getKey());
+				led.setCurve(channel.getCurve());
+				led.configure(channel.getPeriod(), channel.getSpeed(), channel.getSafeguard());
+				configs.put(channel.getName(), channel);
+				changed++;
+			}
+		}
+		applyStacks(config, next);
+		config = next;
+		System.out.println("ChannelRegistry: " + added + " channels added, " + removed + " removed, " + changed + " reconfigured");
+	}
+
+	/**
+	 * Shuts the stacks without channels down and rebuilds the wall switch and
+	 * the telemetry if their settings or their stack changed. The listeners
+	 * of the wall switch are kept. The RGB group is created once by its
+	 * users, a changed group is only applied by a restart.
+	 *
+	 * @param previous
+	 * @param next
+	 */
+	private void applyStacks(ConfigFile previous, ConfigFile next) {
+		LEDStack before = getStack(previous.getHost(), previous.getPort());
+		WallSwitch wallSwitch = before == null ? null : before.getWallSwitch();
+		for (Iterator<LEDStack> it = stacks.values().iterator(); it.hasNext();) {
+			LEDStack stack = it.next();
+			if (stack.getChannels().isEmpty()) {
+				System.out.println("ChannelRegistry: no channels left on " + stack.getName() + ", shutting it down");
+				stack.shutdown();
+				it.remove();
+			}
+		}
+
+		LEDStack stack = getStack(next.getHost(), next.getPort());
+		boolean moved = stack != before;
+		if (moved && before != null && stacks.containsValue(before)) {
+			before.stopWallSwitch();
+			before.stopTelemetry();
+		}
+		if (stack != null && (moved || !Objects.equals(previous.getWallSwitch(), next.getWallSwitch()) || previous.getLongPress() != next.getLongPress())) {
+			if (next.getWallSwitch() == null) {
+				stack.stopWallSwitch();
+			} else {
+				WallSwitch rebuilt = stack.configureWallSwitch(next.getWallSwitch(), next.getLongPress());
+				if (wallSwitch != null) {
+					for (WallSwitch.Listener listener : wallSwitch.getListeners()) {
+						rebuilt.addListener(listener);
+					}
+				}
+			}
+		}
+		if (stack != null && (moved || !Objects.equals(previous.getCurrentSensor(), next.getCurrentSensor()) || previous.getPowerLimit() != next.getPowerLimit()))
+			stack.startTelemetry(next.getCurrentSensor(), next.getPowerLimit());
+		if (!Arrays.equals(previous.getRgbGroup(), next.getRgbGroup()))
+			System.out.println("ChannelRegistry: rgb_group changed, restart to apply it");
+	}
+
+	/**
+	 * Returns the applied configuration.
+	 *
+	 * @return
+	 */
+	public synchronized ConfigFile getConfig() {
+		return config;
+	}
+
+	/**
+	 * Returns the stack connected to host and port or null.
+	 *
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	public synchronized LEDStack getStack(String host, int port) {
+		return stacks.get(host + ":" + port);
+	}
+
+	/**
+	 * Returns the wall switch of the stack with the IO4 Bricklet or null.
+	 *
+	 * @return
+	 */
+	public synchronized WallSwitch getWallSwitch() {
+		LEDStack stack = getStack(config.getHost(), config.getPort());
+		return stack == null ? null : stack.getWallSwitch();
+	}
+
+	/**
+	 * Returns the power telemetry of the stack with the Current Bricklet or
+	 * null.
+	 *
+	 * @return
+	 */
+	public synchronized Telemetry getTelemetry() {
+		LEDStack stack = getStack(config.getHost(), config.getPort());
+		return stack == null ? null : stack.getTelemetry();
+	}
+
+	/**
+	 * Returns all stacks.
+	 *
+	 * @return
+	 */
+	public synchronized List<LEDStack> getStacks() {
+		return Collections.unmodifiableList(new ArrayList<LEDStack>(stacks.values()));
+	}
+
+	/**
+	 * Returns the channel of a Servo Brick output or null.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized ExternallyDimmedLED get(ChannelKey key) {
+		return channels.get(key);
+	}
+
+	/**
+	 * Returns the channel with the given name, ignoring case, or null.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public synchronized ExternallyDimmedLED getChannel(String name) {
+		for (ExternallyDimmedLED channel : channels.values()) {
+			if (channel.getName().equalsIgnoreCase(name))
+				return channel;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns all channels in the order they were added.
+	 *
+	 * @return
+	 */
+	public synchronized List<ExternallyDimmedLED> getChannels() {
+		return Collections.unmodifiableList(new ArrayList<ExternallyDimmedLED>(channels.values()));
+	}
+
+	/**
+	 * Creates an {@link RgbGroup} of the named channels, transmitted by the
+	 * queue of their stack. The channels must belong to one stack, as a batch
+	 * is only sent on one connection.
+	 *
+	 * @param names
+	 * @return
+	 */
+	public RgbGroup createGroup(String... names) {
+		ExternallyDimmedLED[] group = new ExternallyDimmedLED[names.length];
+		for (int i = 0; i < names.length; i++) {
+			group[i] = getChannel(names[i]);
+			if (group[i] == null)
+				throw new IllegalArgumentException("Unknown channel " + names[i]);
+			if (group[i].queue != group[0].queue)
+				throw new IllegalArgumentException("Channel " + names[i] + " is not on the stack of " + names[0]);
+		}
+		return new RgbGroup(group[0].queue, group);
+	}
+
+	/**
+	 * Shuts all stacks down.
+	 */
+	public synchronized void shutdown() {
+		if (watcher != null)
+			watcher.close();
+		for (LEDStack stack : stacks.values()) {
+			stack.shutdown();
+		}
+		if (reporter != null) {
+			reporter.shutdown();
+			reporter.report();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package led;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ChannelState} holds the relay state and the last known position of a
+ * single Servo Brick output. It is updated by our own writes from the GUI,
+ * the queue and the relay scheduler and by the PositionReached callback, so
+ * the GUI can read the brightness without a round trip to the stack.
+ *
+ * Relay state, position, valid flag and the time of the last relay switch are
+ * packed into one word which is only changed by compare-and-set, so readers
+ * always see a consistent snapshot and concurrent transitions are decided
+ * without a lock: of two threads switching the relay at the same time exactly
+ * one wins, the other sees the new state and the new switch time.
+ *
+ * <pre>
+ * bits  0..1   state, 0 = off 1 = dimmed 2 = on
+ * bit   2      position valid
+ * bits  3..18  position
+ * bits 19..63  System.currentTimeMillis() of the last relay switch
+ * </pre>
+ *
+ * @author Ingo Kauffmann
+ */
+public class ChannelState {
+
+	private static final int STATE_MASK = 0x3;
+	private static final int VALID_BIT = 1 << 2;
+	private static final int POSITION_SHIFT = 3;
+	private static final int SWITCHED_SHIFT = 19;
+
+	private final AtomicLong word = new AtomicLong();
+
+	/**
+	 * Velocity of the servo output, -1 if unknown
+	 */
+	private volatile int velocity = -1;
+
+	/**
+	 * System.nanoTime() of the last PositionReached callback
+	 */
+	private volatile long reachedAt;
+
+	/**
+	 * Returns the packed word, decoded by {@link #stateOf(long)},
+	 * {@link #positionOf(long)} and {@link #switchedAt(long)}.
+	 *
+	 * @return
+	 */
+	public long get() {
+		return word.get();
+	}
+
+	/**
+	 * Returns the relay state of a word.
+	 *
+	 * @param w
+	 * @return
+	 */
+	public static int stateOf(long w) {
+		return (int) (w & STATE_MASK);
+	}
+
+	/**
+	 * Returns the position of a word.
+	 *
+	 * @param w
+	 * @return
+	 */
+	public static short positionOf(long w) {
+		return (short) (w >>> POSITION_SHIFT);
+	}
+
+	/**
+	 * Returns true if the position of a word is valid.
+	 *
+	 * @param w
+	 * @return
+	 */
+	public static boolean validOf(long w) {
+		return (w & VALID_BIT) != 0;
+	}
+
+	/**
+	 * Returns the time of the last relay switch of a word.
+	 *
+	 * @param w
+	 * @return
+	 */
+	public static long switchedAt(long w) {
+		return w >>> SWITCHED_SHIFT;
+	}
+
+	private static long pack(int state, boolean valid, short position, long switchedAt) {
+		return (switchedAt << SWITCHED_SHIFT) | ((position & 0xFFFFL) << POSITION_SHIFT) | (valid ? VALID_BIT : 0) | (state & STATE_MASK);
+	}
+
+	/**
+	 * Changes the relay state and sets the switch time, if the word is still
+	 * the one the transition was decided on. The switch time never goes back,
+	 * a caller may have read the clock before a concurrent switch.
+	 *
+	 * @param w
+	 *            word the transition was decided on
+	 * @param state
+	 * @param now
+	 *            System.currentTimeMillis()
+	 * @return false if the word was changed concurrently
+	 */
+	public boolean switchState(long w, int state, long now) {
+		return word.compareAndSet(w, pack(state, validOf(w), positionOf(w), Math.max(now, switchedAt(w))));
+	}
+
+	/**
+	 * Sets the relay state and the switch time.
+	 *
+	 * @param state
+	 * @param now
+	 *            System.currentTimeMillis()
+	 */
+	public void initState(int state, long now) {
+		long w;
+		do {
+			w = word.get();
+		} while (!switchState(w, state, now));
+	}
+
+	/**
+	 * Sets the relay state read from the Bricklet, the switch time is kept.
+	 *
+	 * @param state
+	 */
+	public void setState(int state) {
+		long w;
+		do {
+			w = word.get();
+		} while (!switchState(w, state, switchedAt(w)));
+	}
+
+	/**
+	 * Sets the switch time, the state is kept.
+	 *
+	 * @param now
+	 *            System.currentTimeMillis()
+	 */
+	public void switched(long now) {
+		long w;
+		do {
+			w = word.get();
+		} while (!switchState(w, stateOf(w), now));
+	}
+
+	/**
+	 * Returns the relay state, 0 = off 1 = dimmed 2 = on.
+	 *
+	 * @return
+	 */
+	public int getState() {
+		return stateOf(word.get());
+	}
+
+	/**
+	 * Returns the System.currentTimeMillis() of the last relay switch.
+	 *
+	 * @return
+	 */
+	public long getSwitchedAt() {
+		return switchedAt(word.get());
+	}
+
+	/**
+	 * Returns the cached position.
+	 *
+	 * @return
+	 */
+	public short getPosition() {
+		return positionOf(word.get());
+	}
+
+	/**
+	 * Stores a position which was written to or read from the Servo Brick.
+	 *
+	 * @param position
+	 */
+	public void setPosition(short position) {
+		long w;
+		do {
+			w = word.get();
+		} while (!word.compareAndSet(w, pack(stateOf(w), true, position, switchedAt(w))));
+	}
+
+	/**
+	 * Stores a position reported by the PositionReached callback.
+	 *
+	 * @param position
+	 */
+	public void positionReached(short position) {
+		reachedAt = System.nanoTime();
+		setPosition(position);
+	}
+
+	/**
+	 * Returns the System.nanoTime() of the last PositionReached callback.
+	 *
+	 * @return
+	 */
+	public long getReachedAt() {
+		return reachedAt;
+	}
+
+	/**
+	 * Returns the cached velocity or -1 if unknown.
+	 *
+	 * @return
+	 */
+	public int getVelocity() {
+		return velocity;
+	}
+
+	/**
+	 * Stores a velocity which was written to the Servo Brick.
+	 *
+	 * @param velocity
+	 */
+	public void setVelocity(int velocity) {
+		this.velocity = velocity;
+	}
+
+	/**
+	 * Returns true, if the cached position reflects the Servo Brick.
+	 *
+	 * @return
+	 */
+	public boolean isValid() {
+		return validOf(word.get());
+	}
+
+	/**
+	 * Marks the cached position as stale, the next read will resync.
+	 */
+	public void invalidate() {
+		long w;
+		do {
+			w = word.get();
+		} while (!word.compareAndSet(w, w & ~VALID_BIT));
+	}
+}
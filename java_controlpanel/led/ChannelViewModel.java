@@ -0,0 +1,155 @@
+package led;
+
+import javax.swing.JSlider;
+import javax.swing.JTextField;
+import javax.swing.border.TitledBorder;
+
+/**
+ * {@link ChannelViewModel} holds the brightness shown for one channel between
+ * the channel and its {@link JSlider} and {@link JTextField}. User input is
+ * written to the channel, device state is only read on {@link #pull()}. The
+ * widgets are updated by {@link #render()} and only if the value differs from
+ * the one they show, so a programmatic slider change is not written back to
+ * the channel.
+ *
+ * All methods are called on the event dispatch thread.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ChannelViewModel {
+
+	private final ExternallyDimmedLED channel;
+	private final JSlider slider;
+	private final JTextField field;
+	private final TitledBorder border;
+
+	/**
+	 * Brightness of the model and value shown in the text field, -1 before
+	 * the first render
+	 */
+	private int value;
+	private int shown = -1;
+
+	/**
+	 * True while the slider is changed by {@link #render()}
+	 */
+	private boolean rendering;
+
+	/**
+	 * Wall switch position shown in the title
+	 */
+	private boolean titledOn = true;
+
+	/**
+	 * Constructor
+	 *
+	 * @param channel
+	 * @param slider
+	 * @param field
+	 * @param border
+	 *            title of the channel, marked while its wall switch is off
+	 */
+	public ChannelViewModel(ExternallyDimmedLED channel, JSlider slider, JTextField field, TitledBorder border) {
+		this.channel = channel;
+		this.slider = slider;
+		this.field = field;
+		this.border = border;
+		this.value = slider.getValue();
+	}
+
+	/**
+	 * Takes over a slider change by the user. Every change is submitted while
+	 * the slider is dragged, the {@link CommandQueue} keeps only the latest
+	 * one per channel.
+	 *
+	 * @return true if the widgets need to be rendered
+	 */
+	public boolean sliderChanged() {
+		if (rendering)
+			return false;
+		int v = slider.getValue();
+		if (v == value)
+			return false;
+		value = v;
+		channel.submitBrightness(v);
+		return true;
+	}
+
+	/**
+	 * Takes over a value typed into the text field, an invalid value is
+	 * replaced by the model value.
+	 */
+	public void fieldEntered() {
+		try {
+			slider.setValue(Integer.parseInt(field.getText().trim()));
+		} catch (NumberFormatException e) {
+			shown = -1;
+			render();
+		}
+	}
+
+	/**
+	 * Reads the brightness and wall switch position of the channel.
+	 *
+	 * @return true if the widgets need to be rendered
+	 */
+	public boolean pull() {
+		boolean changed = isSwitchedOn() != titledOn;
+		if (!slider.getValueIsAdjusting()) {
+			int v = channel.getDutyCycle();
+			if (v != value || v != slider.getValue()) {
+				value = v;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private boolean isSwitchedOn() {
+		return !(channel instanceof InternallyDimmedLED) || ((InternallyDimmedLED) channel).isSwitchedOn();
+	}
+
+	/**
+	 * Updates the slider, text field and title if they differ from the model.
+	 *
+	 * @return true if the title changed and the panel needs to be repainted
+	 */
+	public boolean render() {
+		if (slider.getValue() != value) {
+			rendering = true;
+			try {
+				slider.setValue(value);
+			} finally {
+				rendering = false;
+			}
+		}
+		if (shown != value) {
+			field.setText(Integer.toString(value));
+			shown = value;
+		}
+		boolean on = isSwitchedOn();
+		if (on == titledOn)
+			return false;
+		titledOn = on;
+		border.setTitle(on ? channel.getName() : channel.getName() + " (aus)");
+		return true;
+	}
+
+	/**
+	 * Returns the channel.
+	 *
+	 * @return
+	 */
+	public ExternallyDimmedLED getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Returns the brightness of the model.
+	 *
+	 * @return
+	 */
+	public int getValue() {
+		return value;
+	}
+}
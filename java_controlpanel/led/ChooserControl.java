@@ -22,6 +22,7 @@ public class ChooserControl extends JPanel implements ChangeListener {
 	private ExternallyDimmedLED r;
 	private ExternallyDimmedLED g;
 	private ExternallyDimmedLED b;
+	private RgbGroup rgb;
 
 	private JColorChooser chooser;
 
@@ -31,11 +32,13 @@ public class ChooserControl extends JPanel implements ChangeListener {
 	 * @param r
 	 * @param g
 	 * @param b
+	 * @param rgb
 	 */
-	public ChooserControl(ExternallyDimmedLED r, ExternallyDimmedLED g, ExternallyDimmedLED b) {
+	public ChooserControl(ExternallyDimmedLED r, ExternallyDimmedLED g, ExternallyDimmedLED b, RgbGroup rgb) {
 		this.r = r;
 		this.g = g;
 		this.b = b;
+		this.rgb = rgb;
 
 		chooser = new JColorChooser(new Color(r.getColor(), g.getColor(), b.getColor()));
 		AbstractColorChooserPanel[] accp = chooser.getChooserPanels();
@@ -55,9 +58,7 @@ public class ChooserControl extends JPanel implements ChangeListener {
 	@Override
 	public void stateChanged(ChangeEvent e) {
 		Color c = ((ColorSelectionModel) e.getSource()).getSelectedColor();
-		r.setColor(c.getRed());
-		g.setColor(c.getGreen());
-		b.setColor(c.getBlue());
+		rgb.submitColor(c.getRed(), c.getGreen(), c.getBlue());
 	}
 
 	/**
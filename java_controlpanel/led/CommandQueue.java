@@ -0,0 +1,198 @@
+package led;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link CommandQueue} transmits the commands for one device on a dedicated
+ * thread, so the GUI never waits for the stack. Only the latest command per
+ * key (usually the LED channel) is kept, superseded commands are dropped
+ * before they are sent.
+ *
+ * @author Ingo Kauffmann
+ */
+public class CommandQueue {
+
+	/**
+	 * A blocking call to a Brick or Bricklet
+	 */
+	public interface Command {
+		void execute() throws TimeoutException, NotConnectedException;
+	}
+
+	/**
+	 * A command which is posted again and again, so queueing it does not
+	 * allocate. It transmits the values it holds when it runs, an update
+	 * while it is pending replaces the pending values.
+	 */
+	public static abstract class Reusable implements Command, Runnable {
+		@Override
+		public void run() {
+			try {
+				execute();
+			} catch (TimeoutException | NotConnectedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Pending commands in submission order, at most one per key
+	 */
+	private final LinkedHashMap<Object, Runnable> pending = new LinkedHashMap<Object, Runnable>();
+
+	private final ExecutorService executor;
+
+	/**
+	 * true while the drain task is queued or running
+	 */
+	private boolean draining;
+
+	private long dropped;
+
+	/**
+	 * Transmits the pending commands until the queue is empty
+	 */
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				synchronized (pending) {
+					Iterator<Runnable> it = pending.values().iterator();
+					if (!it.hasNext()) {
+						draining = false;
+						return;
+					}
+					task = it.next();
+					it.remove();
+				}
+				task.run();
+			}
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param name
+	 *            name of the worker thread
+	 */
+	public CommandQueue(final String name) {
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Queues a command. A pending command with the same key is cancelled and
+	 * replaced.
+	 *
+	 * @param key
+	 * @param command
+	 * @return future which completes once the command was transmitted
+	 */
+	public Future<Void> submit(Object key, final Command command) {
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					command.execute();
+				} catch (TimeoutException | NotConnectedException e) {
+					e.printStackTrace();
+					throw e;
+				}
+				return null;
+			}
+		});
+
+		synchronized (pending) {
+			Runnable superseded = pending.remove(key);
+			if (superseded != null) {
+				if (superseded instanceof Future)
+					((Future<?>) superseded).cancel(false);
+				dropped++;
+			}
+			pending.put(key, task);
+			if (!draining) {
+				draining = true;
+				executor.execute(drain);
+			}
+		}
+		return task;
+	}
+
+	/**
+	 * Queues a reusable command. A pending command with the same key is
+	 * cancelled and replaced, unless it is this command, which keeps its place
+	 * and transmits its updated values.
+	 *
+	 * @param key
+	 * @param command
+	 * @return true if a command with the same key was still pending
+	 */
+	public boolean post(Object key, Reusable command) {
+		synchronized (pending) {
+			Runnable superseded = pending.get(key);
+			if (superseded != null)
+				dropped++;
+			if (superseded == command)
+				return true;
+			if (superseded != null) {
+				pending.remove(key);
+				if (superseded instanceof Future)
+					((Future<?>) superseded).cancel(false);
+			}
+			pending.put(key, command);
+			if (!draining) {
+				draining = true;
+				executor.execute(drain);
+			}
+			return superseded != null;
+		}
+	}
+
+	/**
+	 * Returns the number of commands waiting for transmission.
+	 *
+	 * @return
+	 */
+	public int size() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Returns the number of commands dropped because a newer command with the
+	 * same key was submitted.
+	 *
+	 * @return
+	 */
+	public long getDropped() {
+		synchronized (pending) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * Stops the worker thread after the pending commands were transmitted.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
@@ -1,7 +1,8 @@
 package led;
 
 /**
- * {@link Config} contains all constants required for the LEDControl.
+ * {@link Config} contains all constants required for the LEDControl. The
+ * channels are the defaults used without {@link ConfigFile}.
  * 
  * @author Ingo Kauffmann
  */
@@ -76,13 +77,24 @@ public class Config {
 	 */
 	protected static final short	servo_PWM_steps = 100;
 	
+	/**
+	 * Position range of a servo output, the dimmer steps are mapped onto it
+	 * by the dimming curve
+	 */
+	protected static final short	servo_PWM_resolution = 10000;
+	
+	/**
+	 * Default dimming curve: cie, linear or gamma:&lt;exponent&gt;
+	 */
+	protected static final String	dimming_curve = "cie";
+	
 	/**
 	 * Base period of the pwm signal in Hertz
 	 */
 	protected static final int		servo_PWM_period = 1000;
 	
 	/**
-	 * Maximum speed of servo - determines the time needed to fully dim the LED
+	 * Maximum speed of servo in steps per second - determines the time needed to fully dim the LED
 	 */
 	protected static final int		servo_PWM_speed = servo_PWM_steps/5;
 	
@@ -90,4 +102,90 @@ public class Config {
 	 * Relay safeguard time in milliseconds
 	 */
 	protected static final int		relay_safeguard_time = 1000;
+	
+	/**
+	 * Interval of the device metrics dump in milliseconds, 0 disables it
+	 */
+	protected static final long		metrics_report_interval = 60000;
+	
+	/**
+	 * Port of the HTTP/JSON API of the LEDDaemon
+	 */
+	protected static final int		http_port = 8080;
+	
+	/**
+	 * Time in milliseconds to wait for the devices of a stack to answer the enumeration
+	 */
+	protected static final long		discovery_timeout = 500;
+	
+	/**
+	 * Frames per second of client side effects
+	 */
+	protected static final int		frame_rate = 50;
+	
+	/**
+	 * Limit of the LED current in mA measured by the Current Bricklet, 0 disables the power budget
+	 */
+	protected static final int		power_limit = 20000;
+	
+	/**
+	 * Current Bricklet callback period and debounce period of the limit callback in milliseconds
+	 */
+	protected static final long		telemetry_period = 1000;
+	protected static final long		telemetry_debounce = 100;
+	
+	/**
+	 * Interval of polling the Servo Brick currents and stack voltage in milliseconds
+	 */
+	protected static final long		telemetry_poll_interval = 10000;
+	
+	/**
+	 * Stack voltage in mV below which the Servo Bricks report under voltage
+	 */
+	protected static final int		min_stack_voltage = 11000;
+	
+	/**
+	 * Debounce period of the wall switch pins in milliseconds
+	 */
+	protected static final long		switch_debounce = 50;
+	
+	/**
+	 * Time in milliseconds a wall switch has to be held closed to ramp the
+	 * dim set point, 0 disables the ramps (toggle switches), and duration of
+	 * a ramp through the full range
+	 */
+	protected static final int		long_press_time = 0;
+	protected static final long		long_press_ramp = 4000;
+	
+	/**
+	 * First and maximum delay in milliseconds between the reconnect attempts
+	 * after the connection to a stack was lost
+	 */
+	protected static final long		reconnect_min_delay = 250;
+	protected static final long		reconnect_max_delay = 30000;
+	
+	/**
+	 * Interval in milliseconds of reading back the positions and relay states
+	 * of all channels to repair drift. The bindings send the positions,
+	 * velocities and relay states without waiting for a response, a lost one
+	 * is only repaired here. 0 disables the verification and waits for the
+	 * response of every position, velocity and relay state instead
+	 */
+	protected static final long		verify_interval = 10000;
+	
+	/**
+	 * LED channels of all stacks
+	 */
+	protected static final ChannelConfig[] channels = {
+		ChannelConfig.external("Rot", host, port, UID_ServoBrick_1, 0, UID_DualRelayBricklet_R),
+		ChannelConfig.external("Grn", host, port, UID_ServoBrick_1, 1, UID_DualRelayBricklet_G),
+		ChannelConfig.external("Blau", host, port, UID_ServoBrick_1, 2, UID_DualRelayBricklet_B),
+		ChannelConfig.internal("Wei", host, port, UID_ServoBrick_1, 3, UID_DualRelayBricklet_LowSide, true),
+		ChannelConfig.internal("Tisch", host, port, UID_ServoBrick_1, 4, UID_DualRelayBricklet_LowSide, false)
+	};
+	
+	/**
+	 * Names of the red, green and blue channel of the color chooser
+	 */
+	protected static final String[] rgb_group = { "Rot", "Grn", "Blau" };
 }
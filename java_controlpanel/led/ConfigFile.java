@@ -0,0 +1,240 @@
+package led;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * {@link ConfigFile} is the channel configuration read from a properties
+ * file, by default led.properties in the working directory or the file given
+ * by the system property led.config. Missing values fall back to
+ * {@link Config}:
+ *
+ * <pre>
+ * host=192.168.26.11
+ * port=4223
+ * wall_switch=8R7
+ * long_press=0
+ * current_sensor=dKm
+ * power_limit=20000
+ * rgb_group=Rot,Grn,Blau
+ * curve=cie
+ * channels=Rot,Tisch
+ * channel.Rot.servo=6CrLvF
+ * channel.Rot.servoNum=0
+ * channel.Rot.relay=9bw
+ * channel.Tisch.servo=6CrLvF
+ * channel.Tisch.servoNum=4
+ * channel.Tisch.relay=9bs
+ * channel.Tisch.internal=true
+ * channel.Tisch.relay1_GND=false
+ * </pre>
+ *
+ * Every channel may override host, port, period, speed, safeguard and curve.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ConfigFile {
+
+	/**
+	 * Returns the path of the configuration file.
+	 *
+	 * @return
+	 */
+	public static Path getPath() {
+		return Paths.get(System.getProperty("led.config", "led.properties"));
+	}
+
+	/**
+	 * Returns the configuration compiled into {@link Config}.
+	 *
+	 * @return
+	 */
+	public static ConfigFile defaults() {
+		return new ConfigFile(Config.host, Config.port, Config.UID_IO4Bricklet_1, Config.long_press_time, Config.UID_CurrentBricklet_1, Config.power_limit,
+				Config.rgb_group, Arrays.asList(Config.channels));
+	}
+
+	/**
+	 * Reads a configuration file.
+	 *
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if a value is missing or invalid
+	 */
+	public static ConfigFile load(Path path) throws IOException {
+		Properties p = new Properties();
+		InputStream in = Files.newInputStream(path);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+
+		String host = p.getProperty("host", Config.host).trim();
+		int port = getInt(p, "port", Config.port);
+		String wallSwitch = p.getProperty("wall_switch", Config.UID_IO4Bricklet_1).trim();
+		int longPress = getInt(p, "long_press", Config.long_press_time);
+		String currentSensor = p.getProperty("current_sensor", Config.UID_CurrentBricklet_1).trim();
+		int powerLimit = getInt(p, "power_limit", Config.power_limit);
+		String curve = p.getProperty("curve", Config.dimming_curve);
+		String[] rgbGroup = split(p.getProperty("rgb_group"));
+		if (rgbGroup.length == 0)
+			rgbGroup = Config.rgb_group;
+
+		List<ChannelConfig> channels = new ArrayList<ChannelConfig>();
+		for (String name : split(p.getProperty("channels"))) {
+			for (ChannelConfig other : channels) {
+				if (other.getName().equals(name))
+					throw new IllegalArgumentException("Duplicate channel " + name);
+			}
+			String prefix = "channel." + name + ".";
+			String channelHost = p.getProperty(prefix + "host", host).trim();
+			int channelPort = getInt(p, prefix + "port", port);
+			String servo = getString(p, prefix + "servo");
+			int servoNum = getInt(p, prefix + "servoNum", -1);
+			String relay = getString(p, prefix + "relay");
+
+			ChannelConfig config;
+			if (Boolean.parseBoolean(p.getProperty(prefix + "internal", "false").trim())) {
+				boolean relay1_GND = Boolean.parseBoolean(getString(p, prefix + "relay1_GND"));
+				config = ChannelConfig.internal(name, channelHost, channelPort, servo, servoNum, relay, relay1_GND);
+			} else {
+				config = ChannelConfig.external(name, channelHost, channelPort, servo, servoNum, relay);
+			}
+			config = config.tuned(getInt(p, prefix + "period", Config.servo_PWM_period), getInt(p, prefix + "speed", Config.servo_PWM_speed),
+					getInt(p, prefix + "safeguard", Config.relay_safeguard_time));
+			channels.add(config.withCurve(DimmingCurve.forName(p.getProperty(prefix + "curve", curve))));
+		}
+		return new ConfigFile(host, port, wallSwitch.isEmpty() ? null : wallSwitch, longPress, currentSensor.isEmpty() ? null : currentSensor, powerLimit,
+				rgbGroup, channels);
+	}
+
+	private static String getString(Properties p, String key) {
+		String value = p.getProperty(key);
+		if (value == null || value.trim().isEmpty())
+			throw new IllegalArgumentException("Missing " + key);
+		return value.trim();
+	}
+
+	private static int getInt(Properties p, String key, int defaultValue) {
+		String value = p.getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + key + "=" + value);
+		}
+	}
+
+	private static String[] split(String list) {
+		if (list == null || list.trim().isEmpty())
+			return new String[0];
+		return list.trim().split("\\s*,\\s*");
+	}
+
+	private final String host;
+	private final int port;
+	private final String wallSwitch;
+	private final int longPress;
+	private final String currentSensor;
+	private final int powerLimit;
+	private final String[] rgbGroup;
+	private final List<ChannelConfig> channels;
+
+	private ConfigFile(String host, int port, String wallSwitch, int longPress, String currentSensor, int powerLimit, String[] rgbGroup,
+			List<ChannelConfig> channels) {
+		this.host = host;
+		this.port = port;
+		this.wallSwitch = wallSwitch;
+		this.longPress = longPress;
+		this.currentSensor = currentSensor;
+		this.powerLimit = powerLimit;
+		this.rgbGroup = rgbGroup;
+		this.channels = Collections.unmodifiableList(new ArrayList<ChannelConfig>(channels));
+	}
+
+	/**
+	 * Returns the host of the stack with the wall switch.
+	 *
+	 * @return
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the port of the stack with the wall switch.
+	 *
+	 * @return
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Returns the UID of the IO4 Bricklet of the wall switch or null.
+	 *
+	 * @return
+	 */
+	public String getWallSwitch() {
+		return wallSwitch;
+	}
+
+	/**
+	 * Returns the time in milliseconds a wall switch has to be held to ramp
+	 * the brightness, 0 if ramps are disabled.
+	 *
+	 * @return
+	 */
+	public int getLongPress() {
+		return longPress;
+	}
+
+	/**
+	 * Returns the UID of the Current25 Bricklet of the LED supply or null.
+	 *
+	 * @return
+	 */
+	public String getCurrentSensor() {
+		return currentSensor;
+	}
+
+	/**
+	 * Returns the LED current limit in mA, 0 if the power budget is disabled.
+	 *
+	 * @return
+	 */
+	public int getPowerLimit() {
+		return powerLimit;
+	}
+
+	/**
+	 * Returns the names of the red, green and blue channel of the color
+	 * chooser.
+	 *
+	 * @return
+	 */
+	public String[] getRgbGroup() {
+		return rgbGroup.clone();
+	}
+
+	/**
+	 * Returns the channels in configuration order.
+	 *
+	 * @return
+	 */
+	public List<ChannelConfig> getChannels() {
+		return channels;
+	}
+}
@@ -0,0 +1,101 @@
+package led;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * {@link ConfigWatcher} watches the configuration file and applies it to the
+ * {@link ChannelRegistry} whenever it was written. An invalid file is
+ * reported and the running configuration is kept.
+ *
+ * Channels, wall_switch, long_press, current_sensor and power_limit are
+ * applied while running, stacks left without channels are disconnected. The
+ * rgb_group is created once by the GUI and the daemon, a change is logged and
+ * needs a restart.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ConfigWatcher implements Runnable {
+
+	/**
+	 * Time in milliseconds to wait for further writes before reloading
+	 */
+	private static final long SETTLE_TIME = 200;
+
+	private final Path path;
+	private final ChannelRegistry registry;
+	private final WatchService watcher;
+	private final Thread thread;
+
+	/**
+	 * Constructor, starts watching.
+	 *
+	 * @param path
+	 * @param registry
+	 * @throws IOException
+	 */
+	public ConfigWatcher(Path path, ChannelRegistry registry) throws IOException {
+		this.path = path.toAbsolutePath();
+		this.registry = registry;
+		watcher = this.path.getFileSystem().newWatchService();
+		this.path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		thread = new Thread(this, "ConfigWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				if (!isChanged(watcher.take()))
+					continue;
+				/** Editors write in several steps, wait until the file settled */
+				Thread.sleep(SETTLE_TIME);
+				WatchKey key;
+				while ((key = watcher.poll()) != null) {
+					isChanged(key);
+					Thread.sleep(SETTLE_TIME);
+				}
+				reload();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			return;
+		}
+	}
+
+	private boolean isChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (path.getFileName().equals(event.context()))
+				changed = true;
+		}
+		key.reset();
+		return changed;
+	}
+
+	private void reload() {
+		try {
+			registry.apply(ConfigFile.load(path));
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println("ConfigWatcher: keeping the running configuration, " + path + " is invalid");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public void close() {
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
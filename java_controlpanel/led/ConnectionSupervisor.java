@@ -0,0 +1,226 @@
+package led;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.tinkerforge.AlreadyConnectedException;
+import com.tinkerforge.IPConnection;
+
+/**
+ * {@link ConnectionSupervisor} keeps the {@link IPConnection} of a
+ * {@link LEDStack} connected. The automatic reconnect of the IPConnection is
+ * replaced by attempts with exponential backoff, starting at
+ * Config.reconnect_min_delay and doubling up to Config.reconnect_max_delay.
+ *
+ * After a reconnect the stack restores the desired state of its channels,
+ * only the settings which differ from what the devices report are written.
+ * The restore runs on the supervisor thread, as it enumerates the devices and
+ * must not block the callback thread.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ConnectionSupervisor implements IPConnection.ConnectedListener, IPConnection.DisconnectedListener {
+
+	private final LEDStack stack;
+	private final IPConnection ipcon;
+	private final String host;
+	private final int port;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Pending reconnect attempt, delay of the next one and attempts since the
+	 * connection was lost, guarded by this
+	 */
+	private ScheduledFuture<?> pending;
+	private long delay = Config.reconnect_min_delay;
+	private long outageAttempts;
+	private boolean stopped;
+
+	private volatile boolean connected;
+	private volatile long disconnects;
+	private volatile long attempts;
+	private volatile long restores;
+	private volatile long restoreWrites;
+
+	/**
+	 * Tries to connect, reschedules itself with the doubled delay on failure
+	 */
+	private final Runnable attempt = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (ConnectionSupervisor.this) {
+				pending = null;
+				if (stopped)
+					return;
+				outageAttempts++;
+			}
+			attempts++;
+			try {
+				ipcon.connect(host, port);
+			} catch (AlreadyConnectedException e) {
+				/** Connected in the meantime */
+			} catch (IOException e) {
+				synchronized (ConnectionSupervisor.this) {
+					if (Config.debug)
+						System.out.println("ConnectionSupervisor " + stack.getName() + ": " + e.getMessage() + ", retrying in " + delay + " ms");
+					schedule();
+				}
+			}
+		}
+	};
+
+	/**
+	 * Returns a task restoring the channels after a reconnect.
+	 *
+	 * @param outageAttempts
+	 *            attempts needed to reconnect
+	 * @return
+	 */
+	private Runnable restore(final long outageAttempts) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				int written = stack.restore();
+				restores++;
+				restoreWrites += written;
+				System.out.println("ConnectionSupervisor " + stack.getName() + ": reconnected after " + outageAttempts + " attempts, " + written
+						+ " settings restored in " + (System.nanoTime() - start) / 1000000 + " ms");
+			}
+		};
+	}
+
+	/**
+	 * Constructor, disables the automatic reconnect of the connection. If it
+	 * is not connected yet, the first attempt is scheduled.
+	 *
+	 * @param stack
+	 * @param ipcon
+	 * @param host
+	 * @param port
+	 */
+	public ConnectionSupervisor(LEDStack stack, IPConnection ipcon, String host, int port) {
+		this.stack = stack;
+		this.ipcon = ipcon;
+		this.host = host;
+		this.port = port;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ConnectionSupervisor " + ConnectionSupervisor.this.host + ":" + ConnectionSupervisor.this.port);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ipcon.setAutoReconnect(false);
+		ipcon.addConnectedListener(this);
+		ipcon.addDisconnectedListener(this);
+		connected = ipcon.getConnectionState() == IPConnection.CONNECTION_STATE_CONNECTED;
+		if (!connected) {
+			synchronized (this) {
+				schedule();
+			}
+		}
+	}
+
+	/**
+	 * Schedules the next attempt, called with the lock held.
+	 */
+	private void schedule() {
+		if (pending != null || stopped)
+			return;
+		pending = scheduler.schedule(attempt, delay, TimeUnit.MILLISECONDS);
+		delay = Math.min(Config.reconnect_max_delay, delay * 2);
+	}
+
+	@Override
+	public void connected(short connectReason) {
+		long outage;
+		synchronized (this) {
+			delay = Config.reconnect_min_delay;
+			outage = outageAttempts;
+			outageAttempts = 0;
+		}
+		boolean wasConnected = connected;
+		connected = true;
+		if (!wasConnected) {
+			try {
+				scheduler.execute(restore(outage));
+			} catch (RuntimeException e) {
+				/** Shut down */
+			}
+		}
+	}
+
+	@Override
+	public void disconnected(short disconnectReason) {
+		connected = false;
+		if (disconnectReason == IPConnection.DISCONNECT_REASON_REQUEST)
+			return;
+		disconnects++;
+		System.out.println("ConnectionSupervisor " + stack.getName() + ": connection lost, reconnecting");
+		synchronized (this) {
+			schedule();
+		}
+	}
+
+	/**
+	 * Returns true if the stack is connected.
+	 *
+	 * @return
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * Returns the number of connection losses.
+	 *
+	 * @return
+	 */
+	public long getDisconnects() {
+		return disconnects;
+	}
+
+	/**
+	 * Returns the number of reconnect attempts.
+	 *
+	 * @return
+	 */
+	public long getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Returns the number of settings written by all restores.
+	 *
+	 * @return
+	 */
+	public long getRestoreWrites() {
+		return restoreWrites;
+	}
+
+	/**
+	 * Stops reconnecting, called before the connection is closed.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			stopped = true;
+			if (pending != null)
+				pending.cancel(false);
+		}
+		ipcon.removeConnectedListener(this);
+		ipcon.removeDisconnectedListener(this);
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionSupervisor [connected=" + connected + ", disconnects=" + disconnects + ", attempts=" + attempts + ", restores=" + restores
+				+ ", restoreWrites=" + restoreWrites + "]";
+	}
+}
@@ -0,0 +1,137 @@
+package led;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.tinkerforge.IPConnection;
+import com.tinkerforge.NotConnectedException;
+
+/**
+ * {@link DeviceDiscovery} enumerates the devices of a stack. It waits until
+ * all expected devices answered or the timeout elapsed, so a missing device is
+ * detected once instead of by a timeout of every request sent to it.
+ *
+ * @author Ingo Kauffmann
+ */
+public class DeviceDiscovery implements IPConnection.EnumerateListener {
+
+	/**
+	 * Enumerates the devices of a stack.
+	 *
+	 * @param ipcon
+	 * @param expected
+	 *            UIDs to wait for
+	 * @param timeout
+	 *            maximum time to wait in milliseconds
+	 * @return
+	 */
+	public static DeviceDiscovery discover(IPConnection ipcon, Collection<String> expected, long timeout) {
+		DeviceDiscovery discovery = new DeviceDiscovery(expected);
+		ipcon.addEnumerateListener(discovery);
+		try {
+			ipcon.enumerate();
+			discovery.await(timeout);
+		} catch (NotConnectedException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			ipcon.removeEnumerateListener(discovery);
+		}
+		return discovery;
+	}
+
+	/**
+	 * Device identifiers by UID
+	 */
+	private final Map<String, Integer> devices = new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * UIDs of the Bricks the devices are connected to by UID
+	 */
+	private final Map<String, String> connectedUids = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Firmware versions by UID
+	 */
+	private final Map<String, short[]> firmwareVersions = new ConcurrentHashMap<String, short[]>();
+
+	private final Set<String> missing;
+
+	private DeviceDiscovery(Collection<String> expected) {
+		missing = new HashSet<String>(expected);
+	}
+
+	@Override
+	public void enumerate(String uid, String connectedUid, char position, short[] hardwareVersion, short[] firmwareVersion, int deviceIdentifier,
+			short enumerationType) {
+		if (enumerationType == IPConnection.ENUMERATION_TYPE_DISCONNECTED)
+			return;
+		devices.put(uid, deviceIdentifier);
+		connectedUids.put(uid, connectedUid);
+		firmwareVersions.put(uid, firmwareVersion);
+		synchronized (this) {
+			if (missing.remove(uid) && missing.isEmpty())
+				notifyAll();
+		}
+	}
+
+	private synchronized void await(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (!missing.isEmpty() && remaining > 0) {
+			wait(remaining);
+			remaining = deadline - System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Returns false if the device did not answer or is of another type. If no
+	 * device answered at all, the stack does not support enumeration and every
+	 * device is assumed to be present.
+	 *
+	 * @param uid
+	 * @param deviceIdentifier
+	 * @return
+	 */
+	public boolean isPresent(String uid, int deviceIdentifier) {
+		if (devices.isEmpty())
+			return true;
+		Integer found = devices.get(uid);
+		return found != null && found == deviceIdentifier;
+	}
+
+	/**
+	 * Returns the UID of the Brick a device is connected to or null if the
+	 * device did not answer.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	public String getConnectedUid(String uid) {
+		return connectedUids.get(uid);
+	}
+
+	/**
+	 * Returns the firmware version of a device or null if the device did not
+	 * answer.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	public short[] getFirmwareVersion(String uid) {
+		return firmwareVersions.get(uid);
+	}
+
+	/**
+	 * Returns the number of devices which answered.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return devices.size();
+	}
+}
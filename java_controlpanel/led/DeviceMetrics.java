@@ -0,0 +1,170 @@
+package led;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * {@link DeviceMetrics} collects the latency per function ID, the timeouts and
+ * the failed calls of a single Brick or Bricklet. There is one instance per
+ * UID, registered as MBean led:type=DeviceMetrics,name=&lt;UID&gt;.
+ *
+ * @author Ingo Kauffmann
+ */
+public class DeviceMetrics implements DeviceMetricsMBean {
+
+	private static final LinkedHashMap<String, DeviceMetrics> registry = new LinkedHashMap<String, DeviceMetrics>();
+
+	/**
+	 * Returns the metrics of a device, they are created and registered on
+	 * first use.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	public static DeviceMetrics forDevice(String uid) {
+		synchronized (registry) {
+			DeviceMetrics metrics = registry.get(uid);
+			if (metrics == null) {
+				metrics = new DeviceMetrics(uid);
+				registry.put(uid, metrics);
+				try {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("led:type=DeviceMetrics,name=" + ObjectName.quote(uid)));
+				} catch (JMException e) {
+					e.printStackTrace();
+				}
+			}
+			return metrics;
+		}
+	}
+
+	/**
+	 * Returns the metrics of all devices.
+	 *
+	 * @return
+	 */
+	public static List<DeviceMetrics> getAll() {
+		synchronized (registry) {
+			return new ArrayList<DeviceMetrics>(registry.values());
+		}
+	}
+
+	private final String uid;
+	private final AtomicReferenceArray<LatencyHistogram> latencies = new AtomicReferenceArray<LatencyHistogram>(256);
+	private final String[] names = new String[256];
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong notConnected = new AtomicLong();
+
+	private DeviceMetrics(String uid) {
+		this.uid = uid;
+	}
+
+	/**
+	 * Names a function ID for the summaries.
+	 *
+	 * @param functionId
+	 * @param name
+	 */
+	public synchronized void name(byte functionId, String name) {
+		names[functionId & 0xFF] = name;
+	}
+
+	/**
+	 * Records the latency of a call which started at System.nanoTime() start.
+	 *
+	 * @param functionId
+	 * @param start
+	 */
+	public void record(byte functionId, long start) {
+		long nanos = System.nanoTime() - start;
+		int i = functionId & 0xFF;
+		LatencyHistogram histogram = latencies.get(i);
+		if (histogram == null) {
+			latencies.compareAndSet(i, null, new LatencyHistogram());
+			histogram = latencies.get(i);
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * Counts a call which timed out.
+	 */
+	public void timeout() {
+		timeouts.incrementAndGet();
+	}
+
+	/**
+	 * Counts a call which failed because the IPConnection was not connected.
+	 */
+	public void notConnected() {
+		notConnected.incrementAndGet();
+	}
+
+	/**
+	 * Returns the latency histogram of a function ID, null if it was never
+	 * called.
+	 *
+	 * @param functionId
+	 * @return
+	 */
+	public LatencyHistogram getLatency(byte functionId) {
+		return latencies.get(functionId & 0xFF);
+	}
+
+	/**
+	 * Returns the UID of the device.
+	 *
+	 * @return
+	 */
+	public String getUid() {
+		return uid;
+	}
+
+	@Override
+	public long getCalls() {
+		long calls = 0;
+		for (int i = 0; i < latencies.length(); i++) {
+			LatencyHistogram histogram = latencies.get(i);
+			if (histogram != null)
+				calls += histogram.getCount();
+		}
+		return calls;
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getNotConnected() {
+		return notConnected.get();
+	}
+
+	@Override
+	public synchronized String[] getLatencies() {
+		List<String> summaries = new ArrayList<String>();
+		for (int i = 0; i < latencies.length(); i++) {
+			LatencyHistogram histogram = latencies.get(i);
+			if (histogram != null)
+				summaries.add((names[i] != null ? names[i] : "function " + i) + ": " + histogram);
+		}
+		return summaries.toArray(new String[summaries.size()]);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(uid);
+		sb.append(": ").append(getCalls()).append(" calls, ").append(getTimeouts()).append(" timeouts, ").append(getNotConnected()).append(" not connected");
+		for (String latency : getLatencies()) {
+			sb.append("\n  ").append(latency);
+		}
+		return sb.toString();
+	}
+}
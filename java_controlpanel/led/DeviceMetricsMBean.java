@@ -0,0 +1,38 @@
+package led;
+
+/**
+ * JMX view of the {@link DeviceMetrics} of a single Brick or Bricklet.
+ *
+ * @author Ingo Kauffmann
+ */
+public interface DeviceMetricsMBean {
+
+	/**
+	 * Returns the number of calls to the device.
+	 *
+	 * @return
+	 */
+	long getCalls();
+
+	/**
+	 * Returns the number of calls which timed out.
+	 *
+	 * @return
+	 */
+	long getTimeouts();
+
+	/**
+	 * Returns the number of calls which failed because the IPConnection was
+	 * not connected.
+	 *
+	 * @return
+	 */
+	long getNotConnected();
+
+	/**
+	 * Returns one latency summary per called function.
+	 *
+	 * @return
+	 */
+	String[] getLatencies();
+}
@@ -0,0 +1,218 @@
+package led;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link DimmingCurve} maps perceived brightness to servo positions. The
+ * perceived brightness of an LED is not linear in its duty cycle, so the
+ * brightness steps, 8 bit and 16 bit color values are looked up in tables
+ * precomputed for the CIE 1931 lightness curve, a gamma curve or a linear
+ * curve. The positions span 0 to Config.servo_PWM_resolution.
+ *
+ * All lookups are single array accesses. Curves are immutable and shared by
+ * all channels using the same name.
+ *
+ * @author Ingo Kauffmann
+ */
+public final class DimmingCurve {
+
+	/**
+	 * Curves by name
+	 */
+	private static final Map<String, DimmingCurve> curves = new ConcurrentHashMap<String, DimmingCurve>();
+
+	/**
+	 * Returns the curve with the given name: cie, linear or gamma:&lt;exponent&gt;.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the name is unknown
+	 */
+	public static DimmingCurve forName(String name) {
+		String key = name.trim().toLowerCase();
+		DimmingCurve curve = curves.get(key);
+		if (curve == null) {
+			if (key.equals("cie")) {
+				curve = new DimmingCurve(key, -1);
+			} else if (key.equals("linear")) {
+				curve = new DimmingCurve(key, 1);
+			} else if (key.startsWith("gamma:")) {
+				double gamma;
+				try {
+					gamma = Double.parseDouble(key.substring(6));
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("Invalid dimming curve " + name);
+				}
+				if (!(gamma > 0 && gamma <= 10))
+					throw new IllegalArgumentException("Invalid dimming curve " + name);
+				curve = new DimmingCurve(key, gamma);
+			} else {
+				throw new IllegalArgumentException("Unknown dimming curve " + name);
+			}
+			DimmingCurve other = curves.put(key, curve);
+			if (other != null)
+				curve = other;
+		}
+		return curve;
+	}
+
+	private final String name;
+
+	/**
+	 * Positions by brightness step, 8 bit and 16 bit color value
+	 */
+	private final short[] brightnessToPosition = new short[Config.servo_PWM_steps + 1];
+	private final short[] colorToPosition = new short[256];
+	private final short[] color16ToPosition = new short[65536];
+
+	/**
+	 * Nearest brightness step and 8 bit color value by position
+	 */
+	private final short[] positionToBrightness = new short[Config.servo_PWM_resolution + 1];
+	private final short[] positionToColor = new short[Config.servo_PWM_resolution + 1];
+
+	/**
+	 * Precomputes the tables.
+	 *
+	 * @param name
+	 * @param gamma
+	 *            exponent of the gamma curve, negative for CIE 1931 lightness
+	 */
+	private DimmingCurve(String name, double gamma) {
+		this.name = name;
+		fill(brightnessToPosition, gamma);
+		fill(colorToPosition, gamma);
+		fill(color16ToPosition, gamma);
+		invert(brightnessToPosition, positionToBrightness);
+		invert(colorToPosition, positionToColor);
+	}
+
+	/**
+	 * Relative luminance of a relative lightness.
+	 *
+	 * @param lightness
+	 *            0 to 1
+	 * @param gamma
+	 * @return 0 to 1
+	 */
+	private static double luminance(double lightness, double gamma) {
+		if (gamma > 0)
+			return Math.pow(lightness, gamma);
+		/** CIE 1931: L* = 116 * Y^(1/3) - 16, linear below L* = 8 */
+		double l = lightness * 100;
+		if (l <= 8)
+			return l / 903.3;
+		double y = (l + 16) / 116;
+		return y * y * y;
+	}
+
+	/**
+	 * Fills a table of positions. Tables shorter than the position range rise
+	 * strictly, so no step is lost at the dark end and every step reads back
+	 * as itself.
+	 *
+	 * @param table
+	 * @param gamma
+	 */
+	private static void fill(short[] table, double gamma) {
+		int max = table.length - 1;
+		boolean strict = max <= Config.servo_PWM_resolution;
+		for (int i = 0; i <= max; i++) {
+			int position = (int) Math.round(luminance(i / (double) max, gamma) * Config.servo_PWM_resolution);
+			if (strict && i > 0) {
+				/** Raise the dark end, but never beyond the room left for the steps above */
+				position = Math.max(position, table[i - 1] + 1);
+				position = Math.min(position, Config.servo_PWM_resolution - (max - i));
+			}
+			table[i] = (short) position;
+		}
+	}
+
+	/**
+	 * Fills a table of the nearest index of a strictly rising table by
+	 * position.
+	 *
+	 * @param table
+	 * @param inverse
+	 */
+	private static void invert(short[] table, short[] inverse) {
+		int i = 0;
+		for (int position = 0; position < inverse.length; position++) {
+			while (i < table.length - 1 && table[i + 1] <= position) {
+				i++;
+			}
+			if (i < table.length - 1 && table[i + 1] - position < position - table[i]) {
+				inverse[position] = (short) (i + 1);
+			} else {
+				inverse[position] = (short) i;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of a brightness between 0 and
+	 * Config.servo_PWM_steps.
+	 *
+	 * @param brightness
+	 * @return
+	 */
+	public int fromBrightness(int brightness) {
+		return brightnessToPosition[brightness];
+	}
+
+	/**
+	 * Returns the position of a uint8 color value.
+	 *
+	 * @param c
+	 * @return
+	 */
+	public int fromColor(int c) {
+		return colorToPosition[c];
+	}
+
+	/**
+	 * Returns the position of a uint16 color value.
+	 *
+	 * @param c
+	 * @return
+	 */
+	public int fromColor16(int c) {
+		return color16ToPosition[c];
+	}
+
+	/**
+	 * Returns the brightness nearest to a position.
+	 *
+	 * @param position
+	 * @return
+	 */
+	public int toBrightness(int position) {
+		return positionToBrightness[position];
+	}
+
+	/**
+	 * Returns the uint8 color value nearest to a position.
+	 *
+	 * @param position
+	 * @return
+	 */
+	public int toColor(int position) {
+		return positionToColor[position];
+	}
+
+	/**
+	 * Returns the name of the curve.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,178 @@
+package led;
+
+import com.tinkerforge.BrickletDualRelay;
+import com.tinkerforge.BrickletDualRelay.State;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link DualRelayState} is shared by all channels switched by the same
+ * {@link BrickletDualRelay}. It caches both relay bits and switches a single
+ * relay per write, so the channels neither read the state back before a switch
+ * nor overwrite each other's bit.
+ *
+ * @author Ingo Kauffmann
+ */
+public class DualRelayState {
+
+	private final BrickletDualRelay relay;
+
+	private boolean relay1;
+	private boolean relay2;
+
+	/**
+	 * False until the state was read from the Bricklet
+	 */
+	private boolean known;
+
+	/**
+	 * Number of relay switches, see {@link #verify(State, long)}
+	 */
+	private long switches;
+
+	/**
+	 * Constructor, reads the current state once.
+	 *
+	 * @param relay
+	 */
+	public DualRelayState(BrickletDualRelay relay) {
+		this.relay = relay;
+		resync();
+	}
+
+	/**
+	 * Constructor for a state read in advance.
+	 *
+	 * @param relay
+	 * @param state
+	 *            state of the Bricklet, null if unknown
+	 */
+	public DualRelayState(BrickletDualRelay relay, State state) {
+		this.relay = relay;
+		if (state != null) {
+			relay1 = state.relay1;
+			relay2 = state.relay2;
+			known = true;
+		}
+	}
+
+	/**
+	 * Reads both relay bits back from the Bricklet.
+	 */
+	public synchronized void resync() {
+		try {
+			State state = relay.getState();
+			relay1 = state.relay1;
+			relay2 = state.relay2;
+			known = true;
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the cached state of relay 1 or 2.
+	 *
+	 * @param relayNum
+	 * @return
+	 */
+	public synchronized boolean get(int relayNum) {
+		return relayNum == 1 ? relay1 : relay2;
+	}
+
+	/**
+	 * Switches relay 1 or 2, the other relay is not touched. The bit is
+	 * cached first, so it is restored after a reconnect if the connection is
+	 * lost.
+	 *
+	 * @param relayNum
+	 * @param on
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public synchronized void set(int relayNum, boolean on) throws TimeoutException, NotConnectedException {
+		if (get(relayNum) == on)
+			return;
+		if (relayNum == 1) {
+			relay1 = on;
+		} else {
+			relay2 = on;
+		}
+		switches++;
+		relay.setSelectedState((short) relayNum, on);
+	}
+
+	/**
+	 * Returns the number of relay switches, taken before a state is read for
+	 * {@link #verify(State, long)}.
+	 *
+	 * @return
+	 */
+	public synchronized long getSwitches() {
+		return switches;
+	}
+
+	/**
+	 * Repairs drift found by the {@link StateVerifier} like
+	 * {@link #restore(State)}. Skipped if a relay was switched since the
+	 * state was read.
+	 *
+	 * @param current
+	 *            state of the Bricklet, null if unknown
+	 * @param switches
+	 *            number of relay switches before the state was read
+	 * @return number of relays switched
+	 */
+	public synchronized int verify(State current, long switches) {
+		if (switches != this.switches)
+			return 0;
+		return restore(current);
+	}
+
+	/**
+	 * Switches the relays whose state differs from the cached one after a
+	 * reconnect. A state which was never known is taken over.
+	 *
+	 * @param current
+	 *            state of the Bricklet, null if unknown
+	 * @return number of relays switched
+	 */
+	public synchronized int restore(State current) {
+		if (current == null)
+			return 0;
+		if (!known) {
+			relay1 = current.relay1;
+			relay2 = current.relay2;
+			known = true;
+			return 0;
+		}
+		int written = 0;
+		try {
+			if (current.relay1 != relay1) {
+				relay.setSelectedState((short) 1, relay1);
+				written++;
+			}
+			if (current.relay2 != relay2) {
+				relay.setSelectedState((short) 2, relay2);
+				written++;
+			}
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+		return written;
+	}
+
+	/**
+	 * Returns the {@link BrickletDualRelay}.
+	 *
+	 * @return
+	 */
+	public BrickletDualRelay getRelay() {
+		return relay;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "[relay1 = " + relay1 + ", relay2 = " + relay2 + "]";
+	}
+}
@@ -0,0 +1,70 @@
+package led;
+
+/**
+ * An {@link Easing} shapes the progress of a fade. Besides the standard curves
+ * any custom curve can be implemented.
+ *
+ * @author Ingo Kauffmann
+ */
+public interface Easing {
+
+	/**
+	 * Returns the eased progress.
+	 *
+	 * @param t
+	 *            linear progress between 0 and 1
+	 * @return eased progress, 0 at t = 0 and 1 at t = 1
+	 */
+	double ease(double t);
+
+	Easing LINEAR = new Easing() {
+		@Override
+		public double ease(double t) {
+			return t;
+		}
+	};
+
+	Easing EASE_IN = new Easing() {
+		@Override
+		public double ease(double t) {
+			return t * t * t;
+		}
+	};
+
+	Easing EASE_OUT = new Easing() {
+		@Override
+		public double ease(double t) {
+			double u = 1 - t;
+			return 1 - u * u * u;
+		}
+	};
+
+	Easing EASE_IN_OUT = new Easing() {
+		@Override
+		public double ease(double t) {
+			if (t < 0.5)
+				return 4 * t * t * t;
+			double u = -2 * t + 2;
+			return 1 - u * u * u / 2;
+		}
+	};
+
+	Easing SINE = new Easing() {
+		@Override
+		public double ease(double t) {
+			return (1 - Math.cos(Math.PI * t)) / 2;
+		}
+	};
+
+	Easing EXPONENTIAL = new Easing() {
+		@Override
+		public double ease(double t) {
+			return (Math.pow(2, 10 * t) - 1) / 1023;
+		}
+	};
+
+	/**
+	 * Standard curves in the order of their API codes 1 to 6
+	 */
+	Easing[] STANDARD = { LINEAR, EASE_IN, EASE_OUT, EASE_IN_OUT, SINE, EXPONENTIAL };
+}
@@ -0,0 +1,29 @@
+package led;
+
+/**
+ * An {@link Effect} is the brightness of one channel over time. It is
+ * evaluated by the {@link FrameScheduler} once per frame and must neither
+ * block nor allocate.
+ *
+ * @author Ingo Kauffmann
+ */
+public interface Effect {
+
+	/**
+	 * Returns the brightness at the given time.
+	 *
+	 * @param elapsed
+	 *            nanoseconds since the effect started
+	 * @return brightness between 0 and 1
+	 */
+	double level(long elapsed);
+
+	/**
+	 * Returns true once the effect has reached its final brightness.
+	 *
+	 * @param elapsed
+	 *            nanoseconds since the effect started
+	 * @return
+	 */
+	boolean isDone(long elapsed);
+}
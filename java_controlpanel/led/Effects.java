@@ -0,0 +1,94 @@
+package led;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory of the standard {@link Effect}s. Brightness values are between 0
+ * and 1 and are mapped to positions by the {@link DimmingCurve} of each
+ * channel.
+ *
+ * @author Ingo Kauffmann
+ */
+public final class Effects {
+
+	private Effects() {
+	}
+
+	/**
+	 * Fades from one brightness to another.
+	 *
+	 * @param from
+	 * @param to
+	 * @param durationMillis
+	 * @param easing
+	 * @return
+	 */
+	public static Effect fade(final double from, final double to, long durationMillis, final Easing easing) {
+		final long duration = TimeUnit.MILLISECONDS.toNanos(Math.max(0, durationMillis));
+		return new Effect() {
+			@Override
+			public double level(long elapsed) {
+				if (elapsed >= duration)
+					return to;
+				return from + (to - from) * easing.ease(elapsed / (double) duration);
+			}
+
+			@Override
+			public boolean isDone(long elapsed) {
+				return elapsed >= duration;
+			}
+		};
+	}
+
+	/**
+	 * Breathes between two brightness values until it is stopped.
+	 *
+	 * @param min
+	 * @param max
+	 * @param periodMillis
+	 *            time of one breath
+	 * @return
+	 */
+	public static Effect breathe(final double min, final double max, long periodMillis) {
+		final long period = TimeUnit.MILLISECONDS.toNanos(Math.max(1, periodMillis));
+		return new Effect() {
+			@Override
+			public double level(long elapsed) {
+				double t = (elapsed % period) / (double) period;
+				return min + (max - min) * (1 - Math.cos(2 * Math.PI * t)) / 2;
+			}
+
+			@Override
+			public boolean isDone(long elapsed) {
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Cycles one channel of an RGB stripe through the hues until it is
+	 * stopped. Red, green and blue use the phases 0, 2/3 and 1/3.
+	 *
+	 * @param periodMillis
+	 *            time of one cycle
+	 * @param phase
+	 *            offset between 0 and 1
+	 * @return
+	 */
+	public static Effect cycle(long periodMillis, final double phase) {
+		final long period = TimeUnit.MILLISECONDS.toNanos(Math.max(1, periodMillis));
+		return new Effect() {
+			@Override
+			public double level(long elapsed) {
+				double hue = (elapsed % period) / (double) period + phase;
+				hue -= Math.floor(hue);
+				return Math.max(0, Math.min(1, Math.abs(6 * hue - 3) - 1));
+			}
+
+			@Override
+			public boolean isDone(long elapsed) {
+				return false;
+			}
+		};
+	}
+}
@@ -1,6 +1,9 @@
 package led;
 
+import java.util.concurrent.Future;
+
 import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickServoLED;
 import com.tinkerforge.BrickletDualRelay;
 import com.tinkerforge.BrickletDualRelay.State;
 import com.tinkerforge.IPConnection;
@@ -14,60 +17,136 @@ import com.tinkerforge.TimeoutException;
  */
 public class ExternallyDimmedLED {
 
+	/**
+	 * Power scale 1.0, see {@link #setPowerScale(int)}
+	 */
+	public static final int POWER_SCALE_ONE = 1 << 16;
+
 	protected String name;
 	protected BrickServo servo;
 	protected short servoNum;
 
 	private BrickletDualRelay relay;
-	protected long lastRelaySwitch;
 
 	/**
-	 * 0 = off 1 = dimmed 2 = on
+	 * False until the relay state was read from the Bricklet
+	 */
+	private boolean relayKnown;
+
+	/**
+	 * PWM period in microseconds, velocity of brightness changes in steps per
+	 * second and relay safeguard time in milliseconds
+	 */
+	protected volatile int period = Config.servo_PWM_period;
+	protected volatile int speed = Config.servo_PWM_speed;
+	protected volatile int safeguard = Config.relay_safeguard_time;
+
+	/**
+	 * Maps brightness and color values to servo positions
+	 */
+	protected volatile DimmingCurve curve = DimmingCurve.forName(Config.dimming_curve);
+
+	/**
+	 * Scale of all positions set by the {@link PowerBudget} and the position
+	 * requested before scaling, -1 if none
+	 */
+	protected volatile int powerScale = POWER_SCALE_ONE;
+	protected volatile int requested = -1;
+
+	/**
+	 * Queue key of the rescaling, so it never replaces a pending change
+	 */
+	private final Object powerKey = new Object();
+
+	/**
+	 * Relay state, time of the last relay switch and cached position of the
+	 * servo output between 0 and Config.servo_PWM_resolution
+	 */
+	protected final ChannelState cache = new ChannelState();
+
+	/**
+	 * Easing and curve code last written by
+	 * {@link #fadeTo(int, long, Easing)}, -1 if unknown
 	 */
-	protected int state;
+	private volatile int dimmingMode = -1;
 
 	/**
-	 * Constructor.
+	 * System.nanoTime() at the end of the last fade by the firmware, the
+	 * position read back is not final before
+	 */
+	private volatile long fadeEnd = System.nanoTime();
+
+	/**
+	 * Transmits the asynchronous brightness changes
+	 */
+	protected CommandQueue queue;
+
+	/**
+	 * Executes relay transitions deferred by the safeguard time
+	 */
+	protected RelayScheduler relays;
+
+	/**
+	 * Constructor, reads the relay state and the servo output and writes the
+	 * settings which differ.
 	 * 
 	 * @param name
 	 * @param brickletUID
 	 * @param servo
 	 * @param servoNum
 	 * @param ipcon
-	 * @throws TimeoutException
+	 * @param queue
+	 * @param relays
 	 */
-	public ExternallyDimmedLED(String name, String brickletUID, BrickServo servo, int servoNum, IPConnection ipcon) {
-		this.name = name;
-		this.servo = servo;
-		this.servoNum = (short) servoNum;
+	public ExternallyDimmedLED(String name, String brickletUID, BrickServo servo, int servoNum, IPConnection ipcon, CommandQueue queue, RelayScheduler relays) {
+		this(name, new InstrumentedDualRelay(brickletUID, ipcon), null, servo, servoNum, queue, relays);
+		ServoOutput current = null;
+		try {
+			setRelayState(relay.getState());
+			current = ServoOutput.read(servo, this.servoNum);
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+		setup(current, period, speed, safeguard);
+	}
 
-		relay = new BrickletDualRelay(brickletUID, ipcon);
-		lastRelaySwitch = System.currentTimeMillis();
+	/**
+	 * Constructor for a relay state read in advance, the servo output is not
+	 * touched until {@link #setup(ServoOutput, int, int, int)}.
+	 * 
+	 * @param name
+	 * @param relay
+	 * @param relayState
+	 *            state of the DualRelay Bricklet, null if unknown
+	 * @param servo
+	 * @param servoNum
+	 * @param queue
+	 * @param relays
+	 */
+	public ExternallyDimmedLED(String name, BrickletDualRelay relay, State relayState, BrickServo servo, int servoNum, CommandQueue queue, RelayScheduler relays) {
+		this(name, servo, servoNum, queue, relays);
+		this.relay = relay;
+		cache.initState(0, System.currentTimeMillis());
+		if (relayState != null)
+			setRelayState(relayState);
+	}
 
-		try {
-			State rState = relay.getState();
-			if (rState.relay1) {
-				/** Relay 1 on = B => GND */
-				state = 2;
+	private void setRelayState(State rState) {
+		relayKnown = true;
+		int state;
+		if (rState.relay1) {
+			/** Relay 1 on = B => GND */
+			state = 2;
+		} else {
+			if (rState.relay2) {
+				/** Relay 2 on = B => DIMMED */
+				state = 1;
 			} else {
-				if (rState.relay2) {
-					/** Relay 2 on = B => DIMMED */
-					state = 1;
-				} else {
-					/** Relay 2 off = A => VBAT */
-					state = 0;
-				}
+				/** Relay 2 off = A => VBAT */
+				state = 0;
 			}
-
-			servo.setPeriod(this.servoNum, Config.servo_PWM_period);
-			servo.setPulseWidth(this.servoNum, 1, Config.servo_PWM_period);
-			servo.setDegree(this.servoNum, (short) 0, (short) Config.servo_PWM_steps);
-			servo.setAcceleration(this.servoNum, 0xFFFF);
-			servo.setVelocity(this.servoNum, Config.servo_PWM_speed);
-			servo.enable(this.servoNum);
-		} catch (TimeoutException | NotConnectedException e) {
-			e.printStackTrace();
 		}
+		cache.setState(state);
 	}
 
 	/**
@@ -76,11 +155,48 @@ public class ExternallyDimmedLED {
 	 * @param name
 	 * @param servo
 	 * @param servoNum
+	 * @param queue
+	 * @param relays
 	 */
-	protected ExternallyDimmedLED(String name, BrickServo servo, int servoNum) {
+	protected ExternallyDimmedLED(String name, BrickServo servo, int servoNum, CommandQueue queue, RelayScheduler relays) {
 		this.name = name;
 		this.servo = servo;
 		this.servoNum = (short) servoNum;
+		this.queue = queue;
+		this.relays = relays;
+	}
+
+	/**
+	 * Queues a brightness change, a pending change of this LED is dropped.
+	 * 
+	 * @param brightness
+	 * @return future which completes once the brightness was transmitted
+	 */
+	public Future<Void> submitBrightness(final int brightness) {
+		return queue.submit(this, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				setVelocity(toVelocity(speed));
+				setBrightness(brightness);
+			}
+		});
+	}
+
+	/**
+	 * Queues a uint8 color value change, a pending change of this LED is
+	 * dropped.
+	 * 
+	 * @param c
+	 * @return future which completes once the color was transmitted
+	 */
+	public Future<Void> submitColor(final int c) {
+		return queue.submit(this, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				setVelocity(toVelocity(speed));
+				setColor(c);
+			}
+		});
 	}
 
 	/**
@@ -89,77 +205,680 @@ public class ExternallyDimmedLED {
 	 * @param brightness
 	 */
 	public void setBrightness(int brightness) {
+		setPosition(curve.fromBrightness(Math.max(0, Math.min(Config.servo_PWM_steps, brightness))));
+	}
+
+	/**
+	 * Changes the servo position between 0 and Config.servo_PWM_resolution,
+	 * scaled by the power scale.
+	 * 
+	 * @param position
+	 */
+	public void setPosition(int position) {
+		setPosition(position, null);
+	}
+
+	/**
+	 * Changes the servo position like {@link #setPosition(int)}, the position
+	 * is collected by the batch if it belongs to the Servo Brick of this LED.
+	 * The relay is switched at once.
+	 * 
+	 * @param position
+	 * @param batch
+	 *            null to write the position at once
+	 */
+	public void setPosition(int position, ServoBatch batch) {
+		requested = position;
+		position = scaled(position);
+		if (Config.debug)
+			System.out.println(getName() +".setPosition("+position+") old state " + cache.getState());
+		moveTo(position, batch);
 		if (Config.debug)
-			System.out.println(getName() +".setBrightness("+brightness+") old state " + state);
+			System.out.println(getName() +".setPosition("+position+") new state " + cache.getState());
+	}
+
+	/**
+	 * Returns a position scaled by the power scale, as it is cached and
+	 * transmitted.
+	 * 
+	 * @param position
+	 * @return
+	 */
+	protected int scaled(int position) {
+		return (int) ((long) position * powerScale / POWER_SCALE_ONE);
+	}
+
+	/**
+	 * Switches the relay and transmits the scaled position depending on the
+	 * current state. A channel switched fully on is stepped down to dimmed
+	 * with the servo at full brightness and then moved to the position, so it
+	 * does not go dark on the way.
+	 * 
+	 * @param position
+	 * @param batch
+	 *            null to write the position at once
+	 */
+	protected void moveTo(int position, ServoBatch batch) {
+		int state = cache.getState();
 		if (state == 0) {
-			if (brightness == 0)
+			if (position == 0)
 				return;
-			if (brightness >= Config.servo_PWM_steps) {
+			if (position >= Config.servo_PWM_resolution) {
 				changeState(2);
-				setServo(Config.servo_PWM_steps);
+				setServo(Config.servo_PWM_resolution, batch);
 			} else {
 				changeState(1);
-				setServo(brightness);
+				setServo(position, batch);
 			}
 		} else if (state == 1) {
-			if (brightness <= 0) {
-				setServo(0);
-			} else if (brightness >= Config.servo_PWM_steps) {
-				setServo(Config.servo_PWM_steps);
+			if (position <= 0) {
+				setServo(0, batch);
+			} else if (position >= Config.servo_PWM_resolution) {
+				setServo(Config.servo_PWM_resolution, batch);
 			} else {
-				setServo(brightness);
+				setServo(position, batch);
 			}
 		} else {
-			changeState(0);
-			setServo(0);
+			if (position >= Config.servo_PWM_resolution) {
+				setServo(Config.servo_PWM_resolution, batch);
+			} else if (position <= 0) {
+				changeState(0);
+				setServo(0, batch);
+			} else {
+				changeState(1);
+				setServo(position, batch);
+			}
 		}
-		if (Config.debug)
-			System.out.println(getName() +".setBrightness("+brightness+") new state " + state);
 	}
 
 	/**
-	 * Transmits the brightness values to the Servo Brick.
+	 * Transmits the position to the Servo Brick. The position is cached
+	 * first, so it is restored after a reconnect if the connection is lost.
+	 * 
+	 * @param position
+	 */
+	protected void setServo(int position) {
+		setServo(position, null);
+	}
+
+	/**
+	 * Transmits the position or collects it in the batch, if the batch belongs
+	 * to the Servo Brick of this LED.
+	 * 
+	 * @param position
+	 * @param batch
+	 */
+	protected void setServo(int position, ServoBatch batch) {
+		cache.setPosition((short) position);
+		if (batch != null && batch.accepts(servo)) {
+			int velocity = cache.getVelocity();
+			if (velocity < 0) {
+				velocity = toVelocity(speed);
+				cache.setVelocity(velocity);
+			}
+			batch.set(servoNum, velocity, (short) position);
+			return;
+		}
+		try {
+			servo.setPosition(this.servoNum, (short) position);
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues a fade to the given brightness, a pending change of this LED is
+	 * dropped.
+	 * 
+	 * @param brightness
+	 * @param durationMillis
+	 * @return future which completes once the fade was transmitted
+	 */
+	public Future<Void> submitFade(final int brightness, final long durationMillis) {
+		return queue.submit(this, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				fadeTo(brightness, durationMillis);
+			}
+		});
+	}
+
+	/**
+	 * Fades to the given brightness within durationMillis. Velocity and
+	 * position are only transmitted if they changed.
 	 * 
 	 * @param brightness
+	 * @param durationMillis
+	 */
+	public void fadeTo(int brightness, long durationMillis) {
+		int position = curve.fromBrightness(Math.max(0, Math.min(Config.servo_PWM_steps, brightness)));
+		int distance = Math.abs(position - cache.getPosition());
+		if (distance == 0)
+			return;
+		setVelocity(velocityFor(distance, durationMillis));
+		setPosition(position);
+	}
+
+	/**
+	 * Queues a fade along an easing, a pending change of this LED is dropped.
+	 *
+	 * @param brightness
+	 * @param durationMillis
+	 * @param easing
+	 * @return future which completes once the fade was transmitted
+	 */
+	public Future<Void> submitFade(final int brightness, final long durationMillis, final Easing easing) {
+		return queue.submit(this, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				fadeTo(brightness, durationMillis, easing);
+			}
+		});
+	}
+
+	/**
+	 * Fades to the given brightness within durationMillis along an easing
+	 * executed by the Servo Brick, so a long fade is a single request. The
+	 * firmware interpolates the lightness and maps it by the dimming curve of
+	 * this LED. Falls back to the linear ramp of {@link #fadeTo(int, long)} if
+	 * the firmware does not support the easing or the curve or if the fade
+	 * needs a relay switch, which the firmware cannot do.
+	 *
+	 * @param brightness
+	 * @param durationMillis
+	 * @param easing
+	 */
+	public void fadeTo(int brightness, long durationMillis, Easing easing) {
+		if (!isEasingSupported(easing)) {
+			fadeTo(brightness, durationMillis);
+			return;
+		}
+		int position = curve.fromBrightness(Math.max(0, Math.min(Config.servo_PWM_steps, brightness)));
+		int scaled = scaled(position);
+		if (scaled == cache.getPosition())
+			return;
+		if (!prepareFade(scaled)) {
+			fadeTo(brightness, durationMillis);
+			return;
+		}
+		requested = position;
+		BrickServoLED led = (BrickServoLED) servo;
+		short firmwareEasing = toFirmwareEasing(easing);
+		short firmwareCurve = toFirmwareCurve(curve);
+		int mode = firmwareEasing << 8 | firmwareCurve;
+		cache.setPosition((short) scaled);
+		fadeEnd = System.nanoTime() + durationMillis * 1000000L;
+		try {
+			if (mode != dimmingMode) {
+				led.setDimmingMode(servoNum, firmwareEasing, firmwareCurve);
+				dimmingMode = mode;
+			}
+			led.fade(servoNum, (short) scaled, Math.max(0, Math.min(0xFFFFFFFFL, durationMillis)));
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Switches the relay for a fade by the firmware to position.
+	 *
+	 * @param position
+	 * @return false if the fade needs a relay switch at its end, which is left
+	 *         to the linear ramp
+	 */
+	protected boolean prepareFade(int position) {
+		int state = cache.getState();
+		if (state == 1)
+			return true;
+		if (position > 0 && position < Config.servo_PWM_resolution) {
+			changeState(1);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the Servo Brick fades along the easing with the dimming
+	 * curve of this LED.
+	 *
+	 * @param easing
+	 * @return
+	 */
+	public boolean isEasingSupported(Easing easing) {
+		return servo instanceof BrickServoLED && ((BrickServoLED) servo).isDimmingModeSupported() && toFirmwareEasing(easing) >= 0
+				&& toFirmwareCurve(curve) >= 0;
+	}
+
+	/**
+	 * Returns the firmware code of an easing or -1.
+	 *
+	 * @param easing
+	 * @return
+	 */
+	private static short toFirmwareEasing(Easing easing) {
+		if (easing == Easing.LINEAR)
+			return BrickServoLED.EASING_LINEAR;
+		if (easing == Easing.EASE_IN_OUT)
+			return BrickServoLED.EASING_EASE_IN_OUT;
+		if (easing == Easing.EXPONENTIAL)
+			return BrickServoLED.EASING_EXPONENTIAL;
+		return -1;
+	}
+
+	/**
+	 * Returns the firmware code of a dimming curve or -1, the firmware knows
+	 * only gamma 2.2.
+	 *
+	 * @param curve
+	 * @return
+	 */
+	private static short toFirmwareCurve(DimmingCurve curve) {
+		String name = curve.getName();
+		if (name.equals("linear"))
+			return BrickServoLED.CURVE_LINEAR;
+		if (name.equals("cie"))
+			return BrickServoLED.CURVE_CIE;
+		if (name.startsWith("gamma:") && Double.parseDouble(name.substring(6)) == 2.2)
+			return BrickServoLED.CURVE_GAMMA;
+		return -1;
+	}
+
+	/**
+	 * Returns the velocity in positions per second needed to travel distance
+	 * positions within durationMillis.
+	 * 
+	 * @param distance
+	 * @param durationMillis
+	 * @return
+	 */
+	public static int velocityFor(int distance, long durationMillis) {
+		if (durationMillis <= 0)
+			return 0xFFFF;
+		long velocity = (distance * 1000L + durationMillis - 1) / durationMillis;
+		return (int) Math.max(1, Math.min(0xFFFF, velocity));
+	}
+
+	/**
+	 * Returns the velocity in positions per second of a speed in brightness
+	 * steps per second.
+	 * 
+	 * @param speed
+	 * @return
+	 */
+	public static int toVelocity(int speed) {
+		return Math.min(0xFFFF, speed * (Config.servo_PWM_resolution / Config.servo_PWM_steps));
+	}
+
+	/**
+	 * Changes the velocity of the servo output in positions per second. The
+	 * velocity is only transmitted if it differs from the cached one.
+	 * 
+	 * @param velocity
+	 */
+	public void setVelocity(int velocity) {
+		setVelocity(velocity, null);
+	}
+
+	/**
+	 * Changes the velocity like {@link #setVelocity(int)}, the velocity is
+	 * collected by the batch if it belongs to the Servo Brick of this LED and
+	 * the position is known.
+	 * 
+	 * @param velocity
+	 * @param batch
+	 *            null to write the velocity at once
 	 */
-	private void setServo(int brightness) {
+	public void setVelocity(int velocity, ServoBatch batch) {
+		if (velocity == cache.getVelocity())
+			return;
+		if (batch != null && batch.accepts(servo) && cache.isValid()) {
+			cache.setVelocity(velocity);
+			batch.set(servoNum, velocity, cache.getPosition());
+			return;
+		}
 		try {
-			servo.setPosition(this.servoNum, (short) brightness);
+			servo.setVelocity(this.servoNum, velocity);
+			cache.setVelocity(velocity);
 		} catch (TimeoutException | NotConnectedException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Switches the DualRelay Bricklet and changes the internal state.
+	 * Switches the DualRelay Bricklet and changes the internal state. Within
+	 * the safeguard time after the last switch the transition is
+	 * deferred until the safeguard time has passed, a pending transition is
+	 * replaced.
+	 * 
+	 * The transition is decided on one snapshot of state and switch time and
+	 * taken by compare-and-set, so it may be called concurrently by the GUI,
+	 * the queue, the relay scheduler and the callback thread. Only the caller
+	 * which changed the state switches the relay, the others see the new state
+	 * and switch time and return or defer.
 	 * 
 	 * @param newState
 	 */
 	public void changeState(int newState) {
-		if (newState == state)
-			return;
+		while (true) {
+			long w = cache.get();
+			if (newState == ChannelState.stateOf(w)) {
+				relays.cancel(this);
+				return;
+			}
 
+			long now = System.currentTimeMillis();
+			long elapsed = now - ChannelState.switchedAt(w);
+			if (Config.debug)
+				System.out.println(getName() +".changeState() time since last switch "+elapsed);
+
+			if (deferState(newState, elapsed))
+				return;
+
+			/** The desired state is kept if the connection is lost */
+			if (cache.switchState(w, newState, now)) {
+				writeRelay(newState);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Switches the DualRelay Bricklet to a state, called by the caller of
+	 * {@link #changeState(int)} which changed the state.
+	 * 
+	 * @param newState
+	 */
+	protected void writeRelay(int newState) {
+		try {
+			if (newState == 1) {
+				/** Switching to dimmed */
+				relay.setState(false, true);
+			} else if (newState == 2) {
+				/** Switching to on */
+				relay.setState(true, true);
+			} else {
+				/** Switching to off */
+				relay.setState(false, false);
+			}
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Defers a state change, if the relay was switched less than the safeguard
+	 * time ago.
+	 * 
+	 * @param newState
+	 * @param elapsed
+	 *            milliseconds since the last switch
+	 * @return true, if the state change was deferred
+	 */
+	protected boolean deferState(final int newState, long elapsed) {
+		long remaining = safeguard - elapsed;
+		if (remaining < 0) {
+			relays.cancel(this);
+			return false;
+		}
+		boolean collapsed = relays.schedule(this, new Runnable() {
+			@Override
+			public void run() {
+				changeState(newState);
+			}
+		}, remaining + 1);
 		if (Config.debug)
-			System.out.println(getName() +".changeState() time since last switch "+(System.currentTimeMillis() - lastRelaySwitch));
+			System.out.println(getName() + ".deferState(" + newState + ") in " + (remaining + 1) + " ms" + (collapsed ? ", replaced pending state" : ""));
+		return true;
+	}
 
+	/**
+	 * Applies changed parameters. The period is transmitted only if it
+	 * changed, the speed is used by the next brightness change.
+	 * 
+	 * @param period
+	 *            PWM period in microseconds
+	 * @param speed
+	 *            velocity of brightness changes in steps per second
+	 * @param safeguard
+	 *            relay safeguard time in milliseconds
+	 */
+	public void configure(int period, int speed, int safeguard) {
+		this.speed = speed;
+		this.safeguard = safeguard;
+		if (period == this.period)
+			return;
 		try {
-			if ((System.currentTimeMillis() - lastRelaySwitch) > Config.relay_safeguard_time) {
-				if (newState == 1) {
-					/** Switching to dimmed */
-					relay.setState(false, true);
-				} else if (newState == 2) {
-					/** Switching to on */
-					relay.setState(true, true);
-				} else {
-					/** Switching to off */
-					relay.setState(false, false);
+			servo.setPeriod(this.servoNum, period);
+			servo.setPulseWidth(this.servoNum, 1, period);
+			this.period = period;
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Initializes the servo output with the channel parameters. Only the
+	 * settings which differ from the output read back are written, so an
+	 * output which is already configured keeps running undisturbed.
+	 * 
+	 * @param current
+	 *            configuration read from the Servo Brick, null if unknown
+	 * @param period
+	 *            PWM period in microseconds
+	 * @param speed
+	 *            velocity of brightness changes in steps per second
+	 * @param safeguard
+	 *            relay safeguard time in milliseconds
+	 * @return number of settings written
+	 */
+	public int setup(ServoOutput current, int period, int speed, int safeguard) {
+		this.period = period;
+		this.speed = speed;
+		this.safeguard = safeguard;
+		if (current == null) {
+			cache.invalidate();
+			return 0;
+		}
+		int written = 0;
+		try {
+			if (current.getPeriod() != period) {
+				servo.setPeriod(servoNum, period);
+				written++;
+			}
+			if (current.getMinPulseWidth() != 1 || current.getMaxPulseWidth() != period) {
+				servo.setPulseWidth(servoNum, 1, period);
+				written++;
+			}
+			short position = current.getPosition();
+			if (current.getMinDegree() != 0 || current.getMaxDegree() != Config.servo_PWM_resolution) {
+				servo.setDegree(servoNum, (short) 0, Config.servo_PWM_resolution);
+				written++;
+				/** The Servo Brick keeps the position value, rescale it to keep the duty cycle */
+				if (current.getMaxDegree() > current.getMinDegree()) {
+					position = (short) Math.max(0, Math.min(Config.servo_PWM_resolution, Math.round((position - current.getMinDegree())
+							* (double) Config.servo_PWM_resolution / (current.getMaxDegree() - current.getMinDegree()))));
+					servo.setPosition(servoNum, position);
+					written++;
 				}
-				state = newState;
-				lastRelaySwitch = System.currentTimeMillis();
 			}
+			if (current.getAcceleration() != 0xFFFF) {
+				servo.setAcceleration(servoNum, 0xFFFF);
+				written++;
+			}
+			if (current.getVelocity() != toVelocity(speed)) {
+				servo.setVelocity(servoNum, toVelocity(speed));
+				written++;
+			}
+			cache.setVelocity(toVelocity(speed));
+			if (!current.isEnabled()) {
+				servo.enable(servoNum);
+				written++;
+			}
+			cache.setPosition(position);
 		} catch (TimeoutException | NotConnectedException e) {
 			e.printStackTrace();
+			cache.invalidate();
 		}
+		return written;
+	}
+
+	/**
+	 * Restores the desired state after a reconnect. The settings are written
+	 * like by {@link #setup(ServoOutput, int, int, int)}, the position and
+	 * relay state only if the devices report another one. A state which was
+	 * never known is taken over from the devices.
+	 * 
+	 * @param current
+	 *            configuration read from the Servo Brick, null if unknown
+	 * @param relayState
+	 *            state of the DualRelay Bricklet, null if unknown
+	 * @return number of settings written
+	 */
+	public int restore(ServoOutput current, State relayState) {
+		if (current == null)
+			return 0;
+		/** The Servo Brick may have been restarted */
+		dimmingMode = -1;
+		boolean known = cache.isValid();
+		short desired = cache.getPosition();
+		int written = setup(current, period, speed, safeguard);
+		if (known && cache.isValid() && cache.getPosition() != desired) {
+			setServo(desired);
+			written++;
+		}
+		return written + restoreRelay(relayState);
+	}
+
+	/**
+	 * Repairs drift found by the {@link StateVerifier}. The position and relay
+	 * state read back are compared with the desired ones, which are written
+	 * again if they differ. A channel which changed since its state was taken
+	 * is skipped, as the read may predate the change, the position also while
+	 * the firmware fades. An unknown position is taken over.
+	 * 
+	 * @param w
+	 *            state of the channel taken before the read, see
+	 *            {@link ChannelState#get()}
+	 * @param position
+	 *            position read from the Servo Brick
+	 * @param relayState
+	 *            state of the DualRelay Bricklet, null if unknown
+	 * @return number of settings written
+	 */
+	public int verify(long w, short position, State relayState) {
+		if (cache.get() != w)
+			return 0;
+		if (!cache.isValid()) {
+			cache.setPosition(position);
+			return 0;
+		}
+		int repaired = 0;
+		if (position != ChannelState.positionOf(w) && System.nanoTime() - fadeEnd >= 0) {
+			setServo(ChannelState.positionOf(w));
+			repaired++;
+		}
+		return repaired + restoreRelay(relayState);
+	}
+
+	/**
+	 * Switches the DualRelay Bricklet to the desired state if it reports
+	 * another one.
+	 * 
+	 * @param current
+	 *            state of the Bricklet, null if unknown
+	 * @return number of settings written
+	 */
+	protected int restoreRelay(State current) {
+		if (current == null)
+			return 0;
+		if (!relayKnown) {
+			setRelayState(current);
+			return 0;
+		}
+		int state = cache.getState();
+		boolean relay1 = state == 2;
+		boolean relay2 = state != 0;
+		if (current.relay1 == relay1 && current.relay2 == relay2)
+			return 0;
+		try {
+			relay.setState(relay1, relay2);
+			cache.switched(System.currentTimeMillis());
+			return 1;
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the DualRelay Bricklet switching this LED, null if it is shared.
+	 * 
+	 * @return
+	 */
+	public BrickletDualRelay getRelay() {
+		return relay;
+	}
+
+	/**
+	 * Changes the scale of all positions and queues the requested position
+	 * with the new scale. A channel switched fully on bypasses the PWM, below
+	 * full scale it is stepped down to dimmed, at full scale its position
+	 * switches it fully on again.
+	 * 
+	 * @param scale
+	 *            POWER_SCALE_ONE for unscaled positions
+	 * @return milliseconds the servo needs to ramp to the new scale
+	 */
+	public long setPowerScale(int scale) {
+		if (scale == powerScale)
+			return 0;
+		int position = fullPosition();
+		long distance = position < 0 ? 0 : Math.abs((long) position * (scale - powerScale)) / POWER_SCALE_ONE;
+		powerScale = scale;
+		queue.submit(powerKey, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				int position = fullPosition();
+				if (position >= 0)
+					setPosition(position);
+			}
+		});
+		int velocity = cache.getVelocity();
+		if (velocity <= 0)
+			velocity = toVelocity(speed);
+		return distance * 1000 / velocity;
+	}
+
+	/**
+	 * Returns the requested position, full brightness for a channel switched
+	 * fully on before any position was requested.
+	 * 
+	 * @return -1 if none
+	 */
+	private int fullPosition() {
+		int position = requested;
+		if (position < 0 && cache.getState() == 2)
+			return Config.servo_PWM_resolution;
+		return position;
+	}
+
+	/**
+	 * Changes the curve mapping brightness and color values to positions. The
+	 * output is not touched, the curve is used by the next change.
+	 * 
+	 * @param curve
+	 */
+	public void setCurve(DimmingCurve curve) {
+		this.curve = curve;
+	}
+
+	/**
+	 * Returns the curve mapping brightness and color values to positions.
+	 * 
+	 * @return
+	 */
+	public DimmingCurve getCurve() {
+		return curve;
 	}
 
 	/**
@@ -172,22 +891,47 @@ public class ExternallyDimmedLED {
 	}
 
 	/**
-	 * Returns the duty cycle of the LED.
+	 * Updates the cached position from a PositionReached callback, detects 0 /
+	 * 100 % and switches the DualRelay Bricklet.
+	 *
+	 * @param position
+	 */
+	public void positionReached(short position) {
+		cache.positionReached(position);
+		if (position <= 0) {
+			changeState(0);
+		} else if (position == Config.servo_PWM_resolution) {
+			changeState(2);
+		}
+	}
+
+	/**
+	 * Reads the position back from the Servo Brick. Used on connect or on
+	 * demand, all other reads are served from the cache.
+	 */
+	public void resync() {
+		try {
+			cache.setPosition(servo.getPosition(servoNum));
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+			cache.invalidate();
+		}
+	}
+
+	/**
+	 * Returns the brightness of the LED between 0 and Config.servo_PWM_steps.
 	 * 
 	 * @return
-	 * @throws TimeoutException
 	 */
 	public int getDutyCycle() {
-		if (state == 2)
+		if (cache.getState() == 2)
 			return Config.servo_PWM_steps;
-		try {
-			return (int) servo.getPosition(servoNum);
-		} catch (TimeoutException | NotConnectedException e) {
-			e.printStackTrace();
+		if (!isCached()) {
 			if (Config.debug)
 				System.out.println(getName() +".getDutyCycle() returns 0");
 			return 0;
 		}
+		return curve.toBrightness(getCachedPosition());
 	}
 
 	/**
@@ -196,13 +940,35 @@ public class ExternallyDimmedLED {
 	 * @return
 	 */
 	public int getColor() {
-		int dc = getDutyCycle();
-		if (state == 2) {
+		if (cache.getState() == 2) {
 			if (Config.debug)
 				System.out.println(getName() +".getColor() State is 2, returning 255");
 			return 255;
 		}
-		return (int) Math.round((255.0 * dc) / ((double) Config.servo_PWM_steps));
+		if (!isCached())
+			return 0;
+		return curve.toColor(getCachedPosition());
+	}
+
+	/**
+	 * Returns true if the cached position is valid, reads it back once
+	 * otherwise.
+	 * 
+	 * @return
+	 */
+	private boolean isCached() {
+		if (!cache.isValid())
+			resync();
+		return cache.isValid();
+	}
+
+	/**
+	 * Returns the cached position limited to the position range.
+	 * 
+	 * @return
+	 */
+	private int getCachedPosition() {
+		return Math.max(0, Math.min(Config.servo_PWM_resolution, cache.getPosition()));
 	}
 
 	/**
@@ -211,6 +977,31 @@ public class ExternallyDimmedLED {
 	 * @param c
 	 */
 	public void setColor(int c) {
-		setBrightness((int) Math.round(c * Config.servo_PWM_steps / (double) 255.0));
+		setColor(c, null);
+	}
+
+	/**
+	 * Changes the brightness to a uint8 color value like
+	 * {@link #setColor(int)}, the position is collected by the batch if it
+	 * belongs to the Servo Brick of this LED.
+	 * 
+	 * @param c
+	 * @param batch
+	 *            null to write the position at once
+	 */
+	public void setColor(int c, ServoBatch batch) {
+		setPosition(curve.fromColor(c), batch);
+	}
+
+	/**
+	 * Converts a uint8 color value to a brightness between 0 and
+	 * Config.servo_PWM_steps. Both are perceived brightness, the position is
+	 * looked up by the {@link DimmingCurve}.
+	 * 
+	 * @param c
+	 * @return
+	 */
+	public static int toBrightness(int c) {
+		return (int) Math.round(c * Config.servo_PWM_steps / (double) 255.0);
 	}
 }
@@ -0,0 +1,331 @@
+package led;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FrameScheduler} plays {@link Effect}s at a fixed frame rate. Every
+ * frame the effects of all channels are evaluated into a short[] of
+ * positions. Only the channels whose position changed since the last frame
+ * are queued, each with the velocity which reaches the position within one
+ * frame, so the Servo Brick interpolates between the frames. Every channel
+ * has one {@link FrameCommand} which is posted again each frame, so a frame
+ * does not allocate.
+ *
+ * Frames which were not evaluated because the scheduler fell behind are
+ * counted as dropped. Frames which found the previous position of a channel
+ * still waiting in its {@link CommandQueue} are counted as late, the pending
+ * position is replaced then.
+ *
+ * @author Ingo Kauffmann
+ */
+public class FrameScheduler implements Runnable {
+
+	/**
+	 * Transmits the latest velocity and position of a channel
+	 */
+	private static class FrameCommand extends CommandQueue.Reusable {
+		private final ExternallyDimmedLED channel;
+		private int velocity;
+		private int position;
+
+		private FrameCommand(ExternallyDimmedLED channel) {
+			this.channel = channel;
+		}
+
+		private synchronized void set(int velocity, int position) {
+			this.velocity = velocity;
+			this.position = position;
+		}
+
+		@Override
+		public void execute() {
+			int v;
+			int p;
+			synchronized (this) {
+				v = velocity;
+				p = position;
+			}
+			channel.setVelocity(v);
+			channel.setPosition(p);
+		}
+	}
+
+	private final long periodNanos;
+	private final long periodMillis;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Periodic task, null while no effect is playing
+	 */
+	private ScheduledFuture<?> task;
+
+	/**
+	 * Slots of the playing channels, the first size entries are used
+	 */
+	private ExternallyDimmedLED[] channels = new ExternallyDimmedLED[8];
+	private Effect[] effects = new Effect[8];
+	private long[] started = new long[8];
+	private short[] frame = new short[8];
+	private short[] sent = new short[8];
+	private FrameCommand[] commands = new FrameCommand[8];
+	private int size;
+
+	/**
+	 * System.nanoTime() of frame 0 and number of the last evaluated frame
+	 */
+	private long origin;
+	private long lastFrame;
+
+	private volatile long frames;
+	private volatile long dropped;
+	private volatile long late;
+	private volatile long updates;
+	private volatile long suppressed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param frameRate
+	 *            frames per second
+	 */
+	public FrameScheduler(int frameRate) {
+		periodNanos = TimeUnit.SECONDS.toNanos(1) / frameRate;
+		periodMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(periodNanos));
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "FrameScheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Plays an effect on a channel, a playing effect of the channel is
+	 * replaced.
+	 *
+	 * @param channel
+	 * @param effect
+	 */
+	public synchronized void play(ExternallyDimmedLED channel, Effect effect) {
+		int slot = indexOf(channel);
+		if (slot < 0) {
+			if (size == channels.length) {
+				int capacity = size * 2;
+				channels = Arrays.copyOf(channels, capacity);
+				effects = Arrays.copyOf(effects, capacity);
+				started = Arrays.copyOf(started, capacity);
+				frame = Arrays.copyOf(frame, capacity);
+				sent = Arrays.copyOf(sent, capacity);
+				commands = Arrays.copyOf(commands, capacity);
+			}
+			slot = size++;
+			channels[slot] = channel;
+			sent[slot] = -1;
+			commands[slot] = new FrameCommand(channel);
+		}
+		effects[slot] = effect;
+		started[slot] = System.nanoTime();
+		if (task == null) {
+			origin = System.nanoTime();
+			lastFrame = -1;
+			task = scheduler.scheduleAtFixedRate(this, 0, periodNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops the effect of a channel, the channel keeps its last position.
+	 *
+	 * @param channels
+	 */
+	public synchronized void stop(ExternallyDimmedLED... channels) {
+		for (ExternallyDimmedLED channel : channels) {
+			int slot = indexOf(channel);
+			if (slot >= 0)
+				remove(slot);
+		}
+	}
+
+	/**
+	 * Stops all effects.
+	 */
+	public synchronized void stopAll() {
+		while (size > 0) {
+			remove(size - 1);
+		}
+	}
+
+	/**
+	 * Returns true if an effect is playing on the channel.
+	 *
+	 * @param channel
+	 * @return
+	 */
+	public synchronized boolean isPlaying(ExternallyDimmedLED channel) {
+		return indexOf(channel) >= 0;
+	}
+
+	private int indexOf(ExternallyDimmedLED channel) {
+		for (int i = 0; i < size; i++) {
+			if (channels[i] == channel)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes a slot by moving the last slot into it.
+	 *
+	 * @param slot
+	 */
+	private void remove(int slot) {
+		int last = --size;
+		channels[slot] = channels[last];
+		effects[slot] = effects[last];
+		started[slot] = started[last];
+		frame[slot] = frame[last];
+		sent[slot] = sent[last];
+		commands[slot] = commands[last];
+		channels[last] = null;
+		effects[last] = null;
+		commands[last] = null;
+	}
+
+	/**
+	 * Evaluates and transmits one frame.
+	 */
+	@Override
+	public synchronized void run() {
+		long now = System.nanoTime();
+		long index = (now - origin) / periodNanos;
+		/** Runs catching up with the fixed rate are collapsed into one frame */
+		if (index <= lastFrame)
+			return;
+		if (lastFrame >= 0 && index > lastFrame + 1)
+			dropped += index - lastFrame - 1;
+		lastFrame = index;
+		frames++;
+
+		for (int i = 0; i < size; i++) {
+			double level = Math.max(0, Math.min(1, effects[i].level(now - started[i])));
+			int position = channels[i].curve.fromColor16((int) Math.round(level * 0xFFFF));
+			/**
+			 * Full brightness and 0 switch the relay, the next frame would
+			 * switch it back and wait for the safeguard time. Only the last
+			 * frame of an effect may switch.
+			 */
+			if (!effects[i].isDone(now - started[i]))
+				position = Math.max(1, Math.min(Config.servo_PWM_resolution - 1, position));
+			frame[i] = (short) position;
+		}
+
+		boolean isLate = false;
+		for (int i = size - 1; i >= 0; i--) {
+			if (frame[i] == sent[i]) {
+				suppressed++;
+			} else {
+				if (send(channels[i], commands[i], frame[i]))
+					isLate = true;
+				sent[i] = frame[i];
+				updates++;
+			}
+			if (effects[i].isDone(now - started[i]))
+				remove(i);
+		}
+		if (isLate)
+			late++;
+
+		if (size == 0 && task != null) {
+			task.cancel(false);
+			task = null;
+		}
+	}
+
+	/**
+	 * Queues a position with the velocity which reaches it within one frame.
+	 *
+	 * @param channel
+	 * @param command
+	 *            frame command of the channel
+	 * @param position
+	 * @return true if the previous position was still waiting
+	 */
+	private boolean send(ExternallyDimmedLED channel, FrameCommand command, int position) {
+		command.set(ExternallyDimmedLED.velocityFor(Math.abs(position - channel.cache.getPosition()), periodMillis), position);
+		return channel.queue.post(channel, command);
+	}
+
+	/**
+	 * Returns the number of evaluated frames.
+	 *
+	 * @return
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frames skipped because the scheduler fell behind.
+	 *
+	 * @return
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Returns the number of frames which replaced a position still waiting
+	 * for transmission.
+	 *
+	 * @return
+	 */
+	public long getLate() {
+		return late;
+	}
+
+	/**
+	 * Returns the number of queued channel positions.
+	 *
+	 * @return
+	 */
+	public long getUpdates() {
+		return updates;
+	}
+
+	/**
+	 * Returns the number of channel positions not queued because they did not
+	 * change.
+	 *
+	 * @return
+	 */
+	public long getSuppressed() {
+		return suppressed;
+	}
+
+	/**
+	 * Returns the number of channels playing an effect.
+	 *
+	 * @return
+	 */
+	public synchronized int getPlaying() {
+		return size;
+	}
+
+	/**
+	 * Stops the scheduler thread, playing effects are dropped.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "FrameScheduler [frames=" + frames + ", dropped=" + dropped + ", late=" + late + ", updates=" + updates + ", suppressed=" + suppressed + "]";
+	}
+}
@@ -0,0 +1,89 @@
+package led;
+
+import com.tinkerforge.BrickletDualRelay;
+import com.tinkerforge.IPConnection;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link InstrumentedDualRelay} is a {@link BrickletDualRelay} which records the
+ * latency of every call in its {@link DeviceMetrics} and counts timeouts and
+ * calls without connection.
+ *
+ * @author Ingo Kauffmann
+ */
+public class InstrumentedDualRelay extends BrickletDualRelay {
+
+	private final DeviceMetrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param uid
+	 * @param ipcon
+	 */
+	public InstrumentedDualRelay(String uid, IPConnection ipcon) {
+		super(uid, ipcon);
+		metrics = DeviceMetrics.forDevice(uid);
+		metrics.name(FUNCTION_SET_STATE, "setState");
+		metrics.name(FUNCTION_GET_STATE, "getState");
+		metrics.name(FUNCTION_SET_SELECTED_STATE, "setSelectedState");
+	}
+
+	/**
+	 * Returns the metrics of this device.
+	 *
+	 * @return
+	 */
+	public DeviceMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void setState(boolean relay1, boolean relay2) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setState(relay1, relay2);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_STATE, start);
+		}
+	}
+
+	@Override
+	public State getState() throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getState();
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_STATE, start);
+		}
+	}
+
+	@Override
+	public void setSelectedState(short relay, boolean state) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setSelectedState(relay, state);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_SELECTED_STATE, start);
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package led;
+
+import com.tinkerforge.BrickServoLED;
+import com.tinkerforge.IPConnection;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link InstrumentedServo} is a {@link BrickServoLED} which records the latency of
+ * every call used by the LED channels in its {@link DeviceMetrics} and counts
+ * timeouts and calls without connection.
+ *
+ * @author Ingo Kauffmann
+ */
+public class InstrumentedServo extends BrickServoLED {
+
+	private final DeviceMetrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param uid
+	 * @param ipcon
+	 */
+	public InstrumentedServo(String uid, IPConnection ipcon) {
+		super(uid, ipcon);
+		metrics = DeviceMetrics.forDevice(uid);
+		metrics.name(FUNCTION_ENABLE, "enable");
+		metrics.name(FUNCTION_IS_ENABLED, "isEnabled");
+		metrics.name(FUNCTION_SET_POSITION, "setPosition");
+		metrics.name(FUNCTION_GET_POSITION, "getPosition");
+		metrics.name(FUNCTION_GET_CURRENT_POSITION, "getCurrentPosition");
+		metrics.name(FUNCTION_SET_VELOCITY, "setVelocity");
+		metrics.name(FUNCTION_GET_VELOCITY, "getVelocity");
+		metrics.name(FUNCTION_SET_ACCELERATION, "setAcceleration");
+		metrics.name(FUNCTION_GET_ACCELERATION, "getAcceleration");
+		metrics.name(FUNCTION_SET_PULSE_WIDTH, "setPulseWidth");
+		metrics.name(FUNCTION_GET_PULSE_WIDTH, "getPulseWidth");
+		metrics.name(FUNCTION_SET_DEGREE, "setDegree");
+		metrics.name(FUNCTION_GET_DEGREE, "getDegree");
+		metrics.name(FUNCTION_SET_PERIOD, "setPeriod");
+		metrics.name(FUNCTION_GET_PERIOD, "getPeriod");
+		metrics.name(FUNCTION_GET_SERVO_CURRENT, "getServoCurrent");
+		metrics.name(FUNCTION_GET_OVERALL_CURRENT, "getOverallCurrent");
+		metrics.name(FUNCTION_ENABLE_POSITION_REACHED_CALLBACK, "enablePositionReachedCallback");
+		metrics.name(FUNCTION_SET_POSITIONS, "setPositions");
+		metrics.name(FUNCTION_SET_DIMMING_MODE, "setDimmingMode");
+		metrics.name(FUNCTION_GET_DIMMING_MODE, "getDimmingMode");
+		metrics.name(FUNCTION_FADE, "fade");
+	}
+
+	/**
+	 * Returns the metrics of this device.
+	 *
+	 * @return
+	 */
+	public DeviceMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void enable(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.enable(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_ENABLE, start);
+		}
+	}
+
+	@Override
+	public boolean isEnabled(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.isEnabled(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_IS_ENABLED, start);
+		}
+	}
+
+	@Override
+	public void setPosition(short servoNum, short position) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setPosition(servoNum, position);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_POSITION, start);
+		}
+	}
+
+	@Override
+	public short getPosition(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getPosition(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_POSITION, start);
+		}
+	}
+
+	@Override
+	public short getCurrentPosition(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getCurrentPosition(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_CURRENT_POSITION, start);
+		}
+	}
+
+	@Override
+	public void setVelocity(short servoNum, int velocity) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setVelocity(servoNum, velocity);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_VELOCITY, start);
+		}
+	}
+
+	@Override
+	public int getVelocity(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getVelocity(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_VELOCITY, start);
+		}
+	}
+
+	@Override
+	public void setAcceleration(short servoNum, int acceleration) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setAcceleration(servoNum, acceleration);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_ACCELERATION, start);
+		}
+	}
+
+	@Override
+	public int getAcceleration(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getAcceleration(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_ACCELERATION, start);
+		}
+	}
+
+	@Override
+	public void setPulseWidth(short servoNum, int min, int max) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setPulseWidth(servoNum, min, max);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_PULSE_WIDTH, start);
+		}
+	}
+
+	@Override
+	public PulseWidth getPulseWidth(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getPulseWidth(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_PULSE_WIDTH, start);
+		}
+	}
+
+	@Override
+	public void setDegree(short servoNum, short min, short max) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setDegree(servoNum, min, max);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_DEGREE, start);
+		}
+	}
+
+	@Override
+	public Degree getDegree(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getDegree(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_DEGREE, start);
+		}
+	}
+
+	@Override
+	public void setPeriod(short servoNum, int period) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setPeriod(servoNum, period);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_PERIOD, start);
+		}
+	}
+
+	@Override
+	public int getPeriod(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getPeriod(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_PERIOD, start);
+		}
+	}
+
+	@Override
+	public int getServoCurrent(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getServoCurrent(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_SERVO_CURRENT, start);
+		}
+	}
+
+	@Override
+	public int getOverallCurrent() throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getOverallCurrent();
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_OVERALL_CURRENT, start);
+		}
+	}
+
+	@Override
+	public void enablePositionReachedCallback() throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.enablePositionReachedCallback();
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_ENABLE_POSITION_REACHED_CALLBACK, start);
+		}
+	}
+
+	@Override
+	public void setPositions(short servoMask, int[] velocity, short[] position) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setPositions(servoMask, velocity, position);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_POSITIONS, start);
+		}
+	}
+
+	@Override
+	public void setDimmingMode(short servoNum, short easing, short curve) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.setDimmingMode(servoNum, easing, curve);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_SET_DIMMING_MODE, start);
+		}
+	}
+
+	@Override
+	public DimmingMode getDimmingMode(short servoNum) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			return super.getDimmingMode(servoNum);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_GET_DIMMING_MODE, start);
+		}
+	}
+
+	@Override
+	public void fade(short servoNum, short position, long duration) throws TimeoutException, NotConnectedException {
+		long start = System.nanoTime();
+		try {
+			super.fade(servoNum, position, duration);
+		} catch (TimeoutException e) {
+			metrics.timeout();
+			throw e;
+		} catch (NotConnectedException e) {
+			metrics.notConnected();
+			throw e;
+		} finally {
+			metrics.record(FUNCTION_FADE, start);
+		}
+	}
+}
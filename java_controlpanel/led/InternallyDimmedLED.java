@@ -1,7 +1,6 @@
 package led;
 
 import com.tinkerforge.BrickServo;
-import com.tinkerforge.BrickletDualRelay;
 import com.tinkerforge.BrickletDualRelay.State;
 import com.tinkerforge.IPConnection;
 import com.tinkerforge.NotConnectedException;
@@ -26,110 +25,153 @@ public class InternallyDimmedLED extends ExternallyDimmedLED {
 
 	private boolean relay1_GND;
 
-	private BrickletDualRelay relay;
+	private DualRelayState relay;
 
 	/**
-	 * 0 = off 1 = dimmed 2 = on
+	 * Position of the wall switch, the firmware dims the LED down and switches
+	 * it off while the switch is open
 	 */
-	protected int state;
+	private volatile boolean switchedOn = true;
 
 	/**
-	 * Constructor
+	 * Constructor, reads the servo output and writes the settings which differ.
 	 * 
 	 * @param name
-	 * @param brickletlow
-	 * @param brickletLow
+	 * @param relayLow
+	 *            state of the DualRelay Bricklet shared with the other
+	 *            internally dimmed LED
 	 * @param relay1_GND
 	 * @param servo
 	 * @param servoNum
 	 * @param ipcon
-	 * @throws TimeoutException
+	 * @param queue
+	 * @param relays
 	 */
-	public InternallyDimmedLED(String name, BrickletDualRelay brickletLow, boolean relay1_GND, BrickServo servo, int servoNum, IPConnection ipcon) {
-		super(name, servo, servoNum);
-		this.relay1_GND = relay1_GND;
-		this.relay = brickletLow;
-
-		lastRelaySwitch = System.currentTimeMillis();
+	public InternallyDimmedLED(String name, DualRelayState relayLow, boolean relay1_GND, BrickServo servo, int servoNum, IPConnection ipcon, CommandQueue queue, RelayScheduler relays) {
+		this(name, relayLow, relay1_GND, servo, servoNum, queue, relays);
+		ServoOutput current = null;
 		try {
-			State highState = relay.getState();
-
-			if (relay1_GND) {
-				if (highState.relay1) {
-					/** Relay 1 on = B => GND */
-					state = 2;
-				} else {
-					/** Relay 1 off = B => DIMMED */
-					state = 1;
-				}
-			} else {
-				if (highState.relay2) {
-					/** Relay 2 on = B => GND */
-					state = 2;
-				} else {
-					/** Relay 2 off = B => DIMMED */
-					state = 1;
-				}
-			}
-
-			servo.setPeriod(this.servoNum, Config.servo_PWM_period);
-			servo.setPulseWidth(this.servoNum, 1, Config.servo_PWM_period);
-			servo.setDegree(this.servoNum, (short) 0, (short) Config.servo_PWM_steps);
-			servo.setAcceleration(this.servoNum, 0xFFFF);
-			servo.setVelocity(this.servoNum, Config.servo_PWM_speed);
-			servo.enable(this.servoNum);
+			current = ServoOutput.read(servo, this.servoNum);
 		} catch (TimeoutException | NotConnectedException e) {
 			e.printStackTrace();
 		}
+		setup(current, period, speed, safeguard);
 	}
 
 	/**
-	 * Switches the DualRelay Bricklet and changes the internal state.
+	 * Constructor, the servo output is not touched until
+	 * {@link #setup(ServoOutput, int, int, int)}.
 	 * 
-	 * @param newState
+	 * @param name
+	 * @param relayLow
+	 *            state of the DualRelay Bricklet shared with the other
+	 *            internally dimmed LED
+	 * @param relay1_GND
+	 * @param servo
+	 * @param servoNum
+	 * @param queue
+	 * @param relays
+	 */
+	public InternallyDimmedLED(String name, DualRelayState relayLow, boolean relay1_GND, BrickServo servo, int servoNum, CommandQueue queue, RelayScheduler relays) {
+		super(name, servo, servoNum, queue, relays);
+		this.relay1_GND = relay1_GND;
+		this.relay = relayLow;
+
+		/** Relay on = B => GND, off = B => DIMMED */
+		cache.initState(relay.get(getRelayNum()) ? 2 : 1, System.currentTimeMillis());
+	}
+
+	/**
+	 * The modified firmware reports the actual ramp position of servo 3 and 4
+	 * in the callback, while getPosition returns the stored dim set point.
+	 * Only the set point is cached, hence the callback is ignored.
 	 */
 	@Override
-	public void changeState(int newState) {
-		if (newState == state)
-			return;
+	public void positionReached(short position) {
+	}
+
+	/**
+	 * The shared DualRelay Bricklet is restored by the {@link LEDStack}.
+	 */
+	@Override
+	protected int restoreRelay(State current) {
+		return 0;
+	}
 
+	/**
+	 * Changes the wall switch position, called by the {@link WallSwitch}.
+	 * 
+	 * @param on
+	 */
+	public void setSwitchedOn(boolean on) {
+		switchedOn = on;
+	}
+
+	/**
+	 * Returns true if the wall switch is closed or unknown.
+	 * 
+	 * @return
+	 */
+	public boolean isSwitchedOn() {
+		return switchedOn;
+	}
+
+	/**
+	 * Returns the relay of the shared DualRelay Bricklet switching this LED.
+	 * 
+	 * @return
+	 */
+	private int getRelayNum() {
+		return relay1_GND ? 1 : 2;
+	}
+
+	/**
+	 * The relay only selects between dimmed and on, off is done by the
+	 * firmware. Hence the channel is only switched between dimmed and on.
+	 */
+	@Override
+	protected void moveTo(int position, ServoBatch batch) {
+		if (position >= Config.servo_PWM_resolution) {
+			changeState(2);
+			setServo(Config.servo_PWM_resolution, batch);
+		} else {
+			changeState(1);
+			setServo(Math.max(0, position), batch);
+		}
+	}
+
+	/**
+	 * Switches the relay to dimmed, the firmware fades the dim set point.
+	 * Full brightness is switched by the relay and left to the linear ramp.
+	 *
+	 * @param position
+	 * @return
+	 */
+	@Override
+	protected boolean prepareFade(int position) {
+		if (position >= Config.servo_PWM_resolution)
+			return false;
+		changeState(1);
+		return true;
+	}
+
+	/**
+	 * Switches the shared DualRelay Bricklet.
+	 * 
+	 * @param newState
+	 */
+	@Override
+	protected void writeRelay(int newState) {
 		try {
-			State high = relay.getState();
 			if (Config.debug) {
-				System.out.println(getName() + ".changeState() " + relay1_GND + " " + newState + " " + high.toString());
-			}
-			if ((System.currentTimeMillis() - lastRelaySwitch) > Config.relay_safeguard_time) {
-				if (relay1_GND) {
-					if (newState == 1) {
-						/** Switching to dimmed */
-						relay.setState(false, high.relay2);
-					} else if (newState == 2) {
-						/** Switching to on */
-						relay.setState(true, high.relay2);
-					} else {
-						/** Switching to off */
-						relay.setState(false, high.relay2);
-					}
-				} else {
-					if (newState == 1) {
-						/** Switching to dimmed */
-						relay.setState(high.relay1, false);
-					} else if (newState == 2) {
-						/** Switching to on */
-						relay.setState(high.relay1, true);
-					} else {
-						/** Switching to off */
-						relay.setState(high.relay1, false);
-					}
-				}
+				System.out.println(getName() + ".changeState() " + relay1_GND + " " + newState + " " + relay.toString());
 			}
-			lastRelaySwitch = System.currentTimeMillis();
+			/** Relay on = GND, off = DIMMED (or OFF by the Servo Brick firmware) */
+			relay.set(getRelayNum(), newState == 2);
 
 			if (Config.debug) {
-				high = relay.getState();
-				System.out.println(getName() + ".changeState() " + relay1_GND + " " + newState + " " + high.toString());
+				System.out.println(getName() + ".changeState() " + relay1_GND + " " + newState + " " + relay.toString());
 			}
-			state = newState;
 		} catch (TimeoutException | NotConnectedException e) {
 			e.printStackTrace();
 		}
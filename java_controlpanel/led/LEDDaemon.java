@@ -0,0 +1,393 @@
+package led;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Headless control service. {@link LEDDaemon} owns the {@link ChannelRegistry}
+ * and serves a small HTTP/JSON API:
+ *
+ * <pre>
+ * GET  /channels          all channels
+ * GET  /channels/{name}   one channel
+ * PUT  /channels/{name}   {"brightness": 0..100} or {"color": 0..255}, optional "duration" in ms
+ * PUT  /color             {"r": 0..255, "g": 0..255, "b": 0..255}
+ * POST /scene             {"duration": ms, "delay": ms, "easing": 0..6, "{name}": brightness, ...}
+ * PUT  /effects/{name}    breathe {"period": ms, "min": 0..100, "max": 0..100}
+ * PUT  /cycle             cycle the color chooser channels through the hues {"period": ms}
+ * DELETE /effects[/{name}] stop the effects, the channels keep their brightness
+ * GET  /status            connection, queue and repair statistics per stack
+ * GET  /frames            frame statistics of the effects
+ * GET  /telemetry         LED current, stack voltage, power budget and the minute history of the current
+ * </pre>
+ *
+ * Easing 0 is the linear ramp of the firmware, 1 to 6 are linear, ease-in,
+ * ease-out, ease-in-out, sine and exponential. Linear, ease-in-out and
+ * exponential are faded by the firmware of a Servo Brick supporting it, the
+ * others are played frame by frame. A write to a channel stops its effect.
+ *
+ * Reads are served from the cached channel state, a channel whose position is
+ * not known yet reports null until the next read back. Writes go through the
+ * {@link CommandQueue} of each stack, which keeps only the latest command per
+ * channel, so concurrent clients do not multiply the traffic to brickd.
+ *
+ * @author Ingo Kauffmann
+ */
+public class LEDDaemon implements HttpHandler {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Flat JSON members with an integer value
+	 */
+	private static final Pattern MEMBER = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*(-?\\d+)");
+
+	/**
+	 * Launches the daemon on Config.http_port
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		final ChannelRegistry registry = ChannelRegistry.fromConfig();
+		final LEDDaemon daemon = new LEDDaemon(registry, Config.http_port);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				daemon.stop();
+				registry.shutdown();
+			}
+		}, "LEDDaemon shutdown"));
+		daemon.start();
+		System.out.println("LEDDaemon listening on port " + Config.http_port + " after " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+	}
+
+	private final ChannelRegistry registry;
+	private final RgbGroup rgb;
+	private final FrameScheduler frames = new FrameScheduler(Config.frame_rate);
+	private final SceneEngine scenes = new SceneEngine(frames);
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Constructor
+	 *
+	 * @param registry
+	 * @param port
+	 * @throws IOException
+	 */
+	public LEDDaemon(ChannelRegistry registry, int port) throws IOException {
+		this.registry = registry;
+		this.rgb = registry.createGroup(registry.getConfig().getRgbGroup());
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", this);
+		server.setExecutor(executor);
+	}
+
+	/**
+	 * Starts serving requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops serving requests, the {@link SceneEngine} and the
+	 * {@link FrameScheduler}.
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+		scenes.shutdown();
+		frames.shutdown();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			URI uri = exchange.getRequestURI();
+			String[] path = uri.getPath().replaceAll("^/+|/+$", "").split("/");
+			boolean read = "GET".equals(method);
+			boolean write = "PUT".equals(method) || "POST".equals(method);
+			boolean delete = "DELETE".equals(method);
+
+			if (path[0].equals("channels") && path.length == 1 && read) {
+				StringBuilder json = new StringBuilder("[");
+				for (ExternallyDimmedLED channel : registry.getChannels()) {
+					if (json.length() > 1)
+						json.append(',');
+					appendChannel(json, channel);
+				}
+				respond(exchange, 200, json.append(']').toString());
+			} else if (path[0].equals("channels") && path.length == 2) {
+				ExternallyDimmedLED channel = registry.getChannel(path[1]);
+				if (channel == null) {
+					respond(exchange, 404, error("unknown channel " + path[1]));
+				} else if (read) {
+					respond(exchange, 200, appendChannel(new StringBuilder(), channel).toString());
+				} else if (write) {
+					setChannel(exchange, channel, parse(exchange));
+				} else {
+					respond(exchange, 405, error("method not allowed"));
+				}
+			} else if (path[0].equals("color") && path.length == 1 && write) {
+				Map<String, Integer> body = parse(exchange);
+				if (!body.containsKey("r") || !body.containsKey("g") || !body.containsKey("b")) {
+					respond(exchange, 400, error("expected r, g and b"));
+				} else {
+					frames.stop(rgb.getChannels());
+					rgb.submitColor(color(body.get("r")), color(body.get("g")), color(body.get("b")));
+					respond(exchange, 202, "{\"queued\":true}");
+				}
+			} else if (path[0].equals("scene") && path.length == 1 && write) {
+				playScene(exchange, parse(exchange));
+			} else if (path[0].equals("effects") && path.length == 1 && delete) {
+				frames.stopAll();
+				respond(exchange, 200, "{\"stopped\":true}");
+			} else if (path[0].equals("effects") && path.length == 2 && (write || delete)) {
+				ExternallyDimmedLED channel = registry.getChannel(path[1]);
+				if (channel == null) {
+					respond(exchange, 404, error("unknown channel " + path[1]));
+				} else if (delete) {
+					frames.stop(channel);
+					respond(exchange, 200, "{\"stopped\":true}");
+				} else {
+					breathe(exchange, channel, parse(exchange));
+				}
+			} else if (path[0].equals("cycle") && path.length == 1 && write) {
+				cycle(exchange, parse(exchange));
+			} else if (path[0].equals("status") && path.length == 1 && read) {
+				respond(exchange, 200, status());
+			} else if (path[0].equals("telemetry") && path.length == 1 && read) {
+				Telemetry telemetry = registry.getTelemetry();
+				if (telemetry == null)
+					respond(exchange, 404, error("no telemetry"));
+				else
+					respond(exchange, 200, telemetry(telemetry));
+			} else if (path[0].equals("frames") && path.length == 1 && read) {
+				respond(exchange, 200, "{\"playing\":" + frames.getPlaying() + ",\"frames\":" + frames.getFrames() + ",\"dropped\":" + frames.getDropped()
+						+ ",\"late\":" + frames.getLate() + ",\"updates\":" + frames.getUpdates() + ",\"suppressed\":" + frames.getSuppressed() + "}");
+			} else {
+				respond(exchange, 404, error("not found"));
+			}
+		} catch (IllegalArgumentException e) {
+			respond(exchange, 400, error(e.getMessage()));
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			respond(exchange, 500, error(String.valueOf(e)));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void setChannel(HttpExchange exchange, ExternallyDimmedLED channel, Map<String, Integer> body) throws IOException {
+		Integer brightness = body.get("brightness");
+		Integer c = body.get("color");
+		if (brightness != null) {
+			if (brightness < 0 || brightness > Config.servo_PWM_steps)
+				throw new IllegalArgumentException("brightness must be between 0 and " + Config.servo_PWM_steps);
+		} else if (c != null) {
+			color(c);
+		} else {
+			throw new IllegalArgumentException("expected brightness or color");
+		}
+
+		frames.stop(channel);
+		if (body.containsKey("duration")) {
+			/** Fades run on the brightness scale */
+			channel.submitFade(brightness != null ? brightness : ExternallyDimmedLED.toBrightness(c), body.get("duration"));
+		} else if (brightness != null) {
+			channel.submitBrightness(brightness);
+		} else {
+			/** The color keeps its finer resolution on the dimming curve */
+			channel.submitColor(c);
+		}
+		respond(exchange, 202, "{\"queued\":true}");
+	}
+
+	private void playScene(HttpExchange exchange, Map<String, Integer> body) throws IOException {
+		Integer duration = body.remove("duration");
+		Integer delay = body.remove("delay");
+		Integer easing = body.remove("easing");
+		if (easing != null && (easing < 0 || easing > Easing.STANDARD.length))
+			throw new IllegalArgumentException("easing must be between 0 and " + Easing.STANDARD.length);
+		Scene scene = new Scene(duration != null ? duration : 0, easing == null || easing == 0 ? null : Easing.STANDARD[easing - 1]);
+		for (Map.Entry<String, Integer> target : body.entrySet()) {
+			ExternallyDimmedLED channel = registry.getChannel(target.getKey());
+			if (channel == null) {
+				respond(exchange, 404, error("unknown channel " + target.getKey()));
+				return;
+			}
+			scene.add(channel, Math.max(0, Math.min(Config.servo_PWM_steps, target.getValue())));
+		}
+		scenes.play(scene, delay != null ? delay : 0);
+		respond(exchange, 202, "{\"queued\":true}");
+	}
+
+	private void breathe(HttpExchange exchange, ExternallyDimmedLED channel, Map<String, Integer> body) throws IOException {
+		int min = body.containsKey("min") ? body.get("min") : 0;
+		int max = body.containsKey("max") ? body.get("max") : Config.servo_PWM_steps;
+		if (min < 0 || max > Config.servo_PWM_steps || min > max)
+			throw new IllegalArgumentException("expected 0 <= min <= max <= " + Config.servo_PWM_steps);
+		frames.play(channel, Effects.breathe(min / (double) Config.servo_PWM_steps, max / (double) Config.servo_PWM_steps, period(body)));
+		respond(exchange, 202, "{\"queued\":true}");
+	}
+
+	private void cycle(HttpExchange exchange, Map<String, Integer> body) throws IOException {
+		int period = period(body);
+		ExternallyDimmedLED[] channels = rgb.getChannels();
+		for (int i = 0; i < channels.length; i++) {
+			/** Red, green and blue are a third of the cycle apart */
+			frames.play(channels[i], Effects.cycle(period, (channels.length - i) % channels.length / (double) channels.length));
+		}
+		respond(exchange, 202, "{\"queued\":true}");
+	}
+
+	private static int period(Map<String, Integer> body) {
+		Integer period = body.get("period");
+		if (period == null || period <= 0)
+			throw new IllegalArgumentException("expected period > 0");
+		return period;
+	}
+
+	private String status() {
+		StringBuilder json = new StringBuilder("[");
+		for (LEDStack stack : registry.getStacks()) {
+			if (json.length() > 1)
+				json.append(',');
+			json.append("{\"stack\":");
+			appendString(json, stack.getName());
+			json.append(",\"connected\":").append(stack.isConnected()).append(",\"disconnects\":").append(stack.getSupervisor().getDisconnects());
+			json.append(",\"queued\":").append(stack.getQueue().size()).append(",\"dropped\":").append(stack.getQueue().getDropped())
+					.append(",\"relaysPending\":").append(stack.getRelays().getQueueDepth());
+			if (stack.getVerifier() != null)
+				json.append(",\"repairs\":").append(stack.getVerifier().getRepairs());
+			json.append('}');
+		}
+		return json.append(']').toString();
+	}
+
+	private static String telemetry(Telemetry telemetry) {
+		SampleHistory current = telemetry.getCurrent();
+		StringBuilder json = new StringBuilder("{\"current\":").append(current.getLast()).append(",\"servoCurrent\":")
+				.append(telemetry.getServoCurrent().getLast()).append(",\"stackVoltage\":").append(telemetry.getStackVoltage().getLast())
+				.append(",\"underVoltages\":").append(telemetry.getUnderVoltages());
+		PowerBudget budget = telemetry.getBudget();
+		if (budget != null)
+			json.append(",\"limit\":").append(budget.getLimit()).append(",\"scale\":").append(budget.getScale()).append(",\"adjustments\":")
+					.append(budget.getAdjustments()).append(",\"exceeded\":").append(budget.getExceeded());
+		int capacity = current.getCount(1);
+		long[] times = new long[capacity];
+		int[] means = new int[capacity];
+		int[] maxima = new int[capacity];
+		int n = current.copy(1, times, means, maxima);
+		json.append(",\"history\":[");
+		for (int i = 0; i < n; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"time\":").append(times[i]).append(",\"mean\":").append(means[i]).append(",\"max\":").append(maxima[i]).append('}');
+		}
+		return json.append("]}").toString();
+	}
+
+	private static int color(int c) {
+		if (c < 0 || c > 255)
+			throw new IllegalArgumentException("color must be between 0 and 255");
+		return c;
+	}
+
+	/**
+	 * Appends a channel from one snapshot of its cached state. Unlike
+	 * {@link ExternallyDimmedLED#getDutyCycle()} it never reads the position
+	 * back, so a request does not wait for the Servo Brick.
+	 */
+	private static StringBuilder appendChannel(StringBuilder json, ExternallyDimmedLED channel) {
+		long w = channel.cache.get();
+		json.append("{\"name\":");
+		appendString(json, channel.getName());
+		if (ChannelState.stateOf(w) == 2) {
+			json.append(",\"brightness\":").append(Config.servo_PWM_steps).append(",\"color\":255");
+		} else if (ChannelState.validOf(w)) {
+			DimmingCurve curve = channel.getCurve();
+			int position = Math.max(0, Math.min(Config.servo_PWM_resolution, ChannelState.positionOf(w)));
+			json.append(",\"brightness\":").append(curve.toBrightness(position)).append(",\"color\":").append(curve.toColor(position));
+		} else {
+			json.append(",\"brightness\":null,\"color\":null");
+		}
+		if (channel instanceof InternallyDimmedLED)
+			json.append(",\"switchedOn\":").append(((InternallyDimmedLED) channel).isSwitchedOn());
+		return json.append('}');
+	}
+
+	private static void appendString(StringBuilder json, String s) {
+		json.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				json.append('\\').append(c);
+			else if (c < 0x20)
+				json.append(String.format("\\u%04x", (int) c));
+			else
+				json.append(c);
+		}
+		json.append('"');
+	}
+
+	private static String error(String message) {
+		StringBuilder json = new StringBuilder("{\"error\":");
+		appendString(json, message);
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Parses a flat JSON object with integer members.
+	 */
+	private static Map<String, Integer> parse(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buffer = new byte[512];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			if (bytes.size() + n > 4096)
+				throw new IllegalArgumentException("request too large");
+			bytes.write(buffer, 0, n);
+		}
+
+		Map<String, Integer> members = new LinkedHashMap<String, Integer>();
+		Matcher m = MEMBER.matcher(new String(bytes.toByteArray(), UTF8));
+		while (m.find()) {
+			try {
+				members.put(m.group(1).replaceAll("\\\\(.)", "$1"), Integer.valueOf(m.group(2)));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid number " + m.group(2));
+			}
+		}
+		return members;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+}
@@ -0,0 +1,710 @@
+package led;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.tinkerforge.AlreadyConnectedException;
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickServoLED;
+import com.tinkerforge.BrickletDualRelay;
+import com.tinkerforge.BrickletDualRelay.State;
+import com.tinkerforge.BrickletCurrent25;
+import com.tinkerforge.BrickletIO4;
+import com.tinkerforge.IPConnection;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link LEDStack} owns the connection to one stack and the LED channels of
+ * its Servo Bricks. Every stack has its own {@link IPConnection},
+ * {@link CommandQueue} and {@link RelayScheduler}, so several stacks are
+ * driven in parallel.
+ *
+ * @author Ingo Kauffmann
+ */
+public class LEDStack {
+
+	private final String host;
+	private final int port;
+
+	/**
+	 * Connection to brick daemon/ethernet bricklet
+	 */
+	private final IPConnection ipcon;
+
+	/**
+	 * Transmits the commands to the Servo Bricks and their DualRelayBricklets
+	 */
+	private final CommandQueue queue;
+
+	/**
+	 * Executes the relay transitions deferred by the safeguard time
+	 */
+	private final RelayScheduler relays;
+
+	/**
+	 * Servo Bricks for PWM generation for LowSideSwitches by UID
+	 */
+	private final Map<String, BrickServo> servos = new LinkedHashMap<String, BrickServo>();
+
+	/**
+	 * Listeners that route the PositionReached callbacks of each Servo Brick
+	 */
+	private final Map<String, PositionReachedDispatcher> dispatchers = new LinkedHashMap<String, PositionReachedDispatcher>();
+
+	/**
+	 * DualRelay Bricklets shared by internally switched channels by UID
+	 */
+	private final Map<String, DualRelayState> sharedRelays = new LinkedHashMap<String, DualRelayState>();
+
+	private final List<ExternallyDimmedLED> channels = new ArrayList<ExternallyDimmedLED>();
+
+	/**
+	 * IO4 Bricklet to detect light switch position, null if not configured
+	 */
+	private WallSwitch onOff;
+
+	/**
+	 * Power telemetry, null if not started
+	 */
+	private Telemetry telemetry;
+
+	/**
+	 * Reconnects the stack and restores the channels
+	 */
+	private final ConnectionSupervisor supervisor;
+
+	/**
+	 * Reads back and repairs the channels, null if disabled
+	 */
+	private final StateVerifier verifier;
+
+	/**
+	 * Reads the devices in parallel for the initialization, the restore and
+	 * the verification
+	 */
+	private final ExecutorService readers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LEDStack reader");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Queue keys of the restore and the verification, so they never replace
+	 * a pending change
+	 */
+	private final Object restoreKey = new Object();
+	private final Object verifyKey = new Object();
+
+	/**
+	 * Connects to the stack. If the stack is not reachable, the channels are
+	 * added without reading the devices and the {@link ConnectionSupervisor}
+	 * keeps trying to connect.
+	 *
+	 * @param host
+	 * @param port
+	 * @throws UnknownHostException
+	 *             if the host can not be resolved
+	 * @throws AlreadyConnectedException
+	 */
+	public LEDStack(String host, int port) throws UnknownHostException, AlreadyConnectedException {
+		this.host = host;
+		this.port = port;
+		ipcon = new IPConnection();
+		try {
+			ipcon.connect(host, port);
+		} catch (UnknownHostException e) {
+			throw e;
+		} catch (IOException e) {
+			System.out.println("LEDStack " + getName() + ": " + e.getMessage() + ", reconnecting");
+		}
+		queue = new CommandQueue("Stack " + host + ":" + port);
+		relays = new RelayScheduler();
+		supervisor = new ConnectionSupervisor(this, ipcon, host, port);
+		verifier = Config.verify_interval > 0 ? new StateVerifier(this, Config.verify_interval) : null;
+	}
+
+	/**
+	 * Initializes the Servo Brick output and the DualRelay Bricklet of a
+	 * channel.
+	 *
+	 * @param config
+	 * @return
+	 */
+	public synchronized ExternallyDimmedLED add(ChannelConfig config) {
+		return addAll(Collections.singletonList(config)).get(0);
+	}
+
+	/**
+	 * Initializes the Servo Brick outputs and DualRelay Bricklets of several
+	 * channels. The devices are enumerated once, then every device is read by
+	 * its own task, so the requests to different devices are in flight in
+	 * parallel. Only the settings which differ from the configuration are
+	 * written. Channels of devices which did not answer the enumeration are
+	 * added without touching their outputs.
+	 *
+	 * @param configs
+	 * @return the channels in configuration order
+	 */
+	public synchronized List<ExternallyDimmedLED> addAll(List<ChannelConfig> configs) {
+		long start = System.nanoTime();
+		Map<String, List<Short>> outputs = new LinkedHashMap<String, List<Short>>();
+		Set<String> uids = new LinkedHashSet<String>();
+		for (ChannelConfig config : configs) {
+			ChannelKey key = config.getKey();
+			if (getChannel(key.getServoUID(), key.getServoNum()) != null)
+				throw new IllegalArgumentException("Channel " + key + " already exists");
+			List<Short> servoNums = outputs.get(key.getServoUID());
+			if (servoNums == null) {
+				servoNums = new ArrayList<Short>();
+				outputs.put(key.getServoUID(), servoNums);
+			}
+			if (servoNums.contains(key.getServoNum()))
+				throw new IllegalArgumentException("Channel " + key + " already exists");
+			servoNums.add(key.getServoNum());
+			uids.add(key.getServoUID());
+			uids.add(config.getRelayUID());
+		}
+		DeviceDiscovery discovery = DeviceDiscovery.discover(ipcon, uids, Config.discovery_timeout);
+
+		ExecutorService pool = readers;
+		Map<String, Future<ServoOutput[]>> servoOutputs = new HashMap<String, Future<ServoOutput[]>>();
+		Map<String, BrickletDualRelay> relayDevices = new HashMap<String, BrickletDualRelay>();
+		Map<String, Future<State>> relayStates = new HashMap<String, Future<State>>();
+		for (Map.Entry<String, List<Short>> entry : outputs.entrySet()) {
+			boolean first = !servos.containsKey(entry.getKey());
+			BrickServo servo = getServo(entry.getKey());
+			if (servo instanceof BrickServoLED)
+				((BrickServoLED) servo).setFirmwareVersion(discovery.getFirmwareVersion(entry.getKey()));
+			if (discovery.isPresent(entry.getKey(), BrickServo.DEVICE_IDENTIFIER)) {
+				servoOutputs.put(entry.getKey(), pool.submit(readOutputs(servo, entry.getValue(), first)));
+			} else {
+				System.out.println("LEDStack " + getName() + ": Servo Brick " + entry.getKey() + " not found");
+			}
+		}
+		for (ChannelConfig config : configs) {
+			String uid = config.getRelayUID();
+			if (relayDevices.containsKey(uid) || sharedRelays.containsKey(uid))
+				continue;
+			final BrickletDualRelay relay = new InstrumentedDualRelay(uid, ipcon);
+			if (verifier == null) {
+				/** Sent without acknowledgement by default, nothing would notice a lost one */
+				relay.setResponseExpected(BrickletDualRelay.FUNCTION_SET_STATE, true);
+				relay.setResponseExpected(BrickletDualRelay.FUNCTION_SET_SELECTED_STATE, true);
+			}
+			relayDevices.put(uid, relay);
+			if (discovery.isPresent(uid, BrickletDualRelay.DEVICE_IDENTIFIER)) {
+				relayStates.put(uid, pool.submit(new Callable<State>() {
+					@Override
+					public State call() throws Exception {
+						return relay.getState();
+					}
+				}));
+			} else {
+				System.out.println("LEDStack " + getName() + ": DualRelay Bricklet " + uid + " not found");
+			}
+		}
+
+		List<ExternallyDimmedLED> added = new ArrayList<ExternallyDimmedLED>();
+		int written = 0;
+		for (ChannelConfig config : configs) {
+			ChannelKey key = config.getKey();
+			String uid = config.getRelayUID();
+			BrickServo servo = servos.get(key.getServoUID());
+			ExternallyDimmedLED channel;
+			if (config.isInternal()) {
+				DualRelayState relayLow = sharedRelays.get(uid);
+				if (relayLow == null) {
+					relayLow = new DualRelayState(relayDevices.get(uid), get(relayStates.get(uid)));
+					sharedRelays.put(uid, relayLow);
+				}
+				channel = new InternallyDimmedLED(config.getName(), relayLow, config.isRelay1_GND(), servo, key.getServoNum(), queue, relays);
+			} else {
+				channel = new ExternallyDimmedLED(config.getName(), relayDevices.get(uid), get(relayStates.get(uid)), servo, key.getServoNum(), queue, relays);
+			}
+			channel.setCurve(config.getCurve());
+			ServoOutput[] current = get(servoOutputs.get(key.getServoUID()));
+			written += channel.setup(current == null ? null : current[key.getServoNum()], config.getPeriod(), config.getSpeed(), config.getSafeguard());
+			dispatchers.get(key.getServoUID()).add(channel);
+			channels.add(channel);
+			added.add(channel);
+		}
+		if (onOff != null)
+			onOff.refresh();
+		if (Config.debug)
+			System.out.println("LEDStack " + getName() + ": " + added.size() + " channels initialized in " + (System.nanoTime() - start) / 1000000 + " ms, "
+					+ discovery.size() + " devices found, " + written + " settings written");
+		return added;
+	}
+
+	/**
+	 * Returns a task which reads the servo outputs of the channels, the
+	 * PositionReached callback is enabled first if the Servo Brick is new.
+	 *
+	 * @param servo
+	 * @param servoNums
+	 * @param enableCallback
+	 * @return
+	 */
+	private static Callable<ServoOutput[]> readOutputs(final BrickServo servo, final List<Short> servoNums, final boolean enableCallback) {
+		return new Callable<ServoOutput[]>() {
+			@Override
+			public ServoOutput[] call() throws Exception {
+				if (enableCallback)
+					servo.enablePositionReachedCallback();
+				ServoOutput[] current = new ServoOutput[BrickServoLED.SERVO_NUM];
+				for (short servoNum : servoNums) {
+					current[servoNum] = ServoOutput.read(servo, servoNum);
+				}
+				return current;
+			}
+		};
+	}
+
+	/**
+	 * Restores the desired state of all channels after a reconnect. The
+	 * devices are read in parallel, then only the settings which differ are
+	 * written through the {@link CommandQueue}, so they do not interleave
+	 * with the channel commands. A Servo Brick or Bricklet which was reset
+	 * gets its configuration back.
+	 *
+	 * @return number of settings written
+	 */
+	public synchronized int restore() {
+		final AtomicInteger written = new AtomicInteger();
+		final Map<BrickServo, List<ExternallyDimmedLED>> servoChannels = groupByServo(channels);
+		final Map<BrickServo, Future<ServoOutput[]>> outputs = new HashMap<BrickServo, Future<ServoOutput[]>>();
+		final Map<BrickletDualRelay, Future<State>> relayStates = new HashMap<BrickletDualRelay, Future<State>>();
+		final Map<DualRelayState, Future<State>> sharedStates = new HashMap<DualRelayState, Future<State>>();
+		ExecutorService pool = readers;
+		for (Map.Entry<BrickServo, List<ExternallyDimmedLED>> entry : servoChannels.entrySet()) {
+			final BrickServo servo = entry.getKey();
+			final List<ExternallyDimmedLED> list = entry.getValue();
+			outputs.put(servo, pool.submit(new Callable<ServoOutput[]>() {
+				@Override
+				public ServoOutput[] call() throws Exception {
+					if (!servo.isPositionReachedCallbackEnabled()) {
+						servo.enablePositionReachedCallback();
+						written.incrementAndGet();
+					}
+					ServoOutput[] current = new ServoOutput[list.size()];
+					for (int i = 0; i < current.length; i++) {
+						current[i] = ServoOutput.read(servo, list.get(i).servoNum);
+					}
+					return current;
+				}
+			}));
+		}
+		for (ExternallyDimmedLED channel : channels) {
+			final BrickletDualRelay relay = channel.getRelay();
+			if (relay != null && !relayStates.containsKey(relay))
+				relayStates.put(relay, readState(pool, relay));
+		}
+		for (DualRelayState shared : sharedRelays.values()) {
+			sharedStates.put(shared, readState(pool, shared.getRelay()));
+		}
+
+		get(queue.submit(restoreKey, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				for (Map.Entry<BrickServo, List<ExternallyDimmedLED>> entry : servoChannels.entrySet()) {
+					ServoOutput[] current = get(outputs.get(entry.getKey()));
+					if (current == null)
+						continue;
+					for (int i = 0; i < current.length; i++) {
+						ExternallyDimmedLED channel = entry.getValue().get(i);
+						State relayState = channel.getRelay() == null ? null : get(relayStates.get(channel.getRelay()));
+						written.addAndGet(channel.restore(current[i], relayState));
+					}
+				}
+				for (Map.Entry<DualRelayState, Future<State>> entry : sharedStates.entrySet()) {
+					written.addAndGet(entry.getKey().restore(get(entry.getValue())));
+				}
+			}
+		}));
+		if (onOff != null)
+			written.addAndGet(onOff.restore());
+		if (telemetry != null)
+			written.addAndGet(telemetry.restore());
+		return written.get();
+	}
+
+	/**
+	 * Reads the positions and relay states of all channels back and repairs
+	 * the drift, called by the {@link StateVerifier}. As the setters are sent
+	 * without waiting for the response, a lost one is only noticed here. The
+	 * state of every channel is taken on the {@link CommandQueue}, so every
+	 * setter it reflects was sent before the devices are read in parallel.
+	 * The repairs are written through the queue as well and skip the
+	 * channels which changed in the meantime.
+	 *
+	 * @return number of settings repaired
+	 */
+	public int verify() {
+		final List<ExternallyDimmedLED> snapshot;
+		final List<DualRelayState> shared;
+		synchronized (this) {
+			snapshot = new ArrayList<ExternallyDimmedLED>(channels);
+			shared = new ArrayList<DualRelayState>(sharedRelays.values());
+		}
+		final AtomicInteger repaired = new AtomicInteger();
+		final Map<BrickServo, List<ExternallyDimmedLED>> servoChannels = groupByServo(snapshot);
+		final Map<ExternallyDimmedLED, Long> words = new HashMap<ExternallyDimmedLED, Long>();
+		final Map<DualRelayState, Long> switches = new HashMap<DualRelayState, Long>();
+		get(queue.submit(verifyKey, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				for (ExternallyDimmedLED channel : snapshot) {
+					words.put(channel, channel.cache.get());
+				}
+				for (DualRelayState relay : shared) {
+					switches.put(relay, relay.getSwitches());
+				}
+			}
+		}));
+		if (words.size() < snapshot.size())
+			return 0;
+
+		final Map<BrickServo, Future<short[]>> positions = new HashMap<BrickServo, Future<short[]>>();
+		final Map<BrickletDualRelay, Future<State>> relayStates = new HashMap<BrickletDualRelay, Future<State>>();
+		final Map<DualRelayState, Future<State>> sharedStates = new HashMap<DualRelayState, Future<State>>();
+		ExecutorService pool = readers;
+		for (Map.Entry<BrickServo, List<ExternallyDimmedLED>> entry : servoChannels.entrySet()) {
+			final BrickServo servo = entry.getKey();
+			final List<ExternallyDimmedLED> list = entry.getValue();
+			positions.put(servo, pool.submit(new Callable<short[]>() {
+				@Override
+				public short[] call() throws Exception {
+					short[] current = new short[list.size()];
+					for (int i = 0; i < current.length; i++) {
+						current[i] = servo.getPosition(list.get(i).servoNum);
+					}
+					return current;
+				}
+			}));
+		}
+		for (ExternallyDimmedLED channel : snapshot) {
+			BrickletDualRelay relay = channel.getRelay();
+			if (relay != null && !relayStates.containsKey(relay))
+				relayStates.put(relay, readState(pool, relay));
+		}
+		for (DualRelayState relay : shared) {
+			sharedStates.put(relay, readState(pool, relay.getRelay()));
+		}
+
+		get(queue.submit(verifyKey, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				for (Map.Entry<BrickServo, List<ExternallyDimmedLED>> entry : servoChannels.entrySet()) {
+					short[] current = get(positions.get(entry.getKey()));
+					if (current == null)
+						continue;
+					for (int i = 0; i < current.length; i++) {
+						ExternallyDimmedLED channel = entry.getValue().get(i);
+						State relayState = channel.getRelay() == null ? null : get(relayStates.get(channel.getRelay()));
+						repaired.addAndGet(channel.verify(words.get(channel), current[i], relayState));
+					}
+				}
+				for (Map.Entry<DualRelayState, Future<State>> entry : sharedStates.entrySet()) {
+					repaired.addAndGet(entry.getKey().verify(get(entry.getValue()), switches.get(entry.getKey())));
+				}
+			}
+		}));
+		return repaired.get();
+	}
+
+	/**
+	 * Groups channels by their Servo Brick, keeping their order.
+	 *
+	 * @param channels
+	 * @return
+	 */
+	private static Map<BrickServo, List<ExternallyDimmedLED>> groupByServo(List<ExternallyDimmedLED> channels) {
+		Map<BrickServo, List<ExternallyDimmedLED>> servoChannels = new LinkedHashMap<BrickServo, List<ExternallyDimmedLED>>();
+		for (ExternallyDimmedLED channel : channels) {
+			List<ExternallyDimmedLED> list = servoChannels.get(channel.servo);
+			if (list == null) {
+				list = new ArrayList<ExternallyDimmedLED>();
+				servoChannels.put(channel.servo, list);
+			}
+			list.add(channel);
+		}
+		return servoChannels;
+	}
+
+	private static Future<State> readState(ExecutorService pool, final BrickletDualRelay relay) {
+		return pool.submit(new Callable<State>() {
+			@Override
+			public State call() throws Exception {
+				return relay.getState();
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the stack is connected.
+	 *
+	 * @return
+	 */
+	public boolean isConnected() {
+		return supervisor.isConnected();
+	}
+
+	/**
+	 * Returns the connection supervisor.
+	 *
+	 * @return
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
+	}
+
+	/**
+	 * Returns the state verifier, null if disabled.
+	 *
+	 * @return
+	 */
+	public StateVerifier getVerifier() {
+		return verifier;
+	}
+
+	/**
+	 * Waits for the result of a read, null if it failed or was not sent.
+	 *
+	 * @param future
+	 * @return
+	 */
+	private static <T> T get(Future<T> future) {
+		if (future == null)
+			return null;
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the channel of a Servo Brick output without touching the output.
+	 * A pending relay transition of the channel is cancelled.
+	 *
+	 * @param key
+	 * @return the removed channel or null
+	 */
+	public synchronized ExternallyDimmedLED remove(ChannelKey key) {
+		PositionReachedDispatcher dispatcher = dispatchers.get(key.getServoUID());
+		if (dispatcher == null)
+			return null;
+		ExternallyDimmedLED channel = dispatcher.remove(key.getServoNum());
+		if (channel != null) {
+			channels.remove(channel);
+			relays.cancel(channel);
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns the Servo Brick with the given UID. On first use its
+	 * PositionReached callbacks are routed to its channels.
+	 *
+	 * @param uid
+	 * @return
+	 */
+	private BrickServo getServo(String uid) {
+		BrickServo servo = servos.get(uid);
+		if (servo == null) {
+			servo = new InstrumentedServo(uid, ipcon);
+			if (verifier == null) {
+				/** Sent without acknowledgement by default, nothing would notice a lost one */
+				servo.setResponseExpected(BrickServo.FUNCTION_SET_POSITION, true);
+				servo.setResponseExpected(BrickServo.FUNCTION_SET_VELOCITY, true);
+			}
+			PositionReachedDispatcher dispatcher = new PositionReachedDispatcher();
+			servo.addPositionReachedListener(dispatcher);
+			servos.put(uid, servo);
+			dispatchers.put(uid, dispatcher);
+		}
+		return servo;
+	}
+
+	/**
+	 * Configures all pins of an IO4 Bricklet as pulled up inputs for the
+	 * light switches and follows them by interrupt callback. The switches
+	 * belong to the channels of the Servo Brick the Bricklet is connected to.
+	 *
+	 * @param uid
+	 * @param longPress
+	 *            time in milliseconds to hold a switch for a ramp, 0 disables
+	 *            ramps
+	 * @return
+	 */
+	public synchronized WallSwitch configureWallSwitch(String uid, long longPress) {
+		if (onOff != null)
+			onOff.shutdown();
+		String servoUID = DeviceDiscovery.discover(ipcon, Collections.singleton(uid), Config.discovery_timeout).getConnectedUid(uid);
+		if (servoUID == null || !dispatchers.containsKey(servoUID))
+			System.out.println("LEDStack " + getName() + ": no channels for the wall switch " + uid);
+		onOff = new WallSwitch(new BrickletIO4(uid, ipcon), servoUID == null ? null : dispatchers.get(servoUID), Config.switch_debounce, longPress,
+				Config.long_press_ramp);
+		return onOff;
+	}
+
+	/**
+	 * Returns the wall switch or null.
+	 *
+	 * @return
+	 */
+	public synchronized WallSwitch getWallSwitch() {
+		return onOff;
+	}
+
+	/**
+	 * Stops following the wall switch.
+	 */
+	public synchronized void stopWallSwitch() {
+		if (onOff != null)
+			onOff.shutdown();
+		onOff = null;
+	}
+
+	/**
+	 * Starts recording the power consumption of this stack. The power budget
+	 * only scales the channels of this stack, as only their current is
+	 * measured. A Current25 Bricklet which does not answer the enumeration is
+	 * left out, so neither the start nor a reconnect waits for it.
+	 *
+	 * @param currentUID
+	 *            UID of the Current25 Bricklet of the LED supply or null
+	 * @param powerLimit
+	 *            LED current limit in mA, 0 disables the power budget
+	 * @return
+	 */
+	public synchronized Telemetry startTelemetry(String currentUID, int powerLimit) {
+		if (telemetry != null)
+			telemetry.shutdown();
+		BrickletCurrent25 sensor = null;
+		if (currentUID != null) {
+			DeviceDiscovery discovery = DeviceDiscovery.discover(ipcon, Collections.singleton(currentUID), Config.discovery_timeout);
+			if (discovery.isPresent(currentUID, BrickletCurrent25.DEVICE_IDENTIFIER))
+				sensor = new BrickletCurrent25(currentUID, ipcon);
+			else
+				System.out.println("LEDStack " + getName() + ": Current25 Bricklet " + currentUID + " not found");
+		}
+		telemetry = new Telemetry(sensor, new ArrayList<BrickServo>(servos.values()), this, powerLimit);
+		return telemetry;
+	}
+
+	/**
+	 * Returns the power telemetry or null.
+	 *
+	 * @return
+	 */
+	public synchronized Telemetry getTelemetry() {
+		return telemetry;
+	}
+
+	/**
+	 * Stops recording the power consumption.
+	 */
+	public synchronized void stopTelemetry() {
+		if (telemetry != null)
+			telemetry.shutdown();
+		telemetry = null;
+	}
+
+	/**
+	 * Returns the channel of a Servo Brick output or null.
+	 *
+	 * @param servoUID
+	 * @param servoNum
+	 * @return
+	 */
+	public synchronized ExternallyDimmedLED getChannel(String servoUID, int servoNum) {
+		PositionReachedDispatcher dispatcher = dispatchers.get(servoUID);
+		return dispatcher == null ? null : dispatcher.get(servoNum);
+	}
+
+	/**
+	 * Returns all channels in the order they were added.
+	 *
+	 * @return
+	 */
+	public synchronized List<ExternallyDimmedLED> getChannels() {
+		return Collections.unmodifiableList(new ArrayList<ExternallyDimmedLED>(channels));
+	}
+
+	/**
+	 * Returns the queue which transmits all channel commands of this stack.
+	 *
+	 * @return
+	 */
+	public CommandQueue getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Returns the scheduler of the deferred relay transitions of this stack.
+	 *
+	 * @return
+	 */
+	public RelayScheduler getRelays() {
+		return relays;
+	}
+
+	/**
+	 * Returns host:port of the stack.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		return host + ":" + port;
+	}
+
+	/**
+	 * Stops the {@link CommandQueue} and {@link RelayScheduler}, removes the
+	 * PositionReachedListeners and disconnects.
+	 */
+	public synchronized void shutdown() {
+		supervisor.shutdown();
+		if (verifier != null)
+			verifier.shutdown();
+		if (telemetry != null)
+			telemetry.shutdown();
+		if (onOff != null)
+			onOff.shutdown();
+		queue.shutdown();
+		relays.shutdown();
+		readers.shutdownNow();
+		if (Config.debug)
+			System.out.println("LEDStack " + getName() + ": " + relays.getScheduled() + " relay transitions deferred, " + (relays.getReplaced() + relays.getCancelled()) + " collapsed");
+		for (Map.Entry<String, BrickServo> servo : servos.entrySet()) {
+			servo.getValue().removePositionReachedListener(dispatchers.get(servo.getKey()));
+		}
+		try {
+			ipcon.disconnect();
+		} catch (NotConnectedException nce) {
+			nce.printStackTrace();
+		}
+	}
+}
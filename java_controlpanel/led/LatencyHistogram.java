@@ -0,0 +1,110 @@
+package led;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link LatencyHistogram} records latencies in nanoseconds into logarithmic
+ * buckets with 8 linear sub buckets per power of two, so percentiles are
+ * accurate within 12.5 %. Recording is lock free and allocation free.
+ *
+ * @author Ingo Kauffmann
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(SUB_BUCKETS * (64 - SUB_BUCKET_BITS + 1));
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+		}
+	}
+
+	/**
+	 * Returns the number of recorded latencies.
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the highest recorded latency in nanoseconds.
+	 *
+	 * @return
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the mean latency in nanoseconds.
+	 *
+	 * @return
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket which contains the given
+	 * percentile, in nanoseconds.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = index % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.0fus p50=%dus p99=%dus max=%dus", getCount(), getMean() / 1000, getValueAtPercentile(50) / 1000,
+				getValueAtPercentile(99) / 1000, getMax() / 1000);
+	}
+}
@@ -0,0 +1,55 @@
+package led;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MetricsReporter} periodically prints the {@link DeviceMetrics} of all
+ * devices to System.out.
+ *
+ * @author Ingo Kauffmann
+ */
+public class MetricsReporter {
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "MetricsReporter");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Constructor
+	 *
+	 * @param periodMillis
+	 *            interval of the dumps in milliseconds
+	 */
+	public MetricsReporter(long periodMillis) {
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Prints the metrics of all devices.
+	 */
+	public void report() {
+		for (DeviceMetrics metrics : DeviceMetrics.getAll()) {
+			System.out.println("MetricsReporter: " + metrics);
+		}
+	}
+
+	/**
+	 * Stops the periodic dumps.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+}
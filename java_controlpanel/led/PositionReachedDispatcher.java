@@ -0,0 +1,70 @@
+package led;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickServoLED;
+
+/**
+ * {@link PositionReachedDispatcher} routes the PositionReached callbacks of one
+ * Servo Brick to its LED channels. The channels are indexed by servo number,
+ * so a callback costs a single array access. Channels are added and removed
+ * by the registry and the config watcher while the callback thread reads
+ * them, hence the array is atomic.
+ *
+ * @author Ingo Kauffmann
+ */
+public class PositionReachedDispatcher implements BrickServo.PositionReachedListener {
+
+	private final AtomicReferenceArray<ExternallyDimmedLED> channels = new AtomicReferenceArray<ExternallyDimmedLED>(BrickServoLED.SERVO_NUM);
+
+	/**
+	 * Constructor
+	 *
+	 * @param channels
+	 *            LED channels of the Servo Brick
+	 */
+	public PositionReachedDispatcher(ExternallyDimmedLED... channels) {
+		for (ExternallyDimmedLED channel : channels) {
+			add(channel);
+		}
+	}
+
+	/**
+	 * Routes the callbacks of the channel's servo output to the channel.
+	 *
+	 * @param channel
+	 */
+	public void add(ExternallyDimmedLED channel) {
+		channels.set(channel.servoNum, channel);
+	}
+
+	/**
+	 * Stops routing the callbacks of a servo output.
+	 *
+	 * @param servoNum
+	 * @return the removed channel or null
+	 */
+	public ExternallyDimmedLED remove(int servoNum) {
+		return channels.getAndSet(servoNum, null);
+	}
+
+	/**
+	 * Returns the channel of a servo output or null.
+	 *
+	 * @param servoNum
+	 * @return
+	 */
+	public ExternallyDimmedLED get(int servoNum) {
+		return channels.get(servoNum);
+	}
+
+	@Override
+	public void positionReached(short servoNum, short position) {
+		if (Config.debug)
+			System.out.println("PositionReachedDispatcher.positionReached(" + servoNum + "," + position + ")");
+		ExternallyDimmedLED channel = channels.get(servoNum);
+		if (channel != null)
+			channel.positionReached(position);
+	}
+}
@@ -0,0 +1,144 @@
+package led;
+
+import java.util.concurrent.Executor;
+
+/**
+ * {@link PowerBudget} scales the brightness of the channels of a stack down
+ * while the LED current measured on that stack exceeds a limit. A sample above
+ * the limit lowers the scale in proportion to the excess, the scale recovers
+ * in steps of 1/16 as long as the current expected with the next step stays
+ * below 90 % of the limit. The current lags the velocity ramp of the servos,
+ * hence the samples are ignored until the ramp of the last adjustment has
+ * settled, so every adjustment is based on the current measured with the
+ * scale applied. The channels are only touched when the scale changes, on the
+ * given executor, so the callback thread delivering the samples is never
+ * blocked. A sample itself does not allocate.
+ *
+ * Channels switched fully on bypass the PWM. They are stepped down to dimmed
+ * when the scale drops below 1 and scaled like the others, at full scale they
+ * are switched fully on again.
+ *
+ * @author Ingo Kauffmann
+ */
+public class PowerBudget {
+
+	/**
+	 * Lowest scale, keeps the channels from going dark
+	 */
+	private static final int MIN_SCALE = ExternallyDimmedLED.POWER_SCALE_ONE / 8;
+
+	private final LEDStack stack;
+	private final int limit;
+	private final Executor executor;
+
+	/**
+	 * Applies the latest scale to the channels and waits for their ramps
+	 */
+	private final Runnable apply = new Runnable() {
+		@Override
+		public void run() {
+			int applied = scale;
+			long ramp = 0;
+			for (ExternallyDimmedLED channel : stack.getChannels()) {
+				ramp = Math.max(ramp, channel.setPowerScale(applied));
+			}
+			synchronized (PowerBudget.this) {
+				settledAt = System.nanoTime() + (ramp + Config.telemetry_debounce) * 1000000L;
+				settling = false;
+			}
+		}
+	};
+
+	private volatile int scale = ExternallyDimmedLED.POWER_SCALE_ONE;
+
+	/**
+	 * True from an adjustment until it was applied, then the samples are
+	 * ignored until settledAt
+	 */
+	private boolean settling;
+	private long settledAt = System.nanoTime();
+
+	private volatile long adjustments;
+	private volatile long exceeded;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stack
+	 *            stack whose channels are measured and scaled
+	 * @param limit
+	 *            total current in mA
+	 * @param executor
+	 *            rescales the channels
+	 */
+	public PowerBudget(LEDStack stack, int limit, Executor executor) {
+		this.stack = stack;
+		this.limit = limit;
+		this.executor = executor;
+	}
+
+	/**
+	 * Checks a current sample and rescales the channels if needed.
+	 *
+	 * @param current
+	 *            total current in mA
+	 */
+	public synchronized void update(int current) {
+		if (current > limit)
+			exceeded++;
+		if (settling || System.nanoTime() - settledAt < 0)
+			return;
+		int next = scale;
+		if (current > limit) {
+			next = (int) Math.max(MIN_SCALE, (long) scale * limit / current);
+		} else if (scale < ExternallyDimmedLED.POWER_SCALE_ONE) {
+			int up = Math.min(ExternallyDimmedLED.POWER_SCALE_ONE, scale + ExternallyDimmedLED.POWER_SCALE_ONE / 16);
+			if ((long) current * up / scale < limit * 9L / 10)
+				next = up;
+		}
+		if (next == scale)
+			return;
+		scale = next;
+		settling = true;
+		adjustments++;
+		if (Config.debug)
+			System.out.println("PowerBudget: " + current + " mA, scale " + getScale());
+		executor.execute(apply);
+	}
+
+	/**
+	 * Returns the current limit in mA.
+	 *
+	 * @return
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Returns the applied scale between 0 and 1.
+	 *
+	 * @return
+	 */
+	public double getScale() {
+		return scale / (double) ExternallyDimmedLED.POWER_SCALE_ONE;
+	}
+
+	/**
+	 * Returns the number of scale changes.
+	 *
+	 * @return
+	 */
+	public long getAdjustments() {
+		return adjustments;
+	}
+
+	/**
+	 * Returns the number of samples above the limit.
+	 *
+	 * @return
+	 */
+	public long getExceeded() {
+		return exceeded;
+	}
+}
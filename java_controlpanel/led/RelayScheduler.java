@@ -0,0 +1,184 @@
+package led;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RelayScheduler} owns all deferred relay transitions and executes them
+ * on a single thread. A newer transition for the same relay cancels and
+ * replaces the pending one, a replaced or cancelled transition which already
+ * started waiting for the lock does not switch.
+ *
+ * @author Ingo Kauffmann
+ */
+public class RelayScheduler {
+
+	/**
+	 * A pending transition
+	 */
+	private class Transition implements Runnable {
+		private final Object key;
+		private final Runnable action;
+		private final long due;
+		private ScheduledFuture<?> future;
+
+		private Transition(Object key, Runnable action, long delayMillis) {
+			this.key = key;
+			this.action = action;
+			this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+		}
+
+		@Override
+		public void run() {
+			long lateness = System.nanoTime() - due;
+			synchronized (RelayScheduler.this) {
+				if (pending.get(key) != this)
+					return;
+				pending.remove(key);
+				executed++;
+				totalLateness += lateness;
+				maxLateness = Math.max(maxLateness, lateness);
+			}
+			action.run();
+		}
+	}
+
+	private final ScheduledExecutorService scheduler;
+
+	private final Map<Object, Transition> pending = new HashMap<Object, Transition>();
+
+	private long scheduled;
+	private long replaced;
+	private long cancelled;
+	private long executed;
+	private long totalLateness;
+	private long maxLateness;
+
+	/**
+	 * Constructor
+	 */
+	public RelayScheduler() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "RelayScheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Executes a transition after delayMillis milliseconds. A pending
+	 * transition with the same key is cancelled.
+	 *
+	 * @param key
+	 *            relay (or relay output) the transition belongs to
+	 * @param action
+	 * @param delayMillis
+	 * @return true, if a pending transition was replaced
+	 */
+	public synchronized boolean schedule(Object key, Runnable action, long delayMillis) {
+		Transition transition = new Transition(key, action, delayMillis);
+		Transition old = pending.put(key, transition);
+		if (old != null)
+			old.future.cancel(false);
+		transition.future = scheduler.schedule(transition, delayMillis, TimeUnit.MILLISECONDS);
+		scheduled++;
+		if (old != null)
+			replaced++;
+		if (Config.debug)
+			System.out.println("RelayScheduler.schedule() in " + delayMillis + " ms, " + pending.size() + " pending");
+		return old != null;
+	}
+
+	/**
+	 * Cancels the pending transition with the given key.
+	 *
+	 * @param key
+	 * @return true, if a transition was pending
+	 */
+	public synchronized boolean cancel(Object key) {
+		Transition old = pending.remove(key);
+		if (old == null)
+			return false;
+		old.future.cancel(false);
+		cancelled++;
+		return true;
+	}
+
+	/**
+	 * Returns the number of pending transitions.
+	 *
+	 * @return
+	 */
+	public synchronized int getQueueDepth() {
+		return pending.size();
+	}
+
+	/**
+	 * Returns the number of scheduled transitions.
+	 *
+	 * @return
+	 */
+	public synchronized long getScheduled() {
+		return scheduled;
+	}
+
+	/**
+	 * Returns the number of transitions replaced by a newer one.
+	 *
+	 * @return
+	 */
+	public synchronized long getReplaced() {
+		return replaced;
+	}
+
+	/**
+	 * Returns the number of transitions cancelled before execution.
+	 *
+	 * @return
+	 */
+	public synchronized long getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of executed transitions.
+	 *
+	 * @return
+	 */
+	public synchronized long getExecuted() {
+		return executed;
+	}
+
+	/**
+	 * Returns the maximum delay in nanoseconds between due time and execution.
+	 *
+	 * @return
+	 */
+	public synchronized long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * Returns the average delay in nanoseconds between due time and execution.
+	 *
+	 * @return
+	 */
+	public synchronized long getAverageLateness() {
+		return executed == 0 ? 0 : totalLateness / executed;
+	}
+
+	/**
+	 * Stops the scheduler thread, pending transitions are dropped.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,160 @@
+package led;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import com.tinkerforge.BrickServo;
+
+/**
+ * {@link RgbGroup} changes several {@link ExternallyDimmedLED} channels as one
+ * batch. One duration is computed from the channel with the largest distance
+ * and its speed, the velocity of every channel is derived from it, so all
+ * channels start in one burst and arrive at the same moment. Distances are
+ * measured between power scaled positions, as they are cached. If the firmware
+ * supports it, velocities and positions of all channels on one Servo Brick go
+ * out as a single set_positions request and start in the same tick.
+ *
+ * @author Ingo Kauffmann
+ */
+public class RgbGroup {
+
+	private final ExternallyDimmedLED[] channels;
+	private final CommandQueue queue;
+
+	/**
+	 * Scaled target position of the last batch, -1 if the channel did not move
+	 */
+	private final int[] targets;
+
+	private volatile long submittedAt;
+	private volatile long transmittedAt;
+
+	/**
+	 * Constructor
+	 *
+	 * @param queue
+	 * @param channels
+	 */
+	public RgbGroup(CommandQueue queue, ExternallyDimmedLED... channels) {
+		this.queue = queue;
+		this.channels = channels;
+		this.targets = new int[channels.length];
+	}
+
+	/**
+	 * Queues a color change with one uint8 color value per channel. A pending
+	 * change of this group is dropped.
+	 *
+	 * @param colors
+	 * @return future which completes once the batch was transmitted
+	 */
+	public Future<Void> submitColor(final int... colors) {
+		if (colors.length != channels.length)
+			throw new IllegalArgumentException("Expected " + channels.length + " colors, got " + colors.length);
+		final long submitted = System.nanoTime();
+		return queue.submit(this, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				setColor(submitted, colors);
+			}
+		});
+	}
+
+	/**
+	 * Changes the color with one uint8 color value per channel.
+	 *
+	 * @param colors
+	 */
+	public void setColor(int... colors) {
+		if (colors.length != channels.length)
+			throw new IllegalArgumentException("Expected " + channels.length + " colors, got " + colors.length);
+		setColor(System.nanoTime(), colors);
+	}
+
+	private synchronized void setColor(long submitted, int[] colors) {
+		int[] positions = new int[channels.length];
+		int maxDistance = 0;
+		int farthest = 0;
+		for (int i = 0; i < channels.length; i++) {
+			positions[i] = channels[i].scaled(channels[i].curve.fromColor(colors[i]));
+			int distance = Math.abs(positions[i] - channels[i].cache.getPosition());
+			if (distance > maxDistance) {
+				maxDistance = distance;
+				farthest = i;
+			}
+		}
+		int velocity = Math.max(1, ExternallyDimmedLED.toVelocity(channels[farthest].speed));
+		long duration = (maxDistance * 1000L + velocity - 1) / velocity;
+
+		/** One batch per Servo Brick, null if its firmware does not support it */
+		Map<BrickServo, ServoBatch> batches = new HashMap<BrickServo, ServoBatch>();
+		ServoBatch[] batch = new ServoBatch[channels.length];
+		for (int i = 0; i < channels.length; i++) {
+			BrickServo servo = channels[i].servo;
+			if (!batches.containsKey(servo))
+				batches.put(servo, ServoBatch.forServo(servo));
+			batch[i] = batches.get(servo);
+		}
+
+		/** Velocities first, so the positions go out back to back */
+		for (int i = 0; i < channels.length; i++) {
+			int distance = Math.abs(positions[i] - channels[i].cache.getPosition());
+			targets[i] = distance == 0 ? -1 : positions[i];
+			if (distance > 0)
+				channels[i].setVelocity(ExternallyDimmedLED.velocityFor(distance, duration), batch[i]);
+		}
+		submittedAt = submitted;
+		for (int i = 0; i < channels.length; i++) {
+			channels[i].setColor(colors[i], batch[i]);
+		}
+		for (ServoBatch b : batches.values()) {
+			if (b != null)
+				b.transmit();
+		}
+		transmittedAt = System.nanoTime();
+
+		if (Config.debug)
+			System.out.println("RgbGroup.setColor() transmitted after " + (transmittedAt - submitted) / 1000 + " us");
+	}
+
+	/**
+	 * Returns the channels of the group.
+	 *
+	 * @return
+	 */
+	public ExternallyDimmedLED[] getChannels() {
+		return channels.clone();
+	}
+
+	/**
+	 * Returns the time in nanoseconds between submitting and transmitting the
+	 * last batch.
+	 *
+	 * @return
+	 */
+	public long getTransmitLatency() {
+		return transmittedAt - submittedAt;
+	}
+
+	/**
+	 * Returns the time in nanoseconds between submitting the last batch and
+	 * the PositionReached callback of its last channel, -1 if not all
+	 * channels have arrived yet.
+	 *
+	 * @return
+	 */
+	public long getSwitchLatency() {
+		long submitted = submittedAt;
+		long reached = submitted;
+		for (int i = 0; i < channels.length; i++) {
+			if (targets[i] < 0)
+				continue;
+			ChannelState cache = channels[i].cache;
+			if (cache.getReachedAt() - submitted < 0 || cache.getPosition() != targets[i])
+				return -1;
+			reached = Math.max(reached, cache.getReachedAt());
+		}
+		return reached - submitted;
+	}
+}
@@ -0,0 +1,149 @@
+package led;
+
+/**
+ * {@link SampleHistory} keeps the latest readings of one measurement in
+ * fixed-size primitive ring buffers. Level 0 holds the raw samples, every
+ * further level holds the mean and maximum of factor entries of the level
+ * below, so a long history is kept at a coarser resolution. Adding a sample
+ * does not allocate.
+ *
+ * @author Ingo Kauffmann
+ */
+public class SampleHistory {
+
+	private final int capacity;
+	private final int factor;
+
+	/**
+	 * Ring buffers per level
+	 */
+	private final long[][] times;
+	private final int[][] means;
+	private final int[][] maxima;
+	private final int[] heads;
+	private final int[] counts;
+
+	/**
+	 * Entries of each level not yet downsampled into the next level
+	 */
+	private final long[] sums;
+	private final int[] pendingMax;
+	private final int[] pending;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            entries per level
+	 * @param factor
+	 *            entries of a level combined into one entry of the next
+	 *            level
+	 * @param levels
+	 */
+	public SampleHistory(int capacity, int factor, int levels) {
+		this.capacity = capacity;
+		this.factor = factor;
+		times = new long[levels][capacity];
+		means = new int[levels][capacity];
+		maxima = new int[levels][capacity];
+		heads = new int[levels];
+		counts = new int[levels];
+		sums = new long[levels];
+		pendingMax = new int[levels];
+		pending = new int[levels];
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @param time
+	 *            System.currentTimeMillis() of the reading
+	 * @param value
+	 */
+	public synchronized void add(long time, int value) {
+		add(0, time, value, value);
+	}
+
+	private void add(int level, long time, int mean, int max) {
+		int head = heads[level];
+		times[level][head] = time;
+		means[level][head] = mean;
+		maxima[level][head] = max;
+		heads[level] = (head + 1) % capacity;
+		if (counts[level] < capacity)
+			counts[level]++;
+
+		if (level + 1 == heads.length)
+			return;
+		sums[level] += mean;
+		pendingMax[level] = pending[level] == 0 ? max : Math.max(pendingMax[level], max);
+		if (++pending[level] == factor) {
+			add(level + 1, time, (int) (sums[level] / factor), pendingMax[level]);
+			sums[level] = 0;
+			pending[level] = 0;
+		}
+	}
+
+	/**
+	 * Returns the latest sample or 0 if there is none.
+	 *
+	 * @return
+	 */
+	public synchronized int getLast() {
+		if (counts[0] == 0)
+			return 0;
+		return means[0][(heads[0] + capacity - 1) % capacity];
+	}
+
+	/**
+	 * Returns the time of the latest sample or 0 if there is none.
+	 *
+	 * @return
+	 */
+	public synchronized long getLastTime() {
+		if (counts[0] == 0)
+			return 0;
+		return times[0][(heads[0] + capacity - 1) % capacity];
+	}
+
+	/**
+	 * Returns the number of entries of a level.
+	 *
+	 * @param level
+	 * @return
+	 */
+	public synchronized int getCount(int level) {
+		return counts[level];
+	}
+
+	/**
+	 * Copies the entries of a level, oldest first, into the given arrays. At
+	 * most as many entries as the arrays hold are copied, the latest ones.
+	 *
+	 * @param level
+	 * @param times
+	 * @param means
+	 * @param maxima
+	 * @return number of entries copied
+	 */
+	public synchronized int copy(int level, long[] times, int[] means, int[] maxima) {
+		int n = Math.min(counts[level], Math.min(times.length, Math.min(means.length, maxima.length)));
+		int start = (heads[level] + capacity - n) % capacity;
+		for (int i = 0; i < n; i++) {
+			int j = (start + i) % capacity;
+			times[i] = this.times[level][j];
+			means[i] = this.means[level][j];
+			maxima[i] = this.maxima[level][j];
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of levels.
+	 *
+	 * @return
+	 */
+	public int getLevels() {
+		return heads.length;
+	}
+}
@@ -0,0 +1,81 @@
+package led;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link Scene} is a set of target brightness values which are reached by
+ * all its channels at the same time.
+ *
+ * @author Ingo Kauffmann
+ */
+public class Scene {
+
+	private final Map<ExternallyDimmedLED, Integer> targets = new LinkedHashMap<ExternallyDimmedLED, Integer>();
+	private final long durationMillis;
+	private final Easing easing;
+
+	/**
+	 * Constructor for a scene faded linearly by the Servo Brick firmware.
+	 *
+	 * @param durationMillis
+	 *            time until all channels have reached their target
+	 */
+	public Scene(long durationMillis) {
+		this(durationMillis, null);
+	}
+
+	/**
+	 * Constructor for a scene faded frame by frame along an easing curve.
+	 *
+	 * @param durationMillis
+	 *            time until all channels have reached their target
+	 * @param easing
+	 *            null for the linear ramp of the firmware
+	 */
+	public Scene(long durationMillis, Easing easing) {
+		this.durationMillis = durationMillis;
+		this.easing = easing;
+	}
+
+	/**
+	 * Adds a channel with its target brightness between 0 and
+	 * Config.servo_PWM_steps.
+	 *
+	 * @param channel
+	 * @param brightness
+	 * @return this scene
+	 */
+	public Scene add(ExternallyDimmedLED channel, int brightness) {
+		targets.put(channel, brightness);
+		return this;
+	}
+
+	/**
+	 * Returns the target brightness per channel.
+	 *
+	 * @return
+	 */
+	public Map<ExternallyDimmedLED, Integer> getTargets() {
+		return Collections.unmodifiableMap(targets);
+	}
+
+	/**
+	 * Returns the duration of the scene in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getDuration() {
+		return durationMillis;
+	}
+
+	/**
+	 * Returns the easing curve, null for the linear ramp of the firmware.
+	 *
+	 * @return
+	 */
+	public Easing getEasing() {
+		return easing;
+	}
+}
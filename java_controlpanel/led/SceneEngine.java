@@ -0,0 +1,104 @@
+package led;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SceneEngine} plays {@link Scene}s on a single scheduler thread. The
+ * velocity of every channel is computed from the scene duration, so the
+ * firmware ramps all channels and no thread is needed per fade. Scenes with
+ * an {@link Easing} are faded by the firmware if the Servo Brick supports the
+ * easing, otherwise they are played frame by frame by the
+ * {@link FrameScheduler}.
+ *
+ * @author Ingo Kauffmann
+ */
+public class SceneEngine {
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Plays the eased scenes, null if only firmware ramps are supported
+	 */
+	private final FrameScheduler frames;
+
+	/**
+	 * Constructor for scenes faded by the firmware only
+	 */
+	public SceneEngine() {
+		this(null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param frames
+	 *            plays scenes with an easing curve
+	 */
+	public SceneEngine(FrameScheduler frames) {
+		this.frames = frames;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SceneEngine");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Plays a scene immediately.
+	 *
+	 * @param scene
+	 * @return
+	 */
+	public ScheduledFuture<?> play(Scene scene) {
+		return play(scene, 0);
+	}
+
+	/**
+	 * Plays a scene after delayMillis milliseconds. The returned future can
+	 * be used to cancel a scene which has not started yet.
+	 *
+	 * @param scene
+	 * @param delayMillis
+	 * @return
+	 */
+	public ScheduledFuture<?> play(final Scene scene, long delayMillis) {
+		return scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (Config.debug)
+					System.out.println("SceneEngine.play() " + scene.getTargets().size() + " channels in " + scene.getDuration() + " ms");
+				for (Map.Entry<ExternallyDimmedLED, Integer> target : scene.getTargets().entrySet()) {
+					ExternallyDimmedLED channel = target.getKey();
+					if (scene.getEasing() != null && channel.isEasingSupported(scene.getEasing())) {
+						if (frames != null)
+							frames.stop(channel);
+						channel.submitFade(target.getValue(), scene.getDuration(), scene.getEasing());
+					} else if (frames == null) {
+						channel.submitFade(target.getValue(), scene.getDuration());
+					} else if (scene.getEasing() == null) {
+						frames.stop(channel);
+						channel.submitFade(target.getValue(), scene.getDuration());
+					} else {
+						frames.play(channel, Effects.fade(channel.getDutyCycle() / (double) Config.servo_PWM_steps,
+								target.getValue() / (double) Config.servo_PWM_steps, scene.getDuration(), scene.getEasing()));
+					}
+				}
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the scheduler thread, scenes which have not started are dropped.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+}
@@ -0,0 +1,95 @@
+package led;
+
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickServoLED;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link ServoBatch} collects velocity and position writes of several outputs
+ * of one Servo Brick and transmits them as one set_positions request, so the
+ * outputs start moving in the same tick. A channel writes into the batch
+ * instead of the Servo Brick, if the batch belongs to its Servo Brick.
+ *
+ * A batch is used by a single thread.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ServoBatch {
+
+	private final BrickServoLED servo;
+
+	private short mask;
+	private final int[] velocity = new int[BrickServoLED.SERVO_NUM];
+	private final short[] position = new short[BrickServoLED.SERVO_NUM];
+
+	/**
+	 * Constructor
+	 *
+	 * @param servo
+	 */
+	public ServoBatch(BrickServoLED servo) {
+		this.servo = servo;
+	}
+
+	/**
+	 * Returns true if writes to the Servo Brick can be collected by this
+	 * batch.
+	 *
+	 * @param servo
+	 * @return
+	 */
+	public boolean accepts(BrickServo servo) {
+		return servo == this.servo;
+	}
+
+	/**
+	 * Sets velocity and position of an output, a previous write of the output
+	 * is replaced.
+	 *
+	 * @param servoNum
+	 * @param velocity
+	 * @param position
+	 */
+	public void set(short servoNum, int velocity, short position) {
+		mask |= 1 << servoNum;
+		this.velocity[servoNum] = velocity;
+		this.position[servoNum] = position;
+	}
+
+	/**
+	 * Returns true if no output was set.
+	 *
+	 * @return
+	 */
+	public boolean isEmpty() {
+		return mask == 0;
+	}
+
+	/**
+	 * Transmits the collected writes in one request and empties the batch.
+	 */
+	public void transmit() {
+		if (mask == 0)
+			return;
+		try {
+			servo.setPositions(mask, velocity, position);
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+		mask = 0;
+	}
+
+	/**
+	 * Returns a batch for a Servo Brick or null if its firmware does not
+	 * support set_positions.
+	 *
+	 * @param servo
+	 * @return
+	 */
+	public static ServoBatch forServo(BrickServo servo) {
+		if (servo instanceof BrickServoLED && ((BrickServoLED) servo).isSetPositionsSupported())
+			return new ServoBatch((BrickServoLED) servo);
+		return null;
+	}
+}
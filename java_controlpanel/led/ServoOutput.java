@@ -0,0 +1,157 @@
+package led;
+
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickServo.Degree;
+import com.tinkerforge.BrickServo.PulseWidth;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link ServoOutput} is the configuration of a single Servo Brick output as
+ * read back from the brick. On startup it is compared with the configuration
+ * of the channel, so only the settings which differ are written and a running
+ * output is not disturbed.
+ *
+ * @author Ingo Kauffmann
+ */
+public class ServoOutput {
+
+	/**
+	 * Reads the configuration of a servo output.
+	 *
+	 * @param servo
+	 * @param servoNum
+	 * @return
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	public static ServoOutput read(BrickServo servo, short servoNum) throws TimeoutException, NotConnectedException {
+		PulseWidth pulseWidth = servo.getPulseWidth(servoNum);
+		Degree degree = servo.getDegree(servoNum);
+		return new ServoOutput(servo.getPeriod(servoNum), pulseWidth.min, pulseWidth.max, degree.min, degree.max, servo.getAcceleration(servoNum),
+				servo.getVelocity(servoNum), servo.isEnabled(servoNum), servo.getPosition(servoNum));
+	}
+
+	private final int period;
+	private final int minPulseWidth;
+	private final int maxPulseWidth;
+	private final short minDegree;
+	private final short maxDegree;
+	private final int acceleration;
+	private final int velocity;
+	private final boolean enabled;
+	private final short position;
+
+	/**
+	 * Constructor
+	 *
+	 * @param period
+	 * @param minPulseWidth
+	 * @param maxPulseWidth
+	 * @param minDegree
+	 * @param maxDegree
+	 * @param acceleration
+	 * @param velocity
+	 * @param enabled
+	 * @param position
+	 */
+	public ServoOutput(int period, int minPulseWidth, int maxPulseWidth, short minDegree, short maxDegree, int acceleration, int velocity, boolean enabled,
+			short position) {
+		this.period = period;
+		this.minPulseWidth = minPulseWidth;
+		this.maxPulseWidth = maxPulseWidth;
+		this.minDegree = minDegree;
+		this.maxDegree = maxDegree;
+		this.acceleration = acceleration;
+		this.velocity = velocity;
+		this.enabled = enabled;
+		this.position = position;
+	}
+
+	/**
+	 * Returns the PWM period in microseconds.
+	 *
+	 * @return
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Returns the minimum pulse width in microseconds.
+	 *
+	 * @return
+	 */
+	public int getMinPulseWidth() {
+		return minPulseWidth;
+	}
+
+	/**
+	 * Returns the maximum pulse width in microseconds.
+	 *
+	 * @return
+	 */
+	public int getMaxPulseWidth() {
+		return maxPulseWidth;
+	}
+
+	/**
+	 * Returns the position of the minimum pulse width.
+	 *
+	 * @return
+	 */
+	public short getMinDegree() {
+		return minDegree;
+	}
+
+	/**
+	 * Returns the position of the maximum pulse width.
+	 *
+	 * @return
+	 */
+	public short getMaxDegree() {
+		return maxDegree;
+	}
+
+	/**
+	 * Returns the acceleration, 0xFFFF is immediate.
+	 *
+	 * @return
+	 */
+	public int getAcceleration() {
+		return acceleration;
+	}
+
+	/**
+	 * Returns the velocity in positions per second.
+	 *
+	 * @return
+	 */
+	public int getVelocity() {
+		return velocity;
+	}
+
+	/**
+	 * Returns true if the output is enabled.
+	 *
+	 * @return
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Returns the position set last.
+	 *
+	 * @return
+	 */
+	public short getPosition() {
+		return position;
+	}
+
+	@Override
+	public String toString() {
+		return "ServoOutput [period=" + period + ", pulseWidth=" + minPulseWidth + ".." + maxPulseWidth + ", degree=" + minDegree + ".." + maxDegree
+				+ ", acceleration=" + acceleration + ", velocity=" + velocity + ", enabled=" + enabled + ", position=" + position + "]";
+	}
+}
@@ -2,350 +2,236 @@ package led;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.util.List;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSlider;
 import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.border.TitledBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 /**
- * {@link SimpleControl} displays a slider for every LED channel
- * 
+ * {@link SimpleControl} displays a slider for every LED channel. Slider and
+ * text field of each channel are bound by a {@link ChannelViewModel}, changes
+ * are rendered at most once per frame.
+ *
+ * The channels are laid out in a horizontally scrolling row of fixed size
+ * slots. The panel of a channel is only built once its slot is scrolled into
+ * view, so a large number of channels does not slow down the start, and only
+ * the built panels are refreshed and rendered.
+ *
  * @author Ingo Kauffmann
  * @version 1.0
  */
 @SuppressWarnings("serial")
-public class SimpleControl extends JPanel implements ChangeListener {
+public class SimpleControl extends JPanel {
 
-	private final ExternallyDimmedLED r;
-	private final ExternallyDimmedLED g;
-	private final ExternallyDimmedLED b;
-	private final InternallyDimmedLED w;
-	private final InternallyDimmedLED t;
+	/**
+	 * Size of the slot of one channel
+	 */
+	private static final Dimension SLOT_SIZE = new Dimension(100, 300);
+
+	private final List<ExternallyDimmedLED> channels;
 
-	private JSlider rSlider;
-	private JSlider gSlider;
-	private JSlider bSlider;
-	private JSlider wSlider;
-	private JSlider tSlider;
+	/**
+	 * Slots of the channels and models of the built panels, null until the
+	 * slot was visible
+	 */
+	private final JPanel[] slots;
+	private final ChannelViewModel[] models;
 
-	private JTextField rField;
-	private JTextField gField;
-	private JTextField bField;
-	private JTextField wField;
-	private JTextField tField;
+	private final JScrollPane scrollPane;
 
 	/**
-	 * Constructor
-	 * 
-	 * @param r
-	 * @param g
-	 * @param b
-	 * @param w
-	 * @param t
+	 * Renders the pending changes once per frame
 	 */
-	public SimpleControl(ExternallyDimmedLED r, ExternallyDimmedLED g, ExternallyDimmedLED b, InternallyDimmedLED w, InternallyDimmedLED t) {
-		this.r = r;
-		this.g = g;
-		this.b = b;
-		this.w = w;
-		this.t = t;
+	private final Timer renderTimer;
 
-		/**
-		 * Setting up the text fields for manual input
-		 */
-		rField = new JTextField(2);
-		rField.setHorizontalAlignment(JTextField.TRAILING);
-		gField = new JTextField(2);
-		gField.setHorizontalAlignment(JTextField.TRAILING);
-		bField = new JTextField(2);
-		bField.setHorizontalAlignment(JTextField.TRAILING);
-		wField = new JTextField(2);
-		wField.setHorizontalAlignment(JTextField.TRAILING);
-		tField = new JTextField(2);
-		tField.setHorizontalAlignment(JTextField.TRAILING);
+	/**
+	 * Constructor
+	 *
+	 * @param channels
+	 *            channels in display order
+	 */
+	public SimpleControl(List<ExternallyDimmedLED> channels) {
+		this.channels = channels;
+		slots = new JPanel[channels.size()];
+		models = new ChannelViewModel[channels.size()];
+
+		JPanel row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = new JPanel(new BorderLayout());
+			slots[i].setPreferredSize(SLOT_SIZE);
+			slots[i].setMinimumSize(SLOT_SIZE);
+			slots[i].setMaximumSize(SLOT_SIZE);
+			row.add(slots[i]);
+		}
 
+		scrollPane = new JScrollPane(row, JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+		scrollPane.setBorder(BorderFactory.createEmptyBorder());
+		scrollPane.getHorizontalScrollBar().setUnitIncrement(SLOT_SIZE.width / 4);
 		/**
-		 * KeyListener to detect [Enter] strokes
+		 * Builds the panels scrolled into view
 		 */
-		KeyListener kl = new KeyListener() {
+		scrollPane.getViewport().addChangeListener(new ChangeListener() {
 			@Override
-			public void keyTyped(KeyEvent e) {
-				if (e.getKeyChar() == (char) 10) {
-					if (e.getSource().equals(rField)) {
-						SimpleControl.this.rSlider.setValue(Integer.valueOf(rField.getText()));
-					} else if (e.getSource().equals(gField)) {
-						SimpleControl.this.gSlider.setValue(Integer.valueOf(gField.getText()));
-					} else if (e.getSource().equals(bField)) {
-						SimpleControl.this.bSlider.setValue(Integer.valueOf(bField.getText()));
-					} else if (e.getSource().equals(wField)) {
-						SimpleControl.this.wSlider.setValue(Integer.valueOf(wField.getText()));
-					} else if (e.getSource().equals(tField)) {
-						SimpleControl.this.tSlider.setValue(Integer.valueOf(tField.getText()));
-					}
-				}
+			public void stateChanged(ChangeEvent e) {
+				buildVisible();
 			}
+		});
+		setLayout(new BorderLayout());
+		add(scrollPane, BorderLayout.CENTER);
 
+		renderTimer = new Timer(1000 / Config.frame_rate, new ActionListener() {
 			@Override
-			public void keyReleased(KeyEvent e) {
+			public void actionPerformed(ActionEvent e) {
+				render();
 			}
+		});
+		renderTimer.setRepeats(false);
+		renderTimer.setCoalesce(true);
 
+		/**
+		 * Reads the channels when switching tabs
+		 */
+		addComponentListener(new ComponentAdapter() {
 			@Override
-			public void keyPressed(KeyEvent e) {
+			public void componentShown(ComponentEvent e) {
+				refresh();
 			}
-		};
+		});
+	}
 
-		rField.addKeyListener(kl);
-		gField.addKeyListener(kl);
-		bField.addKeyListener(kl);
-		wField.addKeyListener(kl);
-		tField.addKeyListener(kl);
+	/**
+	 * Builds the panels of the slots intersecting the viewport.
+	 */
+	private void buildVisible() {
+		Rectangle view = scrollPane.getViewport().getViewRect();
+		if (view.width == 0)
+			return;
+		int first = Math.max(0, view.x / SLOT_SIZE.width);
+		int last = Math.min(slots.length - 1, (view.x + view.width) / SLOT_SIZE.width);
+		boolean built = false;
+		for (int i = first; i <= last; i++) {
+			if (models[i] == null) {
+				build(i);
+				built = true;
+			}
+		}
+		if (built)
+			scrollPane.getViewport().getView().validate();
+	}
 
-		setLayout(new GridBagLayout());
-		GridBagConstraints c = new GridBagConstraints();
+	/**
+	 * Builds the panel of a channel into its slot. The listeners are bound to
+	 * the model of the channel.
+	 *
+	 * @param index
+	 */
+	private void build(int index) {
+		ExternallyDimmedLED channel = channels.get(index);
+		int pos = Math.max(0, Math.min(Config.servo_PWM_steps, channel.getDutyCycle()));
+		final JSlider slider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
+		slider.setPreferredSize(new Dimension(50, 250));
+		slider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
+		slider.setMinorTickSpacing(1);
+		slider.setPaintTicks(true);
+		slider.setPaintLabels(true);
 
 		/**
-		 * Setting up all 5 sliders
+		 * Text field for manual input
 		 */
-		int pos = r.getDutyCycle();
-		assert (pos < 0 || pos > Config.servo_PWM_steps);
-		rSlider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
-		rSlider.setPreferredSize(new Dimension(50, 250));
-		rSlider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
-		rSlider.setMinorTickSpacing(1);
-		rSlider.setPaintTicks(true);
-		rSlider.setPaintLabels(true);
-		rSlider.addChangeListener(this);
-		rField.setText("" + pos);
-
-		JPanel rPanel = new JPanel();
-		rPanel.setLayout(new BoxLayout(rPanel, BoxLayout.Y_AXIS));
-		rPanel.setPreferredSize(new Dimension(100, 300));
-		rPanel.setSize(rPanel.getPreferredSize());
-		rPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createTitledBorder(r.getName()), BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-		rPanel.add(rSlider);
-		rPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-		JPanel p = new JPanel();
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.WEST);
-		p.add(rField);
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.EAST);
-		rPanel.add(p);
-
-		c.gridx = 1;
-
-		add(rPanel, c);
-
-		pos = g.getDutyCycle();
-		assert (pos < 0 || pos > Config.servo_PWM_steps);
-		gSlider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
-		gSlider.setPreferredSize(new Dimension(50, 250));
-		gSlider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
-		gSlider.setMinorTickSpacing(1);
-		gSlider.setPaintTicks(true);
-		gSlider.setPaintLabels(true);
-		gSlider.addChangeListener(this);
-		gField.setText("" + pos);
-
-		JPanel gPanel = new JPanel();
-		gPanel.setLayout(new BoxLayout(gPanel, BoxLayout.Y_AXIS));
-		gPanel.setPreferredSize(new Dimension(100, 300));
-		gPanel.setSize(gPanel.getPreferredSize());
-		gPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createTitledBorder(g.getName()), BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-		gPanel.add(gSlider);
-		gPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-		p = new JPanel();
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.WEST);
-		p.add(gField);
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.EAST);
-		gPanel.add(p);
-
-		c.gridx = 2;
-
-		add(gPanel, c);
-
-		pos = b.getDutyCycle();
-		assert (pos < 0 || pos > Config.servo_PWM_steps);
-		bSlider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
-		bSlider.setPreferredSize(new Dimension(50, 250));
-		bSlider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
-		bSlider.setMinorTickSpacing(1);
-		bSlider.setPaintTicks(true);
-		bSlider.setPaintLabels(true);
-		bSlider.addChangeListener(this);
-		bField.setText("" + pos);
-
-		JPanel bPanel = new JPanel();
-		bPanel.setLayout(new BoxLayout(bPanel, BoxLayout.Y_AXIS));
-		bPanel.setPreferredSize(new Dimension(100, 300));
-		bPanel.setSize(bPanel.getPreferredSize());
-		bPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createTitledBorder(b.getName()), BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-		bPanel.add(bSlider);
-		bPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-		p = new JPanel();
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.WEST);
-		p.add(bField);
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.EAST);
-		bPanel.add(p);
-
-		c.gridx = 3;
-
-		add(bPanel, c);
-
-		pos = w.getDutyCycle();
-		assert (pos < 0 || pos > Config.servo_PWM_steps);
-		wSlider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
-		wSlider.setPreferredSize(new Dimension(50, 250));
-		wSlider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
-		wSlider.setMinorTickSpacing(1);
-		wSlider.setPaintTicks(true);
-		wSlider.setPaintLabels(true);
-		wSlider.addChangeListener(this);
-		wField.setText("" + pos);
+		JTextField field = new JTextField(2);
+		field.setHorizontalAlignment(JTextField.TRAILING);
 
-		JPanel wPanel = new JPanel();
-		wPanel.setLayout(new BoxLayout(wPanel, BoxLayout.Y_AXIS));
-		wPanel.setPreferredSize(new Dimension(100, 300));
-		wPanel.setSize(wPanel.getPreferredSize());
-		wPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createTitledBorder(w.getName()), BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-		wPanel.add(wSlider);
-		wPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-		p = new JPanel();
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.WEST);
-		p.add(wField);
-		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.EAST);
-		wPanel.add(p);
-
-		c.gridx = 4;
+		TitledBorder border = BorderFactory.createTitledBorder(channel.getName());
+		final ChannelViewModel model = new ChannelViewModel(channel, slider, field, border);
 
-		add(wPanel, c);
-
-		pos = t.getDutyCycle();
-		assert (pos < 0 || pos > Config.servo_PWM_steps);
-		tSlider = new JSlider(JSlider.VERTICAL, 0, Config.servo_PWM_steps, pos);
-		tSlider.setPreferredSize(new Dimension(50, 250));
-		tSlider.setMajorTickSpacing(Config.servo_PWM_steps / 4);
-		tSlider.setMinorTickSpacing(1);
-		tSlider.setPaintTicks(true);
-		tSlider.setPaintLabels(true);
-		tSlider.addChangeListener(this);
-		tField.setText("" + pos);
+		slider.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				if (model.sliderChanged())
+					scheduleRender();
+			}
+		});
+		/** [Enter] in the text field */
+		field.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				model.fieldEntered();
+			}
+		});
+		slider.addMouseWheelListener(new MouseWheelListener() {
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				slider.setValue(slider.getValue() - e.getWheelRotation() * e.getScrollAmount());
+			}
+		});
 
-		JPanel tPanel = new JPanel();
-		tPanel.setLayout(new BoxLayout(tPanel, BoxLayout.Y_AXIS));
-		tPanel.setPreferredSize(new Dimension(100, 300));
-		tPanel.setSize(tPanel.getPreferredSize());
-		tPanel.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createTitledBorder(t.getName()), BorderFactory.createEmptyBorder(5, 5, 5, 5)));
-		tPanel.add(tSlider);
-		tPanel.add(Box.createRigidArea(new Dimension(0, 5)));
-		p = new JPanel();
+		JPanel panel = new JPanel();
+		panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		panel.setBorder(BorderFactory.createCompoundBorder(border, BorderFactory.createEmptyBorder(5, 5, 5, 5)));
+		panel.add(slider);
+		panel.add(Box.createRigidArea(new Dimension(0, 5)));
+		JPanel p = new JPanel();
 		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.WEST);
-		p.add(tField);
+		p.add(field);
 		p.add(Box.createRigidArea(new Dimension(2, 5)), BorderLayout.EAST);
-		tPanel.add(p);
-
-		c.gridx = 5;
-
-		add(tPanel, c);
+		panel.add(p);
 
-		/**
-		 * Adding a MouseWheelListener to the sliders
-		 */
-		MouseWheelListener mwl = new MouseWheelListener() {
-
-			@Override
-			public void mouseWheelMoved(MouseWheelEvent e) {
-				if (e.getSource() instanceof JSlider) {
-					JSlider slider = (JSlider) e.getSource();
-					int notches = e.getWheelRotation();
-					if (slider.equals(rSlider)) {
-						rSlider.setValue(rSlider.getValue() - notches * e.getScrollAmount());
-					} else if (slider.equals(gSlider)) {
-						gSlider.setValue(gSlider.getValue() - notches * e.getScrollAmount());
-					} else if (slider.equals(bSlider)) {
-						bSlider.setValue(bSlider.getValue() - notches * e.getScrollAmount());
-					} else if (slider.equals(wSlider)) {
-						wSlider.setValue(wSlider.getValue() - notches * e.getScrollAmount());
-					} else if (slider.equals(tSlider)) {
-						tSlider.setValue(tSlider.getValue() - notches * e.getScrollAmount());
-					}
-				}
-			}
-		};
-		rSlider.addMouseWheelListener(mwl);
-		gSlider.addMouseWheelListener(mwl);
-		bSlider.addMouseWheelListener(mwl);
-		wSlider.addMouseWheelListener(mwl);
-		tSlider.addMouseWheelListener(mwl);
+		slots[index].add(panel, BorderLayout.CENTER);
+		models[index] = model;
+		model.render();
 	}
 
 	/**
-	 * Updates the {@link JSlider} and {@link JTextField} when switching tabs.
+	 * Reads the brightness of all built channels and renders the changes
+	 * with the next frame. Called on the event dispatch thread.
 	 */
-	@Override
-	public void repaint() {
-		if (rSlider != null) {
-			rSlider.setValue(r.getDutyCycle());
-			rField.setText("" + r.getDutyCycle());
-			gSlider.setValue(g.getDutyCycle());
-			gField.setText("" + g.getDutyCycle());
-			bSlider.setValue(b.getDutyCycle());
-			bField.setText("" + b.getDutyCycle());
-			wSlider.setValue(w.getDutyCycle());
-			wField.setText("" + w.getDutyCycle());
-			tSlider.setValue(t.getDutyCycle());
-			tField.setText("" + t.getDutyCycle());
+	public void refresh() {
+		boolean changed = false;
+		for (ChannelViewModel model : models) {
+			if (model != null)
+				changed |= model.pull();
 		}
-		super.repaint();
+		if (changed)
+			scheduleRender();
 	}
 
 	/**
-	 * Detects changes in the {@link JSlider} and modifies the brightness value
-	 * of the LEDs
+	 * Renders the pending changes with the next frame, further changes until
+	 * then are rendered together.
 	 */
-	@Override
-	public void stateChanged(ChangeEvent e) {
-		JSlider slider = (JSlider) e.getSource();
-		if (slider.equals(rSlider)) {
-			if (!slider.getValueIsAdjusting()) {
-				r.setBrightness(slider.getValue());
-			}
-			rField.setText("" + slider.getValue());
-		} else if (slider.equals(gSlider)) {
-			if (!slider.getValueIsAdjusting()) {
-				g.setBrightness(slider.getValue());
-			}
-
-			gField.setText("" + slider.getValue());
-		} else if (slider.equals(bSlider)) {
-			if (!slider.getValueIsAdjusting()) {
-				b.setBrightness(slider.getValue());
-			}
-
-			bField.setText("" + slider.getValue());
-		} else if (slider.equals(wSlider)) {
-			if (!slider.getValueIsAdjusting()) {
-				w.setBrightness(slider.getValue());
-			}
-
-			wField.setText("" + slider.getValue());
-		} else if (slider.equals(tSlider)) {
-			if (!slider.getValueIsAdjusting()) {
-				t.setBrightness(slider.getValue());
-			}
+	private void scheduleRender() {
+		if (!renderTimer.isRunning())
+			renderTimer.start();
+	}
 
-			tField.setText("" + slider.getValue());
-		} else {
-			return;
+	/**
+	 * Updates the {@link JSlider}s, {@link JTextField}s and titles which
+	 * differ from their model.
+	 */
+	private void render() {
+		boolean titles = false;
+		for (ChannelViewModel model : models) {
+			if (model != null)
+				titles |= model.render();
 		}
+		if (titles)
+			repaint();
 	}
 }
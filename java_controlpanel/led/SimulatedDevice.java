@@ -0,0 +1,89 @@
+package led;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Brick or Bricklet simulated by the {@link BrickdSimulator}.
+ *
+ * @author Ingo Kauffmann
+ */
+public abstract class SimulatedDevice {
+
+	protected final BrickdSimulator simulator;
+
+	private final String uid;
+	private final long numericUid;
+	private final String connectedUid;
+	private final char position;
+
+	/**
+	 * Constructor
+	 *
+	 * @param simulator
+	 * @param uid
+	 * @param connectedUid
+	 * @param position
+	 */
+	protected SimulatedDevice(BrickdSimulator simulator, String uid, String connectedUid, char position) {
+		this.simulator = simulator;
+		this.uid = uid;
+		this.numericUid = BrickdSimulator.decodeUid(uid);
+		this.connectedUid = connectedUid;
+		this.position = position;
+	}
+
+	/**
+	 * Handles a request.
+	 *
+	 * @param functionId
+	 * @param request
+	 *            little endian request payload
+	 * @param response
+	 *            little endian response payload, empty for setters
+	 * @return false, if the function is not supported
+	 * @throws IllegalArgumentException
+	 *             if a parameter is invalid
+	 */
+	protected abstract boolean handle(int functionId, ByteBuffer request, ByteBuffer response);
+
+	/**
+	 * Advances the simulated firmware.
+	 *
+	 * @param seconds
+	 *            time since the last tick
+	 */
+	protected void tick(double seconds) {
+	}
+
+	/**
+	 * Returns the device identifier used in the enumeration.
+	 *
+	 * @return
+	 */
+	public abstract int getDeviceIdentifier();
+
+	/**
+	 * Returns the firmware version used in the enumeration.
+	 *
+	 * @return
+	 */
+	public byte[] getFirmwareVersion() {
+		return new byte[] { 2, 0, 0 };
+	}
+
+	public String getUid() {
+		return uid;
+	}
+
+	public long getNumericUid() {
+		return numericUid;
+	}
+
+	public String getConnectedUid() {
+		return connectedUid;
+	}
+
+	public char getPosition() {
+		return position;
+	}
+}
@@ -0,0 +1,80 @@
+package led;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Simulated DualRelay Bricklet
+ *
+ * @author Ingo Kauffmann
+ */
+public class SimulatedDualRelay extends SimulatedDevice {
+
+	static final int DEVICE_IDENTIFIER = 26;
+
+	static final int FUNCTION_SET_STATE = 1;
+	static final int FUNCTION_GET_STATE = 2;
+	static final int FUNCTION_SET_SELECTED_STATE = 6;
+
+	private volatile boolean relay1;
+	private volatile boolean relay2;
+	private volatile long switches;
+
+	SimulatedDualRelay(BrickdSimulator simulator, String uid, String connectedUid, char position) {
+		super(simulator, uid, connectedUid, position);
+	}
+
+	@Override
+	protected synchronized boolean handle(int functionId, ByteBuffer request, ByteBuffer response) {
+		switch (functionId) {
+		case FUNCTION_SET_STATE:
+			setState(request.get() != 0, request.get() != 0);
+			return true;
+		case FUNCTION_GET_STATE:
+			response.put((byte) (relay1 ? 1 : 0));
+			response.put((byte) (relay2 ? 1 : 0));
+			return true;
+		case FUNCTION_SET_SELECTED_STATE:
+			int relay = request.get() & 0xFF;
+			boolean state = request.get() != 0;
+			if (relay == 1) {
+				setState(state, relay2);
+			} else if (relay == 2) {
+				setState(relay1, state);
+			} else {
+				throw new IllegalArgumentException("Invalid relay " + relay);
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void setState(boolean relay1, boolean relay2) {
+		if (relay1 != this.relay1 || relay2 != this.relay2)
+			switches++;
+		this.relay1 = relay1;
+		this.relay2 = relay2;
+	}
+
+	public boolean getRelay1() {
+		return relay1;
+	}
+
+	public boolean getRelay2() {
+		return relay2;
+	}
+
+	/**
+	 * Returns the number of times a relay changed its state.
+	 *
+	 * @return
+	 */
+	public long getSwitches() {
+		return switches;
+	}
+
+	@Override
+	public int getDeviceIdentifier() {
+		return DEVICE_IDENTIFIER;
+	}
+}
@@ -0,0 +1,123 @@
+package led;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Simulated IO4 Bricklet. Inputs are changed with {@link #setInput(int, boolean)}
+ * to emulate a wall switch.
+ *
+ * @author Ingo Kauffmann
+ */
+public class SimulatedIO4 extends SimulatedDevice {
+
+	static final int DEVICE_IDENTIFIER = 29;
+
+	static final int FUNCTION_SET_VALUE = 1;
+	static final int FUNCTION_GET_VALUE = 2;
+	static final int FUNCTION_SET_CONFIGURATION = 3;
+	static final int FUNCTION_GET_CONFIGURATION = 4;
+	static final int FUNCTION_SET_DEBOUNCE_PERIOD = 5;
+	static final int FUNCTION_GET_DEBOUNCE_PERIOD = 6;
+	static final int FUNCTION_SET_INTERRUPT = 7;
+	static final int FUNCTION_GET_INTERRUPT = 8;
+	static final int CALLBACK_INTERRUPT = 9;
+
+	/**
+	 * Bit set = input
+	 */
+	private int directionMask = 0x0F;
+	private int valueMask = 0x0F;
+	private int interruptMask;
+	private long debouncePeriod = 100;
+
+	SimulatedIO4(BrickdSimulator simulator, String uid, String connectedUid, char position) {
+		super(simulator, uid, connectedUid, position);
+	}
+
+	@Override
+	protected synchronized boolean handle(int functionId, ByteBuffer request, ByteBuffer response) {
+		switch (functionId) {
+		case FUNCTION_SET_VALUE:
+			int value = request.get() & 0x0F;
+			valueMask = (valueMask & directionMask) | (value & ~directionMask);
+			return true;
+		case FUNCTION_GET_VALUE:
+			response.put((byte) valueMask);
+			return true;
+		case FUNCTION_SET_CONFIGURATION:
+			int selection = request.get() & 0x0F;
+			char direction = (char) request.get();
+			boolean high = request.get() != 0;
+			if (direction == 'i') {
+				directionMask |= selection;
+			} else if (direction == 'o') {
+				directionMask &= ~selection;
+			} else {
+				throw new IllegalArgumentException("Invalid direction " + direction);
+			}
+			valueMask = high ? valueMask | selection : valueMask & ~selection;
+			return true;
+		case FUNCTION_GET_CONFIGURATION:
+			response.put((byte) directionMask);
+			response.put((byte) valueMask);
+			return true;
+		case FUNCTION_SET_DEBOUNCE_PERIOD:
+			debouncePeriod = request.getInt() & 0xFFFFFFFFL;
+			return true;
+		case FUNCTION_GET_DEBOUNCE_PERIOD:
+			response.putInt((int) debouncePeriod);
+			return true;
+		case FUNCTION_SET_INTERRUPT:
+			interruptMask = request.get() & 0x0F;
+			return true;
+		case FUNCTION_GET_INTERRUPT:
+			response.put((byte) interruptMask);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Changes an input pin and sends the interrupt callback if enabled. The
+	 * pins are pulled up, a closed switch pulls them low.
+	 *
+	 * @param pin
+	 * @param high
+	 */
+	public void setInput(int pin, boolean high) {
+		int bit = 1 << pin;
+		int changed;
+		int values;
+		synchronized (this) {
+			if ((directionMask & bit) == 0)
+				return;
+			int old = valueMask;
+			valueMask = high ? valueMask | bit : valueMask & ~bit;
+			changed = (old ^ valueMask) & interruptMask;
+			values = valueMask;
+		}
+		if (changed != 0) {
+			ByteBuffer payload = BrickdSimulator.payload();
+			payload.put((byte) changed);
+			payload.put((byte) values);
+			payload.flip();
+			simulator.callback(this, CALLBACK_INTERRUPT, payload);
+		}
+	}
+
+	/**
+	 * Returns the state of an input pin.
+	 *
+	 * @param pin
+	 * @return
+	 */
+	public synchronized boolean getInput(int pin) {
+		return (valueMask & (1 << pin)) != 0;
+	}
+
+	@Override
+	public int getDeviceIdentifier() {
+		return DEVICE_IDENTIFIER;
+	}
+}
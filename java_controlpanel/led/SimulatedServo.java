@@ -0,0 +1,544 @@
+package led;
+
+import java.nio.ByteBuffer;
+
+import com.tinkerforge.BrickServoLED;
+
+/**
+ * Simulated Servo Brick with the modified LED firmware. Every output ramps to
+ * its goal with the configured velocity and sends the PositionReached
+ * callback on arrival. As in servo.c, servo 3 and 4 store the position as dim
+ * set point, which is approached while the corresponding wall switch input of
+ * the IO4 Bricklet is pulled low and left towards 0 otherwise. A fade
+ * interpolates the lightness along the easing of the dimming mode and sets
+ * the position every tick, the PositionReached callback is sent at its end.
+ *
+ * @author Ingo Kauffmann
+ */
+public class SimulatedServo extends SimulatedDevice {
+
+	static final int DEVICE_IDENTIFIER = 14;
+
+	/** Function IDs from software/src/communication.h */
+	static final int FID_ENABLE = 1;
+	static final int FID_DISABLE = 2;
+	static final int FID_IS_ENABLED = 3;
+	static final int FID_SET_POSITION = 4;
+	static final int FID_GET_POSITION = 5;
+	static final int FID_GET_CURRENT_POSITION = 6;
+	static final int FID_SET_VELOCITY = 7;
+	static final int FID_GET_VELOCITY = 8;
+	static final int FID_GET_CURRENT_VELOCITY = 9;
+	static final int FID_SET_ACCELERATION = 10;
+	static final int FID_GET_ACCELERATION = 11;
+	static final int FID_SET_OUTPUT_VOLTAGE = 12;
+	static final int FID_GET_OUTPUT_VOLTAGE = 13;
+	static final int FID_SET_PULSE_WIDTH = 14;
+	static final int FID_GET_PULSE_WIDTH = 15;
+	static final int FID_SET_DEGREE = 16;
+	static final int FID_GET_DEGREE = 17;
+	static final int FID_SET_PERIOD = 18;
+	static final int FID_GET_PERIOD = 19;
+	static final int FID_GET_SERVO_CURRENT = 20;
+	static final int FID_GET_OVERALL_CURRENT = 21;
+	static final int FID_GET_STACK_INPUT_VOLTAGE = 22;
+	static final int FID_GET_EXTERNAL_INPUT_VOLTAGE = 23;
+	static final int FID_SET_MINIMUM_VOLTAGE = 24;
+	static final int FID_GET_MINIMUM_VOLTAGE = 25;
+	static final int FID_POSITION_REACHED = 27;
+	static final int FID_ENABLE_POSITION_REACHED_CALLBACK = 29;
+	static final int FID_DISABLE_POSITION_REACHED_CALLBACK = 30;
+	static final int FID_IS_POSITION_REACHED_CALLBACK_ENABLED = 31;
+	static final int FID_ENABLE_VELOCITY_REACHED_CALLBACK = 32;
+	static final int FID_DISABLE_VELOCITY_REACHED_CALLBACK = 33;
+	static final int FID_IS_VELOCITY_REACHED_CALLBACK_ENABLED = 34;
+	static final int FID_SET_POSITIONS = 35;
+	static final int FID_SET_DIMMING_MODE = 36;
+	static final int FID_GET_DIMMING_MODE = 37;
+	static final int FID_FADE = 38;
+
+	static final int SERVO_NUM = BrickServoLED.SERVO_NUM;
+	static final int SERVO_BIT_MODE = 1 << 7;
+
+	/**
+	 * Current drawn by a fully dimmed up output in mA
+	 */
+	private static final int SERVO_MAX_CURRENT = 300;
+
+	/**
+	 * Easings by firmware code, see SERVO_EASING_* in software/src/servo.h
+	 */
+	private static final Easing[] EASINGS = { Easing.LINEAR, Easing.EASE_IN_OUT, Easing.EXPONENTIAL };
+	private static final int CURVE_LINEAR = 0;
+	private static final int CURVE_GAMMA = 1;
+	private static final int CURVE_CIE = 2;
+
+	private final boolean[] enabled = new boolean[SERVO_NUM];
+	private final double[] position = new double[SERVO_NUM];
+	private final int[] goal = new int[SERVO_NUM];
+	private final short[] positionOrig = new short[SERVO_NUM];
+	private final int[] velocity = new int[SERVO_NUM];
+	private final int[] acceleration = new int[SERVO_NUM];
+	private final int[] minPulseWidth = new int[SERVO_NUM];
+	private final int[] maxPulseWidth = new int[SERVO_NUM];
+	private final short[] minDegree = new short[SERVO_NUM];
+	private final short[] maxDegree = new short[SERVO_NUM];
+	private final int[] period = new int[SERVO_NUM];
+
+	/**
+	 * Dim set points of servo 3 and 4
+	 */
+	private final short[] setPoint34 = { 25, 75 };
+
+	/**
+	 * Dimming mode and running fades, lightness between 0 and 1
+	 */
+	private final int[] fadeEasing = new int[SERVO_NUM];
+	private final int[] fadeCurve = new int[SERVO_NUM];
+	private final boolean[] fading = new boolean[SERVO_NUM];
+	private final boolean[] fadeJump = new boolean[SERVO_NUM];
+	private final double[] fadeElapsed = new double[SERVO_NUM];
+	private final long[] fadeDuration = new long[SERVO_NUM];
+	private final double[] fadeFrom = new double[SERVO_NUM];
+	private final double[] fadeTo = new double[SERVO_NUM];
+	private final short[] fadePosition = new short[SERVO_NUM];
+
+	private int outputVoltage = 5000;
+	private int minimumVoltage = 5000;
+	private boolean positionReachedCallbackEnabled;
+	private boolean velocityReachedCallbackEnabled;
+
+	private SimulatedIO4 wallSwitch;
+
+	SimulatedServo(BrickdSimulator simulator, String uid, String connectedUid, char position) {
+		super(simulator, uid, connectedUid, position);
+		for (int i = 0; i < SERVO_NUM; i++) {
+			/** Startup values of servo.h */
+			velocity[i] = 0x0014;
+			acceleration[i] = 0xFFFF;
+			minPulseWidth[i] = 1;
+			maxPulseWidth[i] = 1000;
+			minDegree[i] = 0;
+			maxDegree[i] = 100;
+			period[i] = 1000;
+			enabled[i] = i < 5;
+		}
+	}
+
+	/**
+	 * Connects the IO4 Bricklet whose pins 0 and 1 switch servo 3 and 4.
+	 *
+	 * @param wallSwitch
+	 */
+	public synchronized void setWallSwitch(SimulatedIO4 wallSwitch) {
+		this.wallSwitch = wallSwitch;
+	}
+
+	/**
+	 * Returns the current position of a servo output.
+	 *
+	 * @param servo
+	 * @return
+	 */
+	public synchronized short getCurrentPosition(int servo) {
+		return (short) Math.round(position[servo]);
+	}
+
+	/**
+	 * Returns the goal position of a servo output.
+	 *
+	 * @param servo
+	 * @return
+	 */
+	public synchronized int getGoal(int servo) {
+		return goal[servo];
+	}
+
+	@Override
+	protected synchronized boolean handle(int functionId, ByteBuffer request, ByteBuffer response) {
+		switch (functionId) {
+		case FID_ENABLE: {
+			int mask = servoMask(request.get());
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					enabled[i] = true;
+			}
+			return true;
+		}
+		case FID_DISABLE: {
+			int mask = servoMask(request.get());
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					enabled[i] = false;
+			}
+			return true;
+		}
+		case FID_IS_ENABLED:
+			response.put((byte) (enabled[servo(request.get())] ? 1 : 0));
+			return true;
+		case FID_SET_POSITION: {
+			int mask = servoMask(request.get());
+			short value = request.getShort();
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					setPosition(i, value);
+			}
+			return true;
+		}
+		case FID_GET_POSITION: {
+			int servo = servo(request.get());
+			response.putShort(servo == 3 || servo == 4 ? setPoint34[servo - 3] : positionOrig[servo]);
+			return true;
+		}
+		case FID_GET_CURRENT_POSITION:
+			response.putShort(getCurrentPosition(servo(request.get())));
+			return true;
+		case FID_SET_VELOCITY: {
+			int mask = servoMask(request.get());
+			int value = request.getShort() & 0xFFFF;
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					velocity[i] = value;
+			}
+			return true;
+		}
+		case FID_GET_VELOCITY:
+			response.putShort((short) velocity[servo(request.get())]);
+			return true;
+		case FID_GET_CURRENT_VELOCITY: {
+			int servo = servo(request.get());
+			response.putShort((short) (goal[servo] != position[servo] ? velocity[servo] : 0));
+			return true;
+		}
+		case FID_SET_ACCELERATION: {
+			int mask = servoMask(request.get());
+			int value = request.getShort() & 0xFFFF;
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					acceleration[i] = value;
+			}
+			return true;
+		}
+		case FID_GET_ACCELERATION:
+			response.putShort((short) acceleration[servo(request.get())]);
+			return true;
+		case FID_SET_OUTPUT_VOLTAGE:
+			outputVoltage = request.getShort() & 0xFFFF;
+			return true;
+		case FID_GET_OUTPUT_VOLTAGE:
+			response.putShort((short) outputVoltage);
+			return true;
+		case FID_SET_PULSE_WIDTH: {
+			int mask = servoMask(request.get());
+			int min = request.getShort() & 0xFFFF;
+			int max = request.getShort() & 0xFFFF;
+			if (max < min)
+				throw new IllegalArgumentException("Invalid pulse width");
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0) {
+					minPulseWidth[i] = min;
+					maxPulseWidth[i] = max;
+				}
+			}
+			return true;
+		}
+		case FID_GET_PULSE_WIDTH: {
+			int servo = servo(request.get());
+			response.putShort((short) minPulseWidth[servo]);
+			response.putShort((short) maxPulseWidth[servo]);
+			return true;
+		}
+		case FID_SET_DEGREE: {
+			int mask = servoMask(request.get());
+			short min = request.getShort();
+			short max = request.getShort();
+			if (min > max)
+				throw new IllegalArgumentException("Invalid degree");
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0) {
+					/** Like servo_update_data() the position values are kept, so the duty cycle changes */
+					minDegree[i] = min;
+					maxDegree[i] = max;
+					position[i] = Math.max(min, Math.min(max, position[i]));
+					goal[i] = Math.max(min, Math.min(max, positionOrig[i]));
+				}
+			}
+			return true;
+		}
+		case FID_GET_DEGREE: {
+			int servo = servo(request.get());
+			response.putShort(minDegree[servo]);
+			response.putShort(maxDegree[servo]);
+			return true;
+		}
+		case FID_SET_PERIOD: {
+			int mask = servoMask(request.get());
+			int value = Math.max(1, request.getShort() & 0xFFFF);
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					period[i] = value;
+			}
+			return true;
+		}
+		case FID_GET_PERIOD:
+			response.putShort((short) period[servo(request.get())]);
+			return true;
+		case FID_GET_SERVO_CURRENT:
+			response.putShort((short) getServoCurrent(servo(request.get())));
+			return true;
+		case FID_GET_OVERALL_CURRENT:
+			response.putShort((short) getOverallCurrent());
+			return true;
+		case FID_GET_STACK_INPUT_VOLTAGE:
+			response.putShort((short) 12000);
+			return true;
+		case FID_GET_EXTERNAL_INPUT_VOLTAGE:
+			response.putShort((short) 0);
+			return true;
+		case FID_SET_MINIMUM_VOLTAGE:
+			minimumVoltage = request.getShort() & 0xFFFF;
+			return true;
+		case FID_GET_MINIMUM_VOLTAGE:
+			response.putShort((short) minimumVoltage);
+			return true;
+		case FID_ENABLE_POSITION_REACHED_CALLBACK:
+			positionReachedCallbackEnabled = true;
+			return true;
+		case FID_DISABLE_POSITION_REACHED_CALLBACK:
+			positionReachedCallbackEnabled = false;
+			return true;
+		case FID_IS_POSITION_REACHED_CALLBACK_ENABLED:
+			response.put((byte) (positionReachedCallbackEnabled ? 1 : 0));
+			return true;
+		case FID_ENABLE_VELOCITY_REACHED_CALLBACK:
+			velocityReachedCallbackEnabled = true;
+			return true;
+		case FID_DISABLE_VELOCITY_REACHED_CALLBACK:
+			velocityReachedCallbackEnabled = false;
+			return true;
+		case FID_IS_VELOCITY_REACHED_CALLBACK_ENABLED:
+			response.put((byte) (velocityReachedCallbackEnabled ? 1 : 0));
+			return true;
+		case FID_SET_POSITIONS: {
+			int mask = request.get() & 0xFF;
+			if (mask >= 1 << SERVO_NUM)
+				throw new IllegalArgumentException("Invalid servo mask " + mask);
+			int[] velocities = new int[SERVO_NUM];
+			short[] positions = new short[SERVO_NUM];
+			for (int i = 0; i < SERVO_NUM; i++) {
+				velocities[i] = request.getShort() & 0xFFFF;
+			}
+			for (int i = 0; i < SERVO_NUM; i++) {
+				positions[i] = request.getShort();
+			}
+			/** Applied under the lock of tick(), so all servos start together as in servo.c */
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0) {
+					velocity[i] = velocities[i];
+					setPosition(i, positions[i]);
+				}
+			}
+			return true;
+		}
+		case FID_SET_DIMMING_MODE: {
+			int mask = servoMask(request.get());
+			int easing = request.get() & 0xFF;
+			int curve = request.get() & 0xFF;
+			if (easing >= EASINGS.length || curve > CURVE_CIE)
+				throw new IllegalArgumentException("Invalid dimming mode " + easing + " " + curve);
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0) {
+					fadeEasing[i] = easing;
+					fadeCurve[i] = curve;
+				}
+			}
+			return true;
+		}
+		case FID_GET_DIMMING_MODE: {
+			int servo = servo(request.get());
+			response.put((byte) fadeEasing[servo]);
+			response.put((byte) fadeCurve[servo]);
+			return true;
+		}
+		case FID_FADE: {
+			int mask = servoMask(request.get());
+			short value = request.getShort();
+			long duration = request.getInt() & 0xFFFFFFFFL;
+			for (int i = 0; i < SERVO_NUM; i++) {
+				if ((mask & (1 << i)) != 0)
+					fade(i, value, duration);
+			}
+			return true;
+		}
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Starts a fade from the current position, as servo_fade() in servo.c.
+	 */
+	private void fade(int servo, short value, long duration) {
+		value = (short) Math.max(minDegree[servo], Math.min(maxDegree[servo], value));
+		double from = servo == 3 || servo == 4 ? setPoint34[servo - 3] : position[servo];
+		fadeFrom[servo] = lightness(fadeCurve[servo], toDuty(servo, from));
+		fadeTo[servo] = lightness(fadeCurve[servo], toDuty(servo, value));
+		fadePosition[servo] = value;
+		fadeElapsed[servo] = 0;
+		fadeDuration[servo] = duration;
+		fading[servo] = true;
+	}
+
+	/**
+	 * Advances the fades and sets their positions.
+	 */
+	private void fadeStep(double seconds) {
+		for (int i = 0; i < SERVO_NUM; i++) {
+			if (!fading[i])
+				continue;
+			fadeElapsed[i] += seconds * 1000;
+			short value;
+			if (fadeElapsed[i] >= fadeDuration[i]) {
+				value = fadePosition[i];
+				fading[i] = false;
+			} else {
+				double l = fadeFrom[i] + (fadeTo[i] - fadeFrom[i]) * EASINGS[fadeEasing[i]].ease(fadeElapsed[i] / fadeDuration[i]);
+				value = (short) Math.round(minDegree[i] + luminance(fadeCurve[i], l) * (maxDegree[i] - minDegree[i]));
+			}
+			if (i == 3 || i == 4) {
+				/** The dim set point is followed directly only while switched on */
+				setPoint34[i - 3] = value;
+				fadeJump[i] = wallSwitch == null || !wallSwitch.getInput(i - 3);
+			} else {
+				positionOrig[i] = value;
+				goal[i] = value;
+				fadeJump[i] = true;
+			}
+		}
+	}
+
+	private double toDuty(int servo, double value) {
+		if (maxDegree[servo] == minDegree[servo])
+			return 0;
+		return Math.max(0, Math.min(1, (value - minDegree[servo]) / (maxDegree[servo] - minDegree[servo])));
+	}
+
+	/**
+	 * Relative luminance of a relative lightness, as the tables in servo.c.
+	 */
+	private static double luminance(int curve, double lightness) {
+		if (curve == CURVE_GAMMA)
+			return Math.pow(lightness, 2.2);
+		if (curve == CURVE_CIE) {
+			double l = lightness * 100;
+			if (l <= 8)
+				return l / 903.3;
+			double y = (l + 16) / 116;
+			return y * y * y;
+		}
+		return lightness;
+	}
+
+	private static double lightness(int curve, double luminance) {
+		if (curve == CURVE_GAMMA)
+			return Math.pow(luminance, 1 / 2.2);
+		if (curve == CURVE_CIE) {
+			if (luminance <= 8 / 903.3)
+				return luminance * 903.3 / 100;
+			return (116 * Math.cbrt(luminance) - 16) / 100;
+		}
+		return luminance;
+	}
+
+	private void setPosition(int servo, short value) {
+		/** A new position ends a fade */
+		fading[servo] = false;
+		if (servo == 3 || servo == 4) {
+			/** Store received servo position and skip servo movement */
+			setPoint34[servo - 3] = value;
+			return;
+		}
+		value = (short) Math.max(minDegree[servo], Math.min(maxDegree[servo], value));
+		positionOrig[servo] = value;
+		goal[servo] = value;
+	}
+
+	@Override
+	protected synchronized void tick(double seconds) {
+		fadeStep(seconds);
+		for (int i = 3; i <= 4; i++) {
+			boolean on = wallSwitch == null || !wallSwitch.getInput(i - 3);
+			positionOrig[i] = on ? setPoint34[i - 3] : 0;
+			goal[i] = Math.max(minDegree[i], Math.min(maxDegree[i], positionOrig[i]));
+		}
+
+		for (int i = 0; i < SERVO_NUM; i++) {
+			boolean jump = fadeJump[i];
+			fadeJump[i] = false;
+			/** Like servo.c the end of a fade is reported even if the position was reached before */
+			if (!enabled[i] || (position[i] == goal[i] && !(jump && !fading[i])))
+				continue;
+
+			double step = velocity[i] * seconds;
+			if (jump || (velocity[i] == 0xFFFF && acceleration[i] == 0xFFFF) || Math.abs(goal[i] - position[i]) <= step) {
+				position[i] = goal[i];
+			} else if (goal[i] > position[i]) {
+				position[i] += step;
+			} else {
+				position[i] -= step;
+			}
+
+			if (position[i] == goal[i] && !fading[i] && positionReachedCallbackEnabled) {
+				ByteBuffer payload = BrickdSimulator.payload();
+				payload.put((byte) i);
+				payload.putShort(positionOrig[i]);
+				payload.flip();
+				simulator.callback(this, FID_POSITION_REACHED, payload);
+			}
+		}
+	}
+
+	private int getServoCurrent(int servo) {
+		if (!enabled[servo] || maxDegree[servo] == minDegree[servo])
+			return 0;
+		return (int) Math.round(SERVO_MAX_CURRENT * (position[servo] - minDegree[servo]) / (maxDegree[servo] - minDegree[servo]));
+	}
+
+	private int getOverallCurrent() {
+		int current = 0;
+		for (int i = 0; i < SERVO_NUM; i++) {
+			current += getServoCurrent(i);
+		}
+		return current;
+	}
+
+	/**
+	 * Converts the servo parameter into a bitmask, as in communication.c.
+	 */
+	private static int servoMask(byte servo) {
+		int value = servo & 0xFF;
+		if ((value & SERVO_BIT_MODE) != 0)
+			return value & 0x7F;
+		return 1 << servo(servo);
+	}
+
+	private static int servo(byte servo) {
+		int value = servo & 0xFF;
+		if (value >= SERVO_NUM)
+			throw new IllegalArgumentException("Invalid servo " + value);
+		return value;
+	}
+
+	@Override
+	public int getDeviceIdentifier() {
+		return DEVICE_IDENTIFIER;
+	}
+
+	/**
+	 * Version of software/src/config.h
+	 */
+	@Override
+	public byte[] getFirmwareVersion() {
+		return new byte[] { 2, 99, 5 };
+	}
+}
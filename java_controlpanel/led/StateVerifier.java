@@ -0,0 +1,104 @@
+package led;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StateVerifier} periodically reads the positions and relay states of
+ * the channels of a {@link LEDStack} back and repairs the drift. The stack
+ * sends the high-rate setters without waiting for the response, so a command
+ * is not held up by the round trip of the previous one. A setter lost on the
+ * way is not reported, it is corrected by the next verification instead.
+ *
+ * The verification is skipped while the stack is disconnected, the
+ * {@link ConnectionSupervisor} restores the channels after a reconnect. A
+ * failed verification is logged, the next one runs as scheduled.
+ *
+ * @author Ingo Kauffmann
+ */
+public class StateVerifier {
+
+	private final LEDStack stack;
+	private final ScheduledExecutorService scheduler;
+
+	private volatile long rounds;
+	private volatile long repairs;
+
+	/**
+	 * Constructor, starts the verification.
+	 *
+	 * @param stack
+	 * @param intervalMillis
+	 *            delay between the end of a verification and the next one
+	 */
+	public StateVerifier(final LEDStack stack, long intervalMillis) {
+		this.stack = stack;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "StateVerifier " + stack.getName());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					verify();
+				} catch (RuntimeException e) {
+					System.out.println("StateVerifier " + stack.getName() + ": verification failed, " + e);
+					e.printStackTrace();
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Verifies the channels once.
+	 *
+	 * @return number of settings repaired
+	 */
+	public int verify() {
+		if (!stack.isConnected())
+			return 0;
+		int repaired = stack.verify();
+		rounds++;
+		repairs += repaired;
+		if (repaired > 0)
+			System.out.println("StateVerifier " + stack.getName() + ": " + repaired + " settings repaired");
+		return repaired;
+	}
+
+	/**
+	 * Returns the number of verifications.
+	 *
+	 * @return
+	 */
+	public long getRounds() {
+		return rounds;
+	}
+
+	/**
+	 * Returns the number of settings repaired by all verifications.
+	 *
+	 * @return
+	 */
+	public long getRepairs() {
+		return repairs;
+	}
+
+	/**
+	 * Stops the verification.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	@Override
+	public String toString() {
+		return "StateVerifier [rounds=" + rounds + ", repairs=" + repairs + "]";
+	}
+}
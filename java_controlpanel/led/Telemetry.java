@@ -0,0 +1,252 @@
+package led;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.tinkerforge.BrickServo;
+import com.tinkerforge.BrickletCurrent25;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link Telemetry} records the power consumption of a stack. The LED current
+ * is measured by a Current25 Bricklet which sends its readings by period
+ * callback and, if a {@link PowerBudget} is set, a threshold callback as
+ * soon as the limit is exceeded. The Servo Bricks report under voltage by
+ * callback. Their overall current and stack voltage have no callbacks and
+ * are polled at a low rate.
+ *
+ * All readings go into {@link SampleHistory}s, recording a sample does not
+ * allocate.
+ *
+ * @author Ingo Kauffmann
+ */
+public class Telemetry implements BrickletCurrent25.CurrentListener, BrickletCurrent25.CurrentReachedListener, BrickServo.UnderVoltageListener {
+
+	private final BrickletCurrent25 sensor;
+	private final List<BrickServo> servos;
+	private final PowerBudget budget;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * LED current in mA, 10 minutes of samples, 10 hours of minutes and
+	 * 25 days of hours at the default callback period
+	 */
+	private final SampleHistory current = new SampleHistory(600, 60, 3);
+
+	/**
+	 * Overall current of the Servo Bricks in mA and stack voltage in mV
+	 */
+	private final SampleHistory servoCurrent = new SampleHistory(360, 60, 2);
+	private final SampleHistory stackVoltage = new SampleHistory(360, 60, 2);
+
+	private volatile long underVoltages;
+	private volatile long thresholdEvents;
+
+	/**
+	 * Polls the Servo Bricks and re-evaluates the budget, as the period
+	 * callback is only sent on change
+	 */
+	private final Runnable poll = new Runnable() {
+		@Override
+		public void run() {
+			long now = System.currentTimeMillis();
+			try {
+				int total = 0;
+				for (BrickServo servo : servos) {
+					total += servo.getOverallCurrent();
+				}
+				servoCurrent.add(now, total);
+				stackVoltage.add(now, servos.get(0).getStackInputVoltage());
+			} catch (TimeoutException | NotConnectedException e) {
+				e.printStackTrace();
+			}
+			if (budget != null && current.getCount(0) > 0)
+				budget.update(current.getLast());
+		}
+	};
+
+	/**
+	 * Constructor, registers the callbacks.
+	 *
+	 * @param sensor
+	 *            Current25 Bricklet of the LED supply, null if there is none
+	 * @param servos
+	 *            Servo Bricks of the stack
+	 * @param stack
+	 *            stack whose channels are scaled by the power budget
+	 * @param powerLimit
+	 *            LED current limit in mA, 0 disables the power budget
+	 */
+	public Telemetry(BrickletCurrent25 sensor, List<BrickServo> servos, LEDStack stack, int powerLimit) {
+		this.sensor = sensor;
+		this.servos = servos;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Telemetry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		budget = sensor != null && powerLimit > 0 ? new PowerBudget(stack, powerLimit, scheduler) : null;
+
+		if (sensor != null) {
+			sensor.addCurrentListener(this);
+			sensor.addCurrentReachedListener(this);
+			try {
+				configureSensor();
+			} catch (TimeoutException | NotConnectedException e) {
+				e.printStackTrace();
+			}
+		}
+		for (BrickServo servo : servos) {
+			servo.addUnderVoltageListener(this);
+			try {
+				servo.setMinimumVoltage(Config.min_stack_voltage);
+			} catch (TimeoutException | NotConnectedException e) {
+				e.printStackTrace();
+			}
+		}
+		if (!servos.isEmpty())
+			scheduler.scheduleWithFixedDelay(poll, 0, Config.telemetry_poll_interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Configures the callbacks of the Current25 Bricklet.
+	 *
+	 * @return number of settings written
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	private int configureSensor() throws TimeoutException, NotConnectedException {
+		sensor.setCurrentCallbackPeriod(Config.telemetry_period);
+		if (budget == null)
+			return 1;
+		sensor.setDebouncePeriod(Config.telemetry_debounce);
+		sensor.setCurrentCallbackThreshold(BrickletCurrent25.THRESHOLD_OPTION_GREATER, (short) budget.getLimit(), (short) 0);
+		return 3;
+	}
+
+	/**
+	 * Configures the devices again which lost their configuration while the
+	 * connection was lost.
+	 *
+	 * @return number of settings written
+	 */
+	public int restore() {
+		int written = 0;
+		try {
+			if (sensor != null && sensor.getCurrentCallbackPeriod() != Config.telemetry_period)
+				written += configureSensor();
+			for (BrickServo servo : servos) {
+				if (servo.getMinimumVoltage() != Config.min_stack_voltage) {
+					servo.setMinimumVoltage(Config.min_stack_voltage);
+					written++;
+				}
+			}
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+		return written;
+	}
+
+	@Override
+	public void current(short current) {
+		this.current.add(System.currentTimeMillis(), current);
+		if (budget != null)
+			budget.update(current);
+	}
+
+	@Override
+	public void currentReached(short current) {
+		thresholdEvents++;
+		this.current.add(System.currentTimeMillis(), current);
+		if (budget != null)
+			budget.update(current);
+	}
+
+	@Override
+	public void underVoltage(int voltage) {
+		underVoltages++;
+		stackVoltage.add(System.currentTimeMillis(), voltage);
+		System.out.println("Telemetry: stack voltage dropped to " + voltage + " mV");
+	}
+
+	/**
+	 * Returns the LED current in mA.
+	 *
+	 * @return
+	 */
+	public SampleHistory getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Returns the overall current of the Servo Bricks in mA.
+	 *
+	 * @return
+	 */
+	public SampleHistory getServoCurrent() {
+		return servoCurrent;
+	}
+
+	/**
+	 * Returns the stack voltage in mV.
+	 *
+	 * @return
+	 */
+	public SampleHistory getStackVoltage() {
+		return stackVoltage;
+	}
+
+	/**
+	 * Returns the power budget or null if it is disabled.
+	 *
+	 * @return
+	 */
+	public PowerBudget getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns the number of under voltage callbacks.
+	 *
+	 * @return
+	 */
+	public long getUnderVoltages() {
+		return underVoltages;
+	}
+
+	/**
+	 * Returns the number of threshold callbacks of the current limit.
+	 *
+	 * @return
+	 */
+	public long getThresholdEvents() {
+		return thresholdEvents;
+	}
+
+	/**
+	 * Stops polling and removes the listeners.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		if (sensor != null) {
+			sensor.removeCurrentListener(this);
+			sensor.removeCurrentReachedListener(this);
+		}
+		for (BrickServo servo : servos) {
+			servo.removeUnderVoltageListener(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Telemetry [current=" + current.getLast() + " mA, servoCurrent=" + servoCurrent.getLast() + " mA, stackVoltage=" + stackVoltage.getLast()
+				+ " mV, underVoltages=" + underVoltages + (budget == null ? "" : ", scale=" + budget.getScale()) + "]";
+	}
+}
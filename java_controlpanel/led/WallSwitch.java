@@ -0,0 +1,338 @@
+package led;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.tinkerforge.BrickletIO4;
+import com.tinkerforge.NotConnectedException;
+import com.tinkerforge.TimeoutException;
+
+/**
+ * {@link WallSwitch} follows the wall switches wired to the IO4 Bricklet of
+ * the modified Servo Brick. Pin 0 switches servo 3, pin 1 servo 4, a closed
+ * switch pulls the pin low. The firmware switches the relay and dims the
+ * output by itself, this class only mirrors the switch position into the
+ * {@link InternallyDimmedLED} and notifies the {@link Listener}s.
+ *
+ * The pins are debounced by the Bricklet and reported by the interrupt
+ * callback, they are read only once on start. If a long press time is set, a
+ * switch held closed for longer ramps the dim set point through the velocity
+ * engine of the Servo Brick: up if it is below half, down otherwise. Opening
+ * the switch keeps the set point reached. This is meant for push buttons, a
+ * toggle switch would start a ramp every time it is switched on.
+ *
+ * @author Ingo Kauffmann
+ */
+public class WallSwitch implements BrickletIO4.InterruptListener {
+
+	/**
+	 * Notified when a switch changed the state of a channel
+	 */
+	public interface Listener {
+		void switched(InternallyDimmedLED channel);
+	}
+
+	/**
+	 * Number of pins used and servo output switched by pin 0
+	 */
+	private static final int PINS = 2;
+	private static final int FIRST_SERVO = 3;
+	private static final short MASK = (1 << PINS) - 1;
+
+	private final BrickletIO4 io4;
+	private final PositionReachedDispatcher channels;
+	private final long debounce;
+	private final long longPress;
+	private final long rampMillis;
+	private final ScheduledExecutorService timer;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * State per pin, guarded by this
+	 */
+	private final boolean[] closed = new boolean[PINS];
+	private final ScheduledFuture<?>[] holds = new ScheduledFuture<?>[PINS];
+	private final long[] rampStart = new long[PINS];
+	private final int[] rampFrom = new int[PINS];
+	private final int[] rampTo = new int[PINS];
+
+	private volatile long presses;
+	private volatile long ramps;
+
+	/**
+	 * Constructor, configures the pins, reads them once and enables the
+	 * interrupt callback.
+	 *
+	 * @param io4
+	 * @param channels
+	 *            channels of the Servo Brick the IO4 Bricklet is connected to
+	 * @param debounce
+	 *            debounce period of the pins in milliseconds
+	 * @param longPress
+	 *            time in milliseconds a switch has to be held closed to start
+	 *            a ramp, 0 disables ramps
+	 * @param rampMillis
+	 *            duration of a ramp through the full range
+	 */
+	public WallSwitch(BrickletIO4 io4, PositionReachedDispatcher channels, long debounce, long longPress, long rampMillis) {
+		this.io4 = io4;
+		this.channels = channels;
+		this.debounce = debounce;
+		this.longPress = longPress;
+		this.rampMillis = rampMillis;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "WallSwitch");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		io4.addInterruptListener(this);
+		try {
+			configure();
+			short values = io4.getValue();
+			synchronized (this) {
+				for (int pin = 0; pin < PINS; pin++) {
+					closed[pin] = (values & (1 << pin)) == 0;
+				}
+			}
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+		refresh();
+	}
+
+	/**
+	 * Configures the pins as pulled up inputs with interrupt.
+	 *
+	 * @throws TimeoutException
+	 * @throws NotConnectedException
+	 */
+	private void configure() throws TimeoutException, NotConnectedException {
+		io4.setConfiguration((short) 15, 'i', true);
+		io4.setDebouncePeriod(debounce);
+		io4.setInterrupt(MASK);
+	}
+
+	/**
+	 * Configures the Bricklet again if it lost its interrupt configuration
+	 * and takes over the switch changes missed while the connection was lost.
+	 *
+	 * @return number of settings written
+	 */
+	public int restore() {
+		try {
+			int written = 0;
+			if (io4.getInterrupt() != MASK) {
+				configure();
+				written = 3;
+			}
+			interrupt(MASK, io4.getValue());
+			return written;
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	@Override
+	public void interrupt(short interruptMask, short valueMask) {
+		for (int pin = 0; pin < PINS; pin++) {
+			if ((interruptMask & (1 << pin)) != 0)
+				changed(pin, (valueMask & (1 << pin)) == 0);
+		}
+	}
+
+	/**
+	 * Updates the channel of a pin and starts or stops the long press.
+	 *
+	 * @param pin
+	 * @param isClosed
+	 */
+	private void changed(final int pin, boolean isClosed) {
+		InternallyDimmedLED channel = getChannel(pin);
+		synchronized (this) {
+			if (closed[pin] == isClosed)
+				return;
+			closed[pin] = isClosed;
+			if (holds[pin] != null) {
+				holds[pin].cancel(false);
+				holds[pin] = null;
+			}
+			if (isClosed) {
+				presses++;
+				if (longPress > 0 && channel != null) {
+					holds[pin] = timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							startRamp(pin);
+						}
+					}, longPress, TimeUnit.MILLISECONDS);
+				}
+			} else if (rampStart[pin] != 0 && channel != null) {
+				stopRamp(pin, channel);
+			}
+		}
+		if (channel == null)
+			return;
+		if (Config.debug)
+			System.out.println("WallSwitch: " + channel.getName() + (isClosed ? " on" : " off"));
+		channel.setSwitchedOn(isClosed);
+		fire(channel);
+	}
+
+	/**
+	 * Ramps the set point of a pin held closed towards the far end of the
+	 * range.
+	 *
+	 * @param pin
+	 */
+	private synchronized void startRamp(int pin) {
+		final InternallyDimmedLED channel = getChannel(pin);
+		holds[pin] = null;
+		if (!closed[pin] || channel == null)
+			return;
+		final int from = channel.cache.getPosition();
+		final int to = from < Config.servo_PWM_resolution / 2 ? Config.servo_PWM_resolution - 1 : channel.curve.fromBrightness(1);
+		final int velocity = ExternallyDimmedLED.velocityFor(Config.servo_PWM_resolution, rampMillis);
+		rampFrom[pin] = from;
+		rampTo[pin] = to;
+		rampStart[pin] = System.nanoTime();
+		ramps++;
+		channel.queue.submit(channel, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				channel.setVelocity(velocity);
+				channel.setPosition(to);
+			}
+		});
+	}
+
+	/**
+	 * Stores the set point a ramp reached when its switch was opened.
+	 *
+	 * @param pin
+	 * @param channel
+	 */
+	private void stopRamp(int pin, final InternallyDimmedLED channel) {
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rampStart[pin]);
+		rampStart[pin] = 0;
+		int from = rampFrom[pin];
+		int to = rampTo[pin];
+		int travelled = (int) Math.min(Math.abs(to - from), ExternallyDimmedLED.velocityFor(Config.servo_PWM_resolution, rampMillis) * elapsed / 1000);
+		final int reached = to > from ? from + travelled : from - travelled;
+		channel.queue.submit(channel, new CommandQueue.Command() {
+			@Override
+			public void execute() {
+				channel.setVelocity(ExternallyDimmedLED.toVelocity(channel.speed));
+				channel.setPosition(reached);
+			}
+		});
+	}
+
+	/**
+	 * Returns the channel switched by a pin or null.
+	 *
+	 * @param pin
+	 * @return
+	 */
+	private InternallyDimmedLED getChannel(int pin) {
+		if (channels == null)
+			return null;
+		ExternallyDimmedLED channel = channels.get(FIRST_SERVO + pin);
+		return channel instanceof InternallyDimmedLED ? (InternallyDimmedLED) channel : null;
+	}
+
+	/**
+	 * Copies the switch positions into the channels, used after channels
+	 * were added.
+	 */
+	public void refresh() {
+		for (int pin = 0; pin < PINS; pin++) {
+			InternallyDimmedLED channel = getChannel(pin);
+			if (channel != null) {
+				synchronized (this) {
+					channel.setSwitchedOn(closed[pin]);
+				}
+			}
+		}
+	}
+
+	private void fire(InternallyDimmedLED channel) {
+		for (Listener listener : listeners) {
+			listener.switched(channel);
+		}
+	}
+
+	/**
+	 * Adds a listener, called on the callback thread of the IP connection.
+	 *
+	 * @param listener
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 *
+	 * @param listener
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the listeners.
+	 *
+	 * @return
+	 */
+	public List<Listener> getListeners() {
+		return new ArrayList<Listener>(listeners);
+	}
+
+	/**
+	 * Returns the number of times a switch was closed.
+	 *
+	 * @return
+	 */
+	public long getPresses() {
+		return presses;
+	}
+
+	/**
+	 * Returns the number of started ramps.
+	 *
+	 * @return
+	 */
+	public long getRamps() {
+		return ramps;
+	}
+
+	/**
+	 * Disables the interrupt callback and stops the timer.
+	 */
+	public void shutdown() {
+		io4.removeInterruptListener(this);
+		timer.shutdownNow();
+		try {
+			io4.setInterrupt((short) 0);
+		} catch (TimeoutException | NotConnectedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "WallSwitch [presses=" + presses + ", ramps=" + ramps + "]";
+	}
+}
@@ -0,0 +1,380 @@
+package led;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of the compare-and-set protocol of {@link ChannelState} and
+ * {@link ExternallyDimmedLED#changeState(int)}, in the manner of jcstress.
+ * Every trial starts a fresh channel and releases a set of actor threads at
+ * once, which switch the relay, report positions, store positions, set the
+ * switch time and invalidate the cache concurrently. An observer thread reads
+ * the word while they run. The trials run in two variants: immediate takes
+ * every transition at once, deferred takes them through the safeguard path of
+ * {@link ExternallyDimmedLED#deferState(int, long)} with a short safeguard
+ * time and waits for the {@link RelayScheduler} to run the deferred ones.
+ * After each trial the outcome is checked:
+ *
+ * <ul>
+ * <li>the relay is only written by the thread whose compare-and-set changed
+ * the state, so the writes form a chain of transitions from the initial to
+ * the final state</li>
+ * <li>the switch time never goes backwards</li>
+ * <li>the state is always 0, 1 or 2, a valid position is one that was
+ * written and no position write is lost</li>
+ * <li>deferred only: the state never changes within the safeguard time
+ * after the last switch</li>
+ * </ul>
+ *
+ * No Stack or simulator is needed, the relay writes are recorded instead of
+ * sent. Run it with the Tinkerforge bindings on the class path, each variant
+ * runs for the given time, it exits with 1 if a check failed:
+ *
+ * <pre>
+ * java -cp Tinkerforge.jar:. led.ChannelStateStress [seconds]
+ * </pre>
+ *
+ * @author Ingo Kauffmann
+ */
+public class ChannelStateStress {
+
+	private static final int ACTORS = 6;
+
+	/**
+	 * Safeguard time in milliseconds of the deferred variant
+	 */
+	private static final int SAFEGUARD = 5;
+
+	/**
+	 * Channel of a trial, records the relay writes instead of sending them
+	 */
+	static class Probe extends ExternallyDimmedLED {
+
+		final int[] writes = new int[ACTORS];
+		final AtomicInteger writeCount = new AtomicInteger();
+
+		Probe(RelayScheduler relays, int state, long switchedAt) {
+			super("Probe", null, 0, null, relays);
+			safeguard = SAFEGUARD;
+			cache.initState(state, switchedAt);
+		}
+
+		@Override
+		protected void writeRelay(int newState) {
+			int i = writeCount.getAndIncrement();
+			if (i < writes.length)
+				writes[i] = newState;
+		}
+
+		/**
+		 * Takes every transition at once in the immediate variant
+		 */
+		@Override
+		protected boolean deferState(int newState, long elapsed) {
+			return deferred && super.deferState(newState, elapsed);
+		}
+	}
+
+	private static final RelayScheduler relays = new RelayScheduler();
+
+	/**
+	 * Shared by the main thread, the actors and the observer, written by the
+	 * main thread before the start barrier
+	 */
+	private static volatile Probe probe;
+	private static volatile int trial;
+	private static volatile long clock;
+	private static volatile boolean deferred;
+	private static volatile boolean settled;
+	private static volatile boolean running = true;
+
+	private static final AtomicInteger finished = new AtomicInteger();
+	private static final CyclicBarrier start = new CyclicBarrier(ACTORS + 2);
+	private static final CyclicBarrier end = new CyclicBarrier(ACTORS + 2);
+
+	private static final AtomicInteger relayFailures = new AtomicInteger();
+	private static final AtomicInteger switchedAtFailures = new AtomicInteger();
+	private static final AtomicInteger positionFailures = new AtomicInteger();
+	private static final AtomicInteger safeguardFailures = new AtomicInteger();
+
+	/**
+	 * Key of the marker transition waiting for the deferred transitions
+	 */
+	private static final Object marker = new Object();
+
+	/**
+	 * Position reported by the PositionReached callback in a trial, 0 or full
+	 * brightness, so the callback switches the relay too
+	 */
+	private static short reachedPosition(int trial) {
+		return (trial & 1) == 0 ? Config.servo_PWM_resolution : 0;
+	}
+
+	/**
+	 * Position stored by the setter in a trial
+	 */
+	private static short setPosition(int trial) {
+		return (short) (1 + trial % (Config.servo_PWM_resolution - 1));
+	}
+
+	/**
+	 * Launches the actors and the observer and runs the trials of both
+	 * variants
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 10;
+
+		Thread[] threads = new Thread[ACTORS + 1];
+		for (int i = 0; i < ACTORS; i++) {
+			final int actor = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (await(start)) {
+						act(actor);
+						finished.incrementAndGet();
+						await(end);
+					}
+				}
+			}, "Actor " + i);
+		}
+		threads[ACTORS] = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (await(start)) {
+					observe();
+					await(end);
+				}
+			}
+		}, "Observer");
+		for (Thread t : threads) {
+			t.setDaemon(true);
+			t.start();
+		}
+
+		int trials = 0;
+		for (boolean variant : new boolean[] { false, true }) {
+			deferred = variant;
+			Map<String, Integer> outcomes = new TreeMap<String, Integer>();
+			long deadline = System.nanoTime() + seconds * 1000000000L;
+			int first = trials;
+			while (System.nanoTime() < deadline) {
+				int initial = trials % 3;
+				long now = System.currentTimeMillis();
+				trial = trials;
+				/** The actor setting the switch time read the clock a millisecond ago and was preempted */
+				clock = now - 1;
+				finished.set(0);
+				settled = false;
+				probe = new Probe(relays, initial, now - SAFEGUARD);
+				start.await();
+				while (finished.get() < ACTORS) {
+					Thread.yield();
+				}
+				drain();
+				settled = true;
+				end.await();
+				String outcome = check(probe, initial, trials);
+				Integer count = outcomes.get(outcome);
+				outcomes.put(outcome, count == null ? 1 : count + 1);
+				trials++;
+			}
+
+			System.out.println((variant ? "deferred" : "immediate") + ", " + (trials - first) + " trials");
+			System.out.println(String.format("%-32s %10s", "initial -> relay writes -> final", "trials"));
+			for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+				System.out.println(String.format("%-32s %10d", outcome.getKey(), outcome.getValue()));
+			}
+		}
+		running = false;
+		start.reset();
+		System.out.println("deferred transitions executed: " + relays.getExecuted() + ", replaced: " + relays.getReplaced());
+		relays.shutdown();
+
+		int failures = relayFailures.get() + switchedAtFailures.get() + positionFailures.get() + safeguardFailures.get();
+		System.out.println(trials + " trials, relay written by a loser: " + relayFailures.get() + ", switch time went back: " + switchedAtFailures.get()
+				+ ", position inconsistent: " + positionFailures.get() + ", switched within the safeguard time: " + safeguardFailures.get());
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Waits until the {@link RelayScheduler} ran every deferred transition. A
+	 * marker transition is run after the transition in progress, which may
+	 * defer again.
+	 *
+	 * @throws InterruptedException
+	 */
+	private static void drain() throws InterruptedException {
+		while (true) {
+			while (relays.getQueueDepth() > 0) {
+				Thread.sleep(1);
+			}
+			final CountDownLatch done = new CountDownLatch(1);
+			relays.schedule(marker, new Runnable() {
+				@Override
+				public void run() {
+					done.countDown();
+				}
+			}, 0);
+			done.await();
+			if (relays.getQueueDepth() == 0)
+				return;
+		}
+	}
+
+	/**
+	 * Waits at a barrier.
+	 *
+	 * @param barrier
+	 * @return false once the trials are over
+	 */
+	private static boolean await(CyclicBarrier barrier) {
+		try {
+			barrier.await();
+			return running;
+		} catch (InterruptedException | BrokenBarrierException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the action of an actor in the current trial.
+	 *
+	 * @param actor
+	 */
+	private static void act(int actor) {
+		Probe p = probe;
+		switch (actor) {
+		case 0:
+			p.changeState(1);
+			break;
+		case 1:
+			p.changeState(2);
+			break;
+		case 2:
+			p.positionReached(reachedPosition(trial));
+			break;
+		case 3:
+			p.cache.setPosition(setPosition(trial));
+			break;
+		case 4:
+			p.cache.switched(clock);
+			break;
+		default:
+			p.cache.invalidate();
+		}
+	}
+
+	/**
+	 * Reads the word while the actors and the deferred transitions run and
+	 * checks every snapshot. A state change seen between two snapshots took
+	 * at least the safeguard time after the switch time of the first, as the
+	 * switch time never goes back.
+	 */
+	private static void observe() {
+		Probe p = probe;
+		short reached = reachedPosition(trial);
+		short set = setPosition(trial);
+		long first = p.cache.get();
+		long last = ChannelState.switchedAt(first);
+		int lastState = ChannelState.stateOf(first);
+		boolean switchedAtFailed = false;
+		boolean positionFailed = false;
+		boolean safeguardFailed = false;
+		do {
+			long w = p.cache.get();
+			long switchedAt = ChannelState.switchedAt(w);
+			if (switchedAt < last)
+				switchedAtFailed = true;
+			if (deferred && ChannelState.stateOf(w) != lastState && switchedAt - last < SAFEGUARD)
+				safeguardFailed = true;
+			last = switchedAt;
+			lastState = ChannelState.stateOf(w);
+			short position = ChannelState.positionOf(w);
+			boolean written = position == reached || position == set;
+			/** Until a position was written the cache holds the initial invalid 0 */
+			if (ChannelState.stateOf(w) > 2 || !written && (position != 0 || ChannelState.validOf(w)))
+				positionFailed = true;
+		} while (!settled);
+		if (switchedAtFailed)
+			switchedAtFailures.incrementAndGet();
+		if (positionFailed)
+			positionFailures.incrementAndGet();
+		if (safeguardFailed)
+			safeguardFailures.incrementAndGet();
+	}
+
+	/**
+	 * Checks the outcome of a trial after all actors finished.
+	 *
+	 * @param p
+	 * @param initial
+	 *            state before the trial
+	 * @param trial
+	 * @return outcome for the histogram
+	 */
+	private static String check(Probe p, int initial, int trial) {
+		long w = p.cache.get();
+		int state = ChannelState.stateOf(w);
+		int count = p.writeCount.get();
+		int[] writes = new int[Math.min(count, p.writes.length)];
+		System.arraycopy(p.writes, 0, writes, 0, writes.length);
+
+		/** Each changing actor may win at most once, a loser must not write */
+		int[] requested = new int[3];
+		requested[1]++;
+		requested[2]++;
+		requested[reachedPosition(trial) == 0 ? 0 : 2]++;
+		int[] written = new int[3];
+		for (int s : writes) {
+			written[s]++;
+		}
+		boolean relayOk = count <= 3 && written[0] <= requested[0] && written[1] <= requested[1] && written[2] <= requested[2]
+				&& isChain(writes, 0, initial, state);
+		if (!relayOk)
+			relayFailures.incrementAndGet();
+
+		short position = ChannelState.positionOf(w);
+		if (position != reachedPosition(trial) && position != setPosition(trial))
+			positionFailures.incrementAndGet();
+
+		StringBuilder outcome = new StringBuilder().append(initial).append(" -> [");
+		int[] sorted = writes.clone();
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++) {
+			outcome.append(i == 0 ? "" : ",").append(sorted[i]);
+		}
+		return outcome.append("] -> ").append(state).append(relayOk ? "" : " FAILED").toString();
+	}
+
+	/**
+	 * Returns true if the writes can be ordered into transitions from the
+	 * current to the final state, each changing the state. The writes may
+	 * arrive in another order than the transitions took place.
+	 *
+	 * @param writes
+	 * @param used
+	 *            bit mask of the writes already placed
+	 * @param current
+	 * @param state
+	 *            final state
+	 * @return
+	 */
+	private static boolean isChain(int[] writes, int used, int current, int state) {
+		if (used == (1 << writes.length) - 1)
+			return current == state;
+		for (int i = 0; i < writes.length; i++) {
+			if ((used & 1 << i) == 0 && writes[i] != current && isChain(writes, used | 1 << i, writes[i], state))
+				return true;
+		}
+		return false;
+	}
+}
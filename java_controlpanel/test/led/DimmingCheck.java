@@ -0,0 +1,101 @@
+package led;
+
+/**
+ * Checks the brightness changes of a channel switched fully on against a
+ * local {@link BrickdSimulator}. Setting, fading and easing a fully on
+ * channel to a lower level has to step the relay down to dimmed and end at
+ * the level, not switch the channel off. Run it with the Tinkerforge bindings
+ * on the class path, it exits with 1 if a check failed:
+ *
+ * <pre>
+ * java -cp Tinkerforge.jar:. led.DimmingCheck
+ * </pre>
+ *
+ * @author Ingo Kauffmann
+ */
+public class DimmingCheck {
+
+	/**
+	 * A brightness change of the channel
+	 */
+	interface Change {
+		void run(ExternallyDimmedLED channel) throws Exception;
+	}
+
+	private static int failures;
+
+	/**
+	 * Runs all checks
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		BrickdSimulator simulator = BrickdSimulator.withConfig(0);
+		simulator.start();
+		LEDStack stack = new LEDStack("localhost", simulator.getPort());
+		ExternallyDimmedLED channel = stack.add(ChannelConfig.external("Rot", "localhost", simulator.getPort(), Config.UID_ServoBrick_1, 0,
+				Config.UID_DualRelayBricklet_R));
+		SimulatedDualRelay relay = (SimulatedDualRelay) simulator.getDevice(Config.UID_DualRelayBricklet_R);
+
+		check("setBrightness 100 -> 50", channel, relay, new Change() {
+			@Override
+			public void run(ExternallyDimmedLED channel) throws Exception {
+				channel.submitBrightness(50).get();
+			}
+		});
+		check("fadeTo 100 -> 50", channel, relay, new Change() {
+			@Override
+			public void run(ExternallyDimmedLED channel) throws Exception {
+				channel.submitFade(50, 500).get();
+			}
+		});
+		check("fadeTo 100 -> 50 eased", channel, relay, new Change() {
+			@Override
+			public void run(ExternallyDimmedLED channel) throws Exception {
+				channel.submitFade(50, 500, Easing.EASE_IN_OUT).get();
+			}
+		});
+
+		stack.shutdown();
+		simulator.stop();
+		System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Switches the channel fully on, runs the change and checks that it ends
+	 * dimmed at brightness 50.
+	 *
+	 * @param name
+	 * @param channel
+	 * @param relay
+	 * @param change
+	 * @throws Exception
+	 */
+	private static void check(String name, ExternallyDimmedLED channel, SimulatedDualRelay relay, Change change) throws Exception {
+		channel.submitBrightness(Config.servo_PWM_steps).get();
+		/** The ramp up from a lower level takes several seconds */
+		for (int i = 0; i < 100 && channel.cache.getState() != 2; i++) {
+			Thread.sleep(100);
+		}
+		if (channel.cache.getState() != 2) {
+			fail(name, "not fully on before the change, state " + channel.cache.getState());
+			return;
+		}
+		change.run(channel);
+		Thread.sleep(Config.relay_safeguard_time + 4000);
+		int state = channel.cache.getState();
+		int position = channel.cache.getPosition();
+		int expected = channel.curve.fromBrightness(50);
+		if (state != 1 || position != expected || relay.getRelay1() || !relay.getRelay2())
+			fail(name, "state " + state + ", position " + position + " instead of " + expected + ", relays " + relay.getRelay1() + " " + relay.getRelay2());
+		else
+			System.out.println(name + ": ok");
+	}
+
+	private static void fail(String name, String message) {
+		failures++;
+		System.out.println(name + ": FAILED, " + message);
+	}
+}
@@ -28,6 +28,8 @@
 #include "bricklib/com/com_common.h"
 #include "bricklib/drivers/adc/adc.h"
 #include "bricklib/utility/util_definitions.h"
+#include "bricklib/free_rtos/include/FreeRTOS.h"
+#include "bricklib/free_rtos/include/task.h"
 #include <stdint.h>
 #include <stdio.h>
 
@@ -55,6 +57,13 @@ extern bool position_reached_callback_enabled;
 // Custom CODE Start
 // Used to store the dim set point
 extern uint32_t servo_34[];
+// Used to stage the velocities and positions of set_positions
+extern volatile uint8_t servo_staged_mask;
+extern uint16_t servo_staged_velocity[];
+extern int16_t servo_staged_position[];
+// Used to store the dimming mode
+extern uint8_t servo_fade_easing[];
+extern uint8_t servo_fade_curve[];
 // Custom CODE End
 
 void enable(const ComType com, const Enable *data) {
@@ -157,45 +166,7 @@ void set_position(const ComType com, const SetPosition *data) {
 
 	for(uint8_t servo = servo_start; servo < servo_end; servo++) {
 		if(servo_bitmask & (1 << servo)) {
-			// Custom Code Start
-			// Store received servo position and skip servo movement
-			if(servo == 3 || servo == 4) {
-				if(servo == 3) {
-					servo_34[0] = position;
-				}
-				if(servo == 4) {
-					servo_34[1] = position;
-				}
-				continue;
-			}
-			// Custom Code End
-			
-			if(position < servo_min_degree[servo]) {
-				position = servo_min_degree[servo];
-			}
-			else if (position > servo_max_degree[servo]){
-				position = servo_max_degree[servo];
-			}
-
-			servo_position_orig[servo] = position;
-
-			uint32_t value = SCALE((int64_t)position,
-								   (int64_t)servo_min_degree[servo],
-								   (int64_t)servo_max_degree[servo],
-								   (int64_t)servo_min_pulse_width[servo],
-								   (int64_t)servo_max_pulse_width[servo]);
-
-			if((servo_position_goal[servo] < servo_position[servo]) && (value > servo_position[servo])) {
-				// we have changed direction -> velocity = 0
-				servo_velocity[servo] = 0;
-			}
-
-			if((servo_position_goal[servo] > servo_position[servo]) && (value < servo_position[servo])) {
-				// we have changed direction -> velocity = 0
-				servo_velocity[servo] = 0;
-			}
-
-			servo_position_goal[servo] = value;
+			servo_set_position(servo, position);
 		}
 	}
 
@@ -252,9 +223,6 @@ void get_current_position(const ComType com, const GetCurrentPosition *data) {
 }
 
 void set_velocity(const ComType com, const SetVelocity *data) {
-	// degree/100/period
-	uint32_t value;
-
 	uint8_t servo_start;
 	uint8_t servo_end;
 	uint8_t servo_bitmask;
@@ -275,16 +243,7 @@ void set_velocity(const ComType com, const SetVelocity *data) {
 
 	for(uint8_t servo = servo_start; servo < servo_end; servo++) {
 		if(servo_bitmask & (1 << servo)) {
-			servo_velocity_orig[servo] = data->velocity;
-
-			value = SCALE((int64_t)data->velocity,
-						  0,
-						  (int64_t)(servo_max_degree[servo] - servo_min_degree[servo]),
-						  0,
-						  (int64_t)(servo_max_pulse_width[servo] - servo_min_pulse_width[servo]))/servo_period[servo];
-
-
-			servo_velocity_goal[servo] = value;
+			servo_set_velocity(servo, data->velocity);
 		}
 	}
 
@@ -726,3 +685,117 @@ void is_position_reached_callback_enabled(const ComType com, const IsPositionRea
 	send_blocking_with_timeout(&iprcer, sizeof(IsPositionReachedCallbackEnabledReturn), com);
 }
 
+// Custom Code Start
+void set_positions(const ComType com, const SetPositions *data) {
+	if(data->servo_mask & ~((1 << SERVO_NUM) - 1)) {
+		com_return_error(data, sizeof(MessageHeader), MESSAGE_ERROR_CODE_INVALID_PARAMETER, com);
+		return;
+	}
+
+	// Staged and applied by the next calculation tick, so all servos
+	// start moving together. A batch which was not applied yet is merged.
+	taskENTER_CRITICAL();
+	for(uint8_t servo = 0; servo < SERVO_NUM; servo++) {
+		if(data->servo_mask & (1 << servo)) {
+			servo_staged_velocity[servo] = data->velocity[servo];
+			servo_staged_position[servo] = data->position[servo];
+		}
+	}
+	servo_staged_mask |= data->servo_mask;
+	taskEXIT_CRITICAL();
+
+	logservoi("set_positions %d\n\r", data->servo_mask);
+
+	com_return_setter(com, data);
+}
+
+void set_dimming_mode(const ComType com, const SetDimmingMode *data) {
+	uint8_t servo_start;
+	uint8_t servo_end;
+	uint8_t servo_bitmask;
+	if(data->servo & SERVO_BIT_MODE) {
+		servo_start = 0;
+		servo_end = SERVO_NUM;
+		servo_bitmask = data->servo;
+	} else {
+		if(data->servo >= SERVO_NUM) {
+			com_return_error(data, sizeof(MessageHeader), MESSAGE_ERROR_CODE_INVALID_PARAMETER, com);
+			return;
+		}
+
+		servo_start = data->servo;
+		servo_end = data->servo +1;
+		servo_bitmask = 1 << data->servo;
+	}
+
+	if(data->easing > SERVO_EASING_EXPONENTIAL || data->curve > SERVO_CURVE_CIE) {
+		com_return_error(data, sizeof(MessageHeader), MESSAGE_ERROR_CODE_INVALID_PARAMETER, com);
+		return;
+	}
+
+	// A running fade takes the new mode from its next tick on
+	taskENTER_CRITICAL();
+	for(uint8_t servo = servo_start; servo < servo_end; servo++) {
+		if(servo_bitmask & (1 << servo)) {
+			servo_fade_easing[servo] = data->easing;
+			servo_fade_curve[servo] = data->curve;
+		}
+	}
+	taskEXIT_CRITICAL();
+
+	logservoi("set_dimming_mode %d: %d %d\n\r", data->servo, data->easing, data->curve);
+
+	com_return_setter(com, data);
+}
+
+void get_dimming_mode(const ComType com, const GetDimmingMode *data) {
+	uint8_t servo = data->servo;
+	GetDimmingModeReturn gdmr;
+
+	if(servo >= SERVO_NUM) {
+		com_return_error(data, sizeof(GetDimmingModeReturn), MESSAGE_ERROR_CODE_INVALID_PARAMETER, com);
+		return;
+	}
+
+	gdmr.header        = data->header;
+	gdmr.header.length = sizeof(GetDimmingModeReturn);
+	gdmr.easing        = servo_fade_easing[servo];
+	gdmr.curve         = servo_fade_curve[servo];
+
+	send_blocking_with_timeout(&gdmr, sizeof(GetDimmingModeReturn), com);
+	logservoi("get_dimming_mode %d: %d %d\n\r", servo, gdmr.easing, gdmr.curve);
+}
+
+void fade(const ComType com, const Fade *data) {
+	uint8_t servo_start;
+	uint8_t servo_end;
+	uint8_t servo_bitmask;
+	if(data->servo & SERVO_BIT_MODE) {
+		servo_start = 0;
+		servo_end = SERVO_NUM;
+		servo_bitmask = data->servo;
+	} else {
+		if(data->servo >= SERVO_NUM) {
+			com_return_error(data, sizeof(MessageHeader), MESSAGE_ERROR_CODE_INVALID_PARAMETER, com);
+			return;
+		}
+
+		servo_start = data->servo;
+		servo_end = data->servo +1;
+		servo_bitmask = 1 << data->servo;
+	}
+
+	// The duration is given in ms, a calculation tick takes 1ms
+	taskENTER_CRITICAL();
+	for(uint8_t servo = servo_start; servo < servo_end; servo++) {
+		if(servo_bitmask & (1 << servo)) {
+			servo_fade(servo, data->position, data->duration);
+		}
+	}
+	taskEXIT_CRITICAL();
+
+	logservoi("fade %d: %d %d\n\r", data->servo, data->position, data->duration);
+
+	com_return_setter(com, data);
+}
+// Custom Code End
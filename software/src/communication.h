@@ -28,6 +28,8 @@
 
 #include "bricklib/com/com_common.h"
 
+#include "servo.h"
+
 #define FID_ENABLE 1
 #define FID_DISABLE 2
 #define FID_IS_ENABLED 3
@@ -62,6 +64,12 @@
 #define FID_ENABLE_VELOCITY_REACHED_CALLBACK 32
 #define FID_DISABLE_VELOCITY_REACHED_CALLBACK 33
 #define FID_IS_VELOCITY_REACHED_CALLBACK_ENABLED 34
+// Custom Code Start
+#define FID_SET_POSITIONS 35
+#define FID_SET_DIMMING_MODE 36
+#define FID_GET_DIMMING_MODE 37
+#define FID_FADE 38
+// Custom Code End
 
 #define COM_MESSAGES_USER \
 	{FID_ENABLE, (message_handler_func_t)enable}, \
@@ -97,7 +105,11 @@
     {FID_IS_POSITION_REACHED_CALLBACK_ENABLED, (message_handler_func_t)is_position_reached_callback_enabled}, \
     {FID_ENABLE_VELOCITY_REACHED_CALLBACK, (message_handler_func_t)enable_velocity_reached_callback}, \
     {FID_DISABLE_VELOCITY_REACHED_CALLBACK, (message_handler_func_t)disable_velocity_reached_callback}, \
-    {FID_IS_VELOCITY_REACHED_CALLBACK_ENABLED, (message_handler_func_t)is_velocity_reached_callback_enabled},
+    {FID_IS_VELOCITY_REACHED_CALLBACK_ENABLED, (message_handler_func_t)is_velocity_reached_callback_enabled}, \
+    {FID_SET_POSITIONS, (message_handler_func_t)set_positions}, \
+    {FID_SET_DIMMING_MODE, (message_handler_func_t)set_dimming_mode}, \
+    {FID_GET_DIMMING_MODE, (message_handler_func_t)get_dimming_mode}, \
+    {FID_FADE, (message_handler_func_t)fade},
 
 typedef struct {
 	MessageHeader header;
@@ -355,6 +367,40 @@ typedef struct {
 	bool enabled;
 } __attribute__((__packed__)) IsPositionReachedCallbackEnabledReturn;
 
+// Custom Code Start
+typedef struct {
+	MessageHeader header;
+	uint8_t servo_mask;
+	uint16_t velocity[SERVO_NUM];
+	int16_t position[SERVO_NUM];
+} __attribute__((__packed__)) SetPositions;
+
+typedef struct {
+	MessageHeader header;
+	uint8_t servo;
+	uint8_t easing;
+	uint8_t curve;
+} __attribute__((__packed__)) SetDimmingMode;
+
+typedef struct {
+	MessageHeader header;
+	uint8_t servo;
+} __attribute__((__packed__)) GetDimmingMode;
+
+typedef struct {
+	MessageHeader header;
+	uint8_t easing;
+	uint8_t curve;
+} __attribute__((__packed__)) GetDimmingModeReturn;
+
+typedef struct {
+	MessageHeader header;
+	uint8_t servo;
+	int16_t position;
+	uint32_t duration;
+} __attribute__((__packed__)) Fade;
+// Custom Code End
+
 void enable(const ComType com, const Enable *data);
 void disable(const ComType com, const Disable *data);
 void is_enabled(const ComType com, const IsEnabled *data);
@@ -386,5 +432,9 @@ void is_velocity_reached_callback_enabled(const ComType com, const IsVelocityRea
 void enable_position_reached_callback(const ComType com, const EnablePositionReachedCallback *data);
 void disable_position_reached_callback(const ComType com, const DisablePositionReachedCallback *data);
 void is_position_reached_callback_enabled(const ComType com, const IsPositionReachedCallbackEnabled *data);
+void set_positions(const ComType com, const SetPositions *data);
+void set_dimming_mode(const ComType com, const SetDimmingMode *data);
+void get_dimming_mode(const ComType com, const GetDimmingMode *data);
+void fade(const ComType com, const Fade *data);
 
 #endif
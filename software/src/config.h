@@ -28,7 +28,7 @@
 
 #define BRICK_FIRMWARE_VERSION_MAJOR 2
 #define BRICK_FIRMWARE_VERSION_MINOR 99
-#define BRICK_FIRMWARE_VERSION_REVISION 3
+#define BRICK_FIRMWARE_VERSION_REVISION 5
 
 #define BRICK_HARDWARE_VERSION_MAJOR 1
 #define BRICK_HARDWARE_VERSION_MINOR 0
@@ -38,6 +38,8 @@
 #include "bricklib/utility/util_definitions.h"
 #include "bricklib/utility/led.h"
 #include "bricklib/utility/init.h"
+#include "bricklib/free_rtos/include/FreeRTOS.h"
+#include "bricklib/free_rtos/include/task.h"
 
 #include <stdio.h>
 
@@ -296,6 +298,105 @@ uint32_t servo_34[2] = { 25, 75 };
 // 1 = dimming down
 // 2 = dimming up
 uint32_t state_34[2] = { 0, 0 };
+// Velocities and positions received by set_positions, applied together
+// by the next calculation tick
+volatile uint8_t servo_staged_mask = 0;
+uint16_t servo_staged_velocity[SERVO_NUM] = {0};
+int16_t servo_staged_position[SERVO_NUM] = {0};
+
+// LED dimming mode per servo. A fade interpolates the lightness along the
+// easing and sets the position every tick, lightness and luminance are
+// scaled to 0 to 65535.
+uint8_t servo_fade_easing[SERVO_NUM] = {SERVO_EASING_LINEAR};
+uint8_t servo_fade_curve[SERVO_NUM] = {SERVO_CURVE_LINEAR};
+bool servo_fade_active[SERVO_NUM] = {false};
+bool servo_fade_jump[SERVO_NUM] = {false};
+bool servo_fade_done[SERVO_NUM] = {false};
+uint32_t servo_fade_start[SERVO_NUM] = {0}; // in ticks
+uint32_t servo_fade_duration[SERVO_NUM] = {0}; // in ticks
+uint16_t servo_fade_from[SERVO_NUM] = {0};
+uint16_t servo_fade_to[SERVO_NUM] = {0};
+int16_t servo_fade_position[SERVO_NUM] = {0}; // in degree/100
+
+// Luminance by lightness for gamma 2.2, 0 to 65535
+const uint16_t servo_lut_gamma[SERVO_FADE_LUT_SIZE + 1] = {
+	    0,     0,     2,     4,     7,    11,    17,    24,
+	   32,    41,    52,    64,    78,    93,   110,   128,
+	  147,   168,   191,   215,   240,   267,   296,   327,
+	  359,   392,   428,   465,   504,   544,   586,   630,
+	  676,   723,   772,   823,   875,   930,   986,  1044,
+	 1104,  1165,  1229,  1294,  1361,  1430,  1501,  1574,
+	 1648,  1725,  1803,  1884,  1966,  2050,  2136,  2224,
+	 2314,  2406,  2500,  2595,  2693,  2793,  2895,  2998,
+	 3104,  3212,  3322,  3433,  3547,  3663,  3781,  3900,
+	 4022,  4146,  4272,  4400,  4530,  4663,  4797,  4933,
+	 5072,  5212,  5355,  5499,  5646,  5795,  5946,  6099,
+	 6255,  6412,  6572,  6733,  6897,  7063,  7231,  7402,
+	 7574,  7749,  7926,  8105,  8286,  8469,  8655,  8843,
+	 9033,  9225,  9419,  9616,  9815, 10016, 10219, 10425,
+	10632, 10842, 11054, 11269, 11486, 11705, 11926, 12149,
+	12375, 12603, 12833, 13066, 13301, 13538, 13777, 14019,
+	14263, 14509, 14758, 15009, 15262, 15517, 15775, 16035,
+	16298, 16563, 16830, 17099, 17371, 17645, 17922, 18201,
+	18482, 18765, 19051, 19339, 19630, 19923, 20218, 20516,
+	20816, 21119, 21424, 21731, 22040, 22352, 22667, 22984,
+	23303, 23624, 23949, 24275, 24604, 24935, 25269, 25605,
+	25943, 26284, 26628, 26973, 27322, 27672, 28026, 28381,
+	28739, 29100, 29462, 29828, 30196, 30566, 30939, 31314,
+	31692, 32072, 32454, 32840, 33227, 33617, 34010, 34405,
+	34802, 35202, 35605, 36010, 36417, 36827, 37240, 37655,
+	38072, 38493, 38915, 39340, 39768, 40198, 40631, 41066,
+	41503, 41944, 42387, 42832, 43280, 43730, 44183, 44639,
+	45097, 45557, 46020, 46486, 46954, 47425, 47899, 48374,
+	48853, 49334, 49818, 50304, 50793, 51284, 51778, 52275,
+	52774, 53276, 53780, 54287, 54796, 55308, 55823, 56341,
+	56860, 57383, 57908, 58436, 58966, 59499, 60035, 60573,
+	61114, 61657, 62203, 62752, 63303, 63857, 64414, 64973,
+	65535
+};
+
+// Luminance by lightness for CIE 1931, 0 to 65535
+const uint16_t servo_lut_cie[SERVO_FADE_LUT_SIZE + 1] = {
+	    0,    28,    57,    85,   113,   142,   170,   198,
+	  227,   255,   283,   312,   340,   368,   397,   425,
+	  453,   482,   510,   538,   567,   595,   625,   655,
+	  686,   718,   751,   785,   821,   857,   894,   933,
+	  972,  1012,  1054,  1097,  1141,  1186,  1232,  1279,
+	 1328,  1378,  1429,  1481,  1535,  1590,  1646,  1703,
+	 1762,  1822,  1883,  1946,  2010,  2076,  2143,  2211,
+	 2281,  2352,  2425,  2500,  2575,  2653,  2731,  2812,
+	 2894,  2977,  3062,  3149,  3237,  3327,  3419,  3512,
+	 3607,  3704,  3802,  3902,  4004,  4108,  4213,  4320,
+	 4429,  4540,  4652,  4767,  4883,  5001,  5121,  5243,
+	 5367,  5493,  5621,  5751,  5882,  6016,  6152,  6289,
+	 6429,  6571,  6715,  6861,  7009,  7159,  7312,  7466,
+	 7623,  7782,  7943,  8106,  8272,  8439,  8609,  8781,
+	 8956,  9133,  9312,  9493,  9677,  9863, 10052, 10243,
+	10436, 10632, 10830, 11030, 11234, 11439, 11647, 11858,
+	12071, 12286, 12504, 12725, 12948, 13174, 13403, 13634,
+	13868, 14104, 14343, 14585, 14830, 15077, 15327, 15579,
+	15835, 16093, 16354, 16618, 16885, 17154, 17426, 17702,
+	17980, 18261, 18545, 18831, 19121, 19414, 19710, 20008,
+	20310, 20615, 20922, 21233, 21547, 21864, 22184, 22507,
+	22833, 23163, 23495, 23831, 24170, 24512, 24857, 25206,
+	25558, 25913, 26271, 26632, 26997, 27366, 27737, 28112,
+	28490, 28872, 29257, 29645, 30037, 30432, 30831, 31233,
+	31639, 32048, 32461, 32877, 33297, 33720, 34147, 34578,
+	35012, 35450, 35891, 36336, 36785, 37237, 37693, 38153,
+	38616, 39083, 39554, 40029, 40507, 40990, 41476, 41966,
+	42460, 42957, 43459, 43964, 44473, 44987, 45504, 46025,
+	46550, 47079, 47612, 48149, 48690, 49235, 49785, 50338,
+	50895, 51457, 52022, 52592, 53166, 53744, 54326, 54912,
+	55503, 56097, 56696, 57300, 57907, 58519, 59135, 59755,
+	60380, 61009, 61642, 62280, 62922, 63569, 64220, 64875,
+	65535
+};
+
+// 2^(k/16) in Q16, used by the exponential easing
+const uint32_t servo_pow2[17] = {
+	65536, 68438, 71468, 74632, 77936, 81386, 84990, 88752, 92682,
+	96785, 101070, 105545, 110218, 115098, 120194, 125515, 131072
+};
 // Custom CODE End
 
 int32_t servo_ns_to_pwm(const uint8_t servo, const int32_t position) {
@@ -314,6 +415,13 @@ void tick_task(const uint8_t tick_type) {
 			update_servo_current();
 		}
 
+		// Custom CODE Start
+		// Apply the batch of set_positions before the set points of servo 3
+		// and 4 are evaluated, so every servo of the batch starts this tick
+		servo_apply_staged_positions();
+		servo_fade_step();
+		// Custom CODE End
+
 		// Custom CODE Start
 		// Using running code every 100 ticks so relay doesnt produce errors 
 		// relay is switched and internal state updateds
@@ -472,6 +580,14 @@ void tick_task(const uint8_t tick_type) {
 
 		for(uint8_t i = 0; i < SERVO_NUM; i++) {
 			if(!servo_enabled[i] || servo_position_goal[i] == servo_position[i]) {
+				// Custom CODE Start
+				// A fade ending on the position already reached is reported
+				if(servo_fade_done[i] && servo_enabled[i]) {
+					servo_position_reached[i] = true;
+				}
+				servo_fade_done[i] = false;
+				servo_fade_jump[i] = false;
+				// Custom CODE End
 				continue;
 			}
 
@@ -484,9 +600,16 @@ void tick_task(const uint8_t tick_type) {
 				continue;
 			}
 
+			// Custom CODE Start
+			// A fade sets the position of every tick directly
+			bool fade_jump = servo_fade_jump[i];
+			servo_fade_jump[i] = false;
+			// Custom CODE End
+
 			// Update position
-			if(servo_velocity[i] >= servo_velocity_max[i] &&
-			   servo_acceleration[i] >= servo_acceleration_max[i]) {
+			if(fade_jump ||
+			   (servo_velocity[i] >= servo_velocity_max[i] &&
+			    servo_acceleration[i] >= servo_acceleration_max[i])) {
 				servo_position[i] = servo_position_goal[i];
 			} else if(servo_position_goal[i] > servo_position[i]) {
 				int32_t new_vel = servo_position[i] +
@@ -539,7 +662,13 @@ void tick_task(const uint8_t tick_type) {
 
 			if(servo_position[i] == servo_position_goal[i]) {
 				servo_velocity[i] = 0;
-				servo_position_reached[i] = true;
+				// Custom CODE Start
+				// Only the end of a fade is reported
+				if(!servo_fade_active[i]) {
+					servo_position_reached[i] = true;
+					servo_fade_done[i] = false;
+				}
+				// Custom CODE End
 			}
 		}
 	} else if(tick_type == TICK_TASK_TYPE_MESSAGE) {
@@ -1014,3 +1143,224 @@ uint16_t servo_get_stack_voltage(void) {
            VOLTAGE_STACK_MULTIPLIER /
            VOLTAGE_MAX_VALUE;
 }
+
+void servo_set_position(const uint8_t servo, int16_t position) {
+	// degree*100
+
+	// Custom Code Start
+	// A new position ends a fade
+	servo_fade_active[servo] = false;
+	servo_fade_jump[servo] = false;
+	servo_fade_done[servo] = false;
+
+	// Store received servo position and skip servo movement
+	if(servo == 3 || servo == 4) {
+		servo_34[servo - 3] = position;
+		return;
+	}
+	// Custom Code End
+
+	if(position < servo_min_degree[servo]) {
+		position = servo_min_degree[servo];
+	}
+	else if (position > servo_max_degree[servo]){
+		position = servo_max_degree[servo];
+	}
+
+	servo_position_orig[servo] = position;
+
+	uint32_t value = SCALE((int64_t)position,
+						   (int64_t)servo_min_degree[servo],
+						   (int64_t)servo_max_degree[servo],
+						   (int64_t)servo_min_pulse_width[servo],
+						   (int64_t)servo_max_pulse_width[servo]);
+
+	if((servo_position_goal[servo] < servo_position[servo]) && (value > servo_position[servo])) {
+		// we have changed direction -> velocity = 0
+		servo_velocity[servo] = 0;
+	}
+
+	if((servo_position_goal[servo] > servo_position[servo]) && (value < servo_position[servo])) {
+		// we have changed direction -> velocity = 0
+		servo_velocity[servo] = 0;
+	}
+
+	servo_position_goal[servo] = value;
+}
+
+void servo_set_velocity(const uint8_t servo, const uint16_t velocity) {
+	// degree/100/period
+	servo_velocity_orig[servo] = velocity;
+
+	servo_velocity_goal[servo] = SCALE((int64_t)velocity,
+	                                   0,
+	                                   (int64_t)(servo_max_degree[servo] - servo_min_degree[servo]),
+	                                   0,
+	                                   (int64_t)(servo_max_pulse_width[servo] - servo_min_pulse_width[servo]))/servo_period[servo];
+}
+
+// Custom Code Start
+void servo_apply_staged_positions(void) {
+	if(servo_staged_mask == 0) {
+		return;
+	}
+
+	taskENTER_CRITICAL();
+	for(uint8_t servo = 0; servo < SERVO_NUM; servo++) {
+		if(servo_staged_mask & (1 << servo)) {
+			servo_set_velocity(servo, servo_staged_velocity[servo]);
+			servo_set_position(servo, servo_staged_position[servo]);
+		}
+	}
+	servo_staged_mask = 0;
+	taskEXIT_CRITICAL();
+}
+// Custom Code End
+
+// Custom Code Start
+const uint16_t *servo_fade_lut(const uint8_t servo) {
+	switch(servo_fade_curve[servo]) {
+		case SERVO_CURVE_GAMMA: return servo_lut_gamma;
+		case SERVO_CURVE_CIE:   return servo_lut_cie;
+		default:                return NULL;
+	}
+}
+
+uint32_t servo_fade_ease(const uint8_t easing, const uint32_t t) {
+	// t and result in Q16
+	switch(easing) {
+		case SERVO_EASING_EASE_IN_OUT: {
+			// 4t^3, mirrored in the second half
+			if(t < (1 << 15)) {
+				return (((uint64_t)t*t*t) << 2) >> 32;
+			}
+			const uint64_t u = (2 << 16) - 2*t;
+			return (1 << 16) - ((u*u*u) >> 33);
+		}
+
+		case SERVO_EASING_EXPONENTIAL: {
+			// (2^(10t) - 1) / 1023
+			const uint32_t x = 10*t;
+			const uint32_t n = x >> 16;
+			const uint32_t f = x & 0xFFFF;
+			const uint32_t k = f >> 12;
+			const uint32_t p = servo_pow2[k] + (((servo_pow2[k+1] - servo_pow2[k]) * (f & 0xFFF)) >> 12);
+			return ((p << n) - (1 << 16)) / 1023;
+		}
+
+		default: {
+			return t;
+		}
+	}
+}
+
+int16_t servo_fade_lightness_to_position(const uint8_t servo, const uint16_t lightness) {
+	const uint16_t *lut = servo_fade_lut(servo);
+	uint32_t duty = lightness;
+	if(lut != NULL) {
+		const uint16_t i = lightness >> 8;
+		const uint16_t f = lightness & 0xFF;
+		duty = lut[i];
+		if(i < SERVO_FADE_LUT_SIZE) {
+			duty += ((lut[i+1] - lut[i]) * f) >> 8;
+		}
+	}
+
+	const int32_t range = servo_max_degree[servo] - servo_min_degree[servo];
+	return servo_min_degree[servo] + (range*(int64_t)duty + 32767)/65535;
+}
+
+uint16_t servo_fade_position_to_lightness(const uint8_t servo, const int16_t position) {
+	const int32_t range = servo_max_degree[servo] - servo_min_degree[servo];
+	if(range <= 0) {
+		return 0;
+	}
+
+	const uint16_t duty = BETWEEN(0, (position - servo_min_degree[servo])*(int64_t)65535/range, 65535);
+	const uint16_t *lut = servo_fade_lut(servo);
+	if(lut == NULL) {
+		return duty;
+	}
+
+	// Last segment starting at or below duty
+	uint16_t low = 0;
+	uint16_t high = SERVO_FADE_LUT_SIZE;
+	while(high - low > 1) {
+		const uint16_t mid = (low + high)/2;
+		if(lut[mid] <= duty) {
+			low = mid;
+		} else {
+			high = mid;
+		}
+	}
+
+	if(lut[low+1] == lut[low]) {
+		return low << 8;
+	}
+	return BETWEEN(0, (low << 8) + ((duty - lut[low]) << 8)/(lut[low+1] - lut[low]), 65535);
+}
+
+void servo_fade_apply(const uint8_t servo, const int16_t position) {
+	if(servo == 3 || servo == 4) {
+		// Fade the dim set point, it is followed directly while switched on
+		servo_34[servo - 3] = position;
+		servo_fade_jump[servo] = state_34[servo - 3] == 2;
+		return;
+	}
+
+	servo_position_orig[servo] = position;
+	servo_position_goal[servo] = SCALE((int64_t)position,
+	                                   (int64_t)servo_min_degree[servo],
+	                                   (int64_t)servo_max_degree[servo],
+	                                   (int64_t)servo_min_pulse_width[servo],
+	                                   (int64_t)servo_max_pulse_width[servo]);
+	servo_fade_jump[servo] = true;
+}
+
+void servo_fade(const uint8_t servo, int16_t position, const uint32_t duration) {
+	position = BETWEEN(servo_min_degree[servo], position, servo_max_degree[servo]);
+
+	int16_t from;
+	if(servo == 3 || servo == 4) {
+		from = servo_34[servo - 3];
+	} else {
+		from = SCALE((int64_t)servo_position[servo],
+		             (int64_t)servo_min_pulse_width[servo],
+		             (int64_t)servo_max_pulse_width[servo],
+		             (int64_t)servo_min_degree[servo],
+		             (int64_t)servo_max_degree[servo]);
+	}
+
+	servo_fade_from[servo]     = servo_fade_position_to_lightness(servo, from);
+	servo_fade_to[servo]       = servo_fade_position_to_lightness(servo, position);
+	servo_fade_position[servo] = position;
+	servo_fade_start[servo]    = tick;
+	servo_fade_duration[servo] = duration;
+	servo_fade_active[servo]   = true;
+}
+
+void servo_fade_step(void) {
+	taskENTER_CRITICAL();
+	for(uint8_t servo = 0; servo < SERVO_NUM; servo++) {
+		if(!servo_fade_active[servo]) {
+			continue;
+		}
+
+		int16_t position;
+		const uint32_t elapsed = tick - servo_fade_start[servo];
+		if(elapsed >= servo_fade_duration[servo]) {
+			position = servo_fade_position[servo];
+			servo_fade_active[servo] = false;
+		} else {
+			const uint32_t t = (((uint64_t)elapsed) << 16)/servo_fade_duration[servo];
+			const int32_t delta = servo_fade_to[servo] - servo_fade_from[servo];
+			const uint16_t lightness = servo_fade_from[servo] + ((delta*(int64_t)servo_fade_ease(servo_fade_easing[servo], t)) >> 16);
+			position = servo_fade_lightness_to_position(servo, lightness);
+		}
+
+		servo_fade_apply(servo, position);
+		servo_fade_done[servo] = !servo_fade_active[servo] && servo_fade_jump[servo];
+	}
+	taskEXIT_CRITICAL();
+}
+// Custom Code End
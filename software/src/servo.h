@@ -94,6 +94,17 @@
 
 #define SERVO_BIT_MODE (1 << 7)
 
+// Custom Code Start
+// LED dimming mode: easing of a fade and curve mapping lightness to duty cycle
+#define SERVO_EASING_LINEAR 0
+#define SERVO_EASING_EASE_IN_OUT 1
+#define SERVO_EASING_EXPONENTIAL 2
+#define SERVO_CURVE_LINEAR 0
+#define SERVO_CURVE_GAMMA 1
+#define SERVO_CURVE_CIE 2
+#define SERVO_FADE_LUT_SIZE 256
+// Custom Code End
+
 void new_connection(void);
 void servo_init(void);
 void tick_task(const uint8_t tick_type);
@@ -113,6 +124,11 @@ void servo_velocity_reached_callback(const uint8_t servo);
 
 void servo_enable(const uint8_t servo);
 void servo_disable(const uint8_t servo);
+void servo_set_position(const uint8_t servo, int16_t position);
+void servo_set_velocity(const uint8_t servo, const uint16_t velocity);
+void servo_apply_staged_positions(void);
+void servo_fade(const uint8_t servo, int16_t position, const uint32_t duration);
+void servo_fade_step(void);
 
 void servo_update_data(const uint8_t servo,
                        const int32_t period_length_old, const int32_t period_length_new,